@@ -0,0 +1,326 @@
+package se.umea.mapgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.semanticweb.owlapi.model.OWLOntology;
+import ppmappingcompiler.Configuration;
+import ppmappingcompiler.PPOBDAMappingCompiler;
+import ppmappingcompiler.db.DBStatistics;
+import ppmappingcompiler.fol.OntologyPredicateAtom;
+import ppmappingcompiler.policy.OntologyConjunctiveQuery;
+import ppmappingcompiler.policy.PolicyLoader;
+import ppmappingcompiler.util.OntologyUtils;
+import se.umea.mapgen.reformulation.OntopNativeQuery;
+import se.umea.mapgen.reformulation.OntopReformulationAPI;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A long-running process compiling policies into mappings, so that a policy can be compiled many times without paying,
+ * at each run, the warm-up of the JVM, the loading of the ontology and the initialization of Ontop.<br>
+ * The ontology, the two Ontop rewriters (over the direct mappings, for expanding the policy, and over the original
+ * mappings, for reformulating the views) and the most recently used reformulations of the views are kept in memory
+ * between requests.
+ * The input files are watched: when one of them changes, the state is dropped and rebuilt by the next request.<br>
+ * A policy (a JSON array of Datalog rules, as read by {@link PolicyLoader}) is compiled by POSTing it to
+ * {@code http://127.0.0.1:<port>/compile}. The response is a JSON object with the generated mappings ({@code obda}),
+ * the views whose reformulation timed out ({@code timedOutViews}) and the time spent in each stage ({@code timings}, in
+ * milliseconds). Requests are served one at a time.<br>
+ * Requests whose {@code Host} header is not a loopback name are rejected, so that a web page cannot reach the daemon by
+ * rebinding its own domain name to the loopback address.
+ */
+public class CompileDaemon {
+
+    private static final int DEFAULT_PORT = 8765;
+    private static final String PORT_OPTION = "-p:";    // e.g. "-p:8765"
+    private static final String COMPILE_PATH = "/compile";
+    private static final Pattern LOOPBACK_HOST = Pattern.compile("(127\\.0\\.0\\.1|localhost|\\[::1])(:\\d+)?",
+            Pattern.CASE_INSENSITIVE);
+    // reformulations of views (and timed-out views) kept between requests, the least recently used are dropped first
+    private static final int MAX_CACHED_REFORMULATIONS = 10_000;
+
+    private final String ontologyFile;
+    private final String directMappingFile;
+    private final String directMetadataFile;
+    private final String mappingFile;
+    private final String metadataFile;
+    private final long timeoutMillis;
+    private final long retryTimeoutMillis;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // null if it must be (re)built, guarded by this
+    private @Nullable State state;
+
+    /**
+     * The state shared by the compilations, which depends on the input files only.
+     */
+    private static class State {
+        final OWLOntology ontology;
+        final PolicyExpansion expansion;
+        final OntopReformulationAPI rewriter;
+        final DBStatistics statistics;
+        final Map<String, OntopNativeQuery> reformulationCache = lruMap(MAX_CACHED_REFORMULATIONS);
+        // the views whose reformulation timed out, possibly still running in background in the rewriter
+        final Set<String> timedOutQueries = Collections.newSetFromMap(lruMap(MAX_CACHED_REFORMULATIONS));
+
+        State(OWLOntology ontology, PolicyExpansion expansion, OntopReformulationAPI rewriter, DBStatistics statistics) {
+            this.ontology = ontology;
+            this.expansion = expansion;
+            this.rewriter = rewriter;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * @param directMappingFile  The mappings over the direct database schema, used for expanding the policy.
+     * @param directMetadataFile The direct database schema.
+     * @param mappingFile        The original mappings, used for reformulating the views.
+     * @param metadataFile       The original database schema (possibly with table statistics).
+     * @param timeoutMillis      The deadline of the reformulation of each view (0 means no deadline).
+     * @param retryTimeoutMillis The deadline when retrying the timed-out views (0 means no retry).
+     */
+    public CompileDaemon(String ontologyFile, String directMappingFile, String directMetadataFile,
+                         String mappingFile, String metadataFile, long timeoutMillis, long retryTimeoutMillis) {
+        this.ontologyFile = ontologyFile;
+        this.directMappingFile = directMappingFile;
+        this.directMetadataFile = directMetadataFile;
+        this.mappingFile = mappingFile;
+        this.metadataFile = metadataFile;
+        this.timeoutMillis = timeoutMillis;
+        this.retryTimeoutMillis = retryTimeoutMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Scanner scanner = new Scanner(System.in);
+        System.out.print("Enter the path to the ontology file (e.g., University.owl): ");
+        String ontologyFile = scanner.nextLine();
+        System.out.print("Enter the path to the direct mapping file (e.g., direct_mappings.obda): ");
+        String directMappingFile = scanner.nextLine();
+        System.out.print("Enter the path to the direct database schema file (e.g., data.json): ");
+        String directMetadataFile = scanner.nextLine();
+        System.out.print("Enter the path to the mapping file (e.g., Original_mappings.obda): ");
+        String mappingFile = scanner.nextLine();
+        System.out.print("Enter the path to the original database schema file (e.g., Original_DBschema.json): ");
+        String metadataFile = scanner.nextLine();
+        scanner.close();
+
+        int port = (int) PolicyEmbedded.getLongOption(args, PORT_OPTION, DEFAULT_PORT);
+        long timeoutMillis = PolicyEmbedded.getLongOption(args, PolicyEmbedded.TIMEOUT_OPTION, 0);
+        long retryTimeoutMillis = PolicyEmbedded.getLongOption(args, PolicyEmbedded.RETRY_TIMEOUT_OPTION, 0);
+
+        CompileDaemon daemon = new CompileDaemon(ontologyFile, directMappingFile, directMetadataFile,
+                mappingFile, metadataFile, timeoutMillis, retryTimeoutMillis);
+        daemon.warmUp();
+        daemon.watchInputs();
+        daemon.start(port);
+    }
+
+    /**
+     * This method builds the state shared by the compilations, if it has not been built yet.
+     *
+     * @return The time spent building it, in milliseconds.
+     */
+    public synchronized long warmUp() throws Exception {
+        if (state != null) return 0;
+        long start = System.nanoTime();
+        OWLOntology ontology = OntologyUtils.loadOntology(ontologyFile);
+        OntopReformulationAPI directRewriter = PolicyExpansion.createRewriter(directMappingFile, ontologyFile, directMetadataFile, false);
+        PolicyExpansion expansion = new PolicyExpansion(ontology,
+                PolicyExpansion.loadRelationToIriMap(PolicyExpansion.RELATION_TO_IRI_FILE), directRewriter);
+        OntopReformulationAPI rewriter = PolicyEmbedded.createRewriter(ontologyFile, mappingFile, metadataFile);
+        DBStatistics statistics = DBStatistics.loadFromJson(metadataFile);
+        state = new State(ontology, expansion, rewriter, statistics);
+        long millis = millisSince(start);
+        System.out.println("Inputs loaded in " + millis + " ms");
+        return millis;
+    }
+
+    /**
+     * This method compiles a policy into mappings, through the same stages as {@link PolicyExpansion},
+     * {@link PPOBDAMappingCompiler} and {@link PolicyEmbedded}, but without writing intermediate files.
+     *
+     * @param policy A JSON array of Datalog rules.
+     * @return The generated mappings, the timed-out views and the time spent in each stage.
+     */
+    public synchronized ObjectNode compile(InputStream policy) throws Exception {
+        long start = System.nanoTime();
+        Map<String, Long> timings = new LinkedHashMap<>();
+        timings.put("load", warmUp());
+        State state = Objects.requireNonNull(this.state);
+
+        // The policy loader and the view compiler read the policy from a file
+        Path policyFile = Files.createTempFile("policy", ".json");
+        Configuration config = new Configuration(ontologyFile, policyFile.toString());
+        try {
+            Files.copy(policy, policyFile, StandardCopyOption.REPLACE_EXISTING);
+
+            long stageStart = System.nanoTime();
+            List<OntologyConjunctiveQuery> policyRules = PolicyExpansion.loadPolicyFromJson(policyFile.toString(), state.ontology);
+            List<OntologyConjunctiveQuery> expandedPolicyRules = state.expansion.expandPolicy(policyRules, 1, true, 1);
+            timings.put("expansion", millisSince(stageStart));
+
+            stageStart = System.nanoTime();
+            Map<OntologyPredicateAtom, String> views = new PPOBDAMappingCompiler(config)
+                    .compileViews(state.ontology, new HashSet<>(expandedPolicyRules));
+            timings.put("views", millisSince(stageStart));
+
+            stageStart = System.nanoTime();
+            StringWriter obda = new StringWriter();
+            ArrayNode timedOutViews = objectMapper.createArrayNode();
+            int mappings;
+            try (PrintWriter writer = new PrintWriter(obda)) {
+                mappings = PolicyEmbedded.generateMappings(state.rewriter, views, writer, state.statistics,
+                        timeoutMillis, retryTimeoutMillis, timedOutViews, state.reformulationCache,
+                        state.timedOutQueries);
+            }
+            timings.put("mappings", millisSince(stageStart));
+            timings.put("total", millisSince(start));
+
+            ObjectNode response = objectMapper.createObjectNode();
+            response.put("rules", policyRules.size());
+            response.put("expandedRules", expandedPolicyRules.size());
+            response.put("views", views.size());
+            response.put("mappings", mappings);
+            response.set("timedOutViews", timedOutViews);
+            ObjectNode timingsNode = response.putObject("timings");
+            timings.forEach(timingsNode::put);
+            response.put("obda", obda.toString());
+            return response;
+        } finally {
+            Files.deleteIfExists(policyFile);
+            Files.deleteIfExists(Paths.get(config.refinedPolicyFilename));
+        }
+    }
+
+    /**
+     * This method drops the state shared by the compilations: it is rebuilt by the next compilation.
+     */
+    public synchronized void invalidate(String reason) {
+        if (state == null) return;
+        System.out.println("Dropping the loaded inputs: " + reason);
+        state = null;
+    }
+
+    /**
+     * This method starts serving compilations on the loopback interface only.
+     */
+    public HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(COMPILE_PATH, this::handle);
+        server.start();
+        System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" + port + COMPILE_PATH);
+        return server;
+    }
+
+    /**
+     * This method watches the input files (through the directories containing them) on a daemon thread,
+     * and {@link #invalidate(String) invalidates} the state when one of them is created, modified or deleted.
+     */
+    public void watchInputs() throws IOException {
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        Set<Path> inputs = new HashSet<>();
+        Set<Path> directories = new HashSet<>();
+        for (String file : Arrays.asList(ontologyFile, directMappingFile, directMetadataFile, mappingFile, metadataFile,
+                PolicyExpansion.RELATION_TO_IRI_FILE)) {
+            Path path = Paths.get(file).toAbsolutePath().normalize();
+            inputs.add(path);
+            if (directories.add(path.getParent())) {
+                path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+
+        Thread thread = new Thread(() -> {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidate("some events of " + directory + " have been lost");
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context());
+                    if (inputs.contains(changed)) invalidate(changed + " has changed");
+                }
+                key.reset();
+            }
+        }, "compile-daemon-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*===================*
+     * AUXILIARY METHODS *
+     *===================*/
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            if (host == null || !LOOPBACK_HOST.matcher(host).matches()) {
+                send(exchange, 403, error("Only requests to 127.0.0.1 or localhost are served"));
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, error("Policies must be POSTed to " + COMPILE_PATH));
+                return;
+            }
+            ObjectNode response;
+            try (InputStream body = exchange.getRequestBody()) {
+                response = compile(body);
+            }
+            send(exchange, 200, response);
+        } catch (PolicyLoader.InvalidPolicyException e) {
+            send(exchange, 400, error(e.getMessage()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            send(exchange, 500, error(String.valueOf(e)));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private ObjectNode error(String message) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("error", message);
+        return response;
+    }
+
+    private void send(HttpExchange exchange, int status, ObjectNode response) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // A map in access order, dropping the least recently used entry beyond the given size
+    private static <K, V> Map<K, V> lruMap(int maxSize) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+}
@@ -3,14 +3,21 @@ import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import ppmappingcompiler.util.IOUtils;
+
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
 
 public class Main {
+    // number of sample tuples inserted in each generated table
+    private static final int ROWS_PER_RELATION = 3;
+
     public static void main(String[] args) throws OWLOntologyCreationException, IOException {
+        // the generated SQL, OBDA and JSON files can be compressed, e.g. with option "-z:gz" or "-z:zst"
+        String compression = IOUtils.getCompressionOption(args);
 
         Scanner scanner = new Scanner(System.in);
 
@@ -21,7 +28,10 @@ public class Main {
         OWLOntologyManager ontologyManager = OWLManager.createOWLOntologyManager();
 
         // Load the ontology
-        OWLOntology ontology = ontologyManager.loadOntologyFromOntologyDocument(new File(owlFilePath));
+        OWLOntology ontology;
+        try (InputStream in = IOUtils.newInputStream(owlFilePath)) {
+            ontology = ontologyManager.loadOntologyFromOntologyDocument(in);
+        }
         System.out.println("Ontology loaded successfully from: " + owlFilePath);
 
         scanner.close();
@@ -57,12 +67,12 @@ public class Main {
         }
 
         // Create an SQL file to write the CREATE TABLE and INSERT statements
-        String sqlFileName = "direct_DBSchema.sql";
-        BufferedWriter sqlFileWriter = new BufferedWriter(new FileWriter(sqlFileName));
+        String sqlFileName = IOUtils.addCompressionExtension("direct_DBSchema.sql", compression);
+        BufferedWriter sqlFileWriter = IOUtils.newWriter(sqlFileName);
 
         // Create an OBDA file to write the mappings
-        String obdaFileName = "direct_mappings.obda";
-        BufferedWriter obdaFileWriter = new BufferedWriter(new FileWriter(obdaFileName));
+        String obdaFileName = IOUtils.addCompressionExtension("direct_mappings.obda", compression);
+        BufferedWriter obdaFileWriter = IOUtils.newWriter(obdaFileName);
 
         // Define the ontology prefix
         obdaFileWriter.write("[PrefixDeclaration]\n");
@@ -91,7 +101,7 @@ public class Main {
 
             // Generate INSERT statements with unique values
             StringBuilder insertDataSQL = new StringBuilder();
-            for (int i = 1; i <= 3; i++) {
+            for (int i = 1; i <= ROWS_PER_RELATION; i++) {
                 insertDataSQL.append("INSERT INTO \"").append(tableName).append("\" (attribute) VALUES\n");
                 insertDataSQL.append(" ('").append(tableName.toLowerCase()).append("_").append(i).append("');\n");
             }
@@ -119,7 +129,7 @@ public class Main {
 
             // Generate INSERT statements with unique values
             StringBuilder insertDataSQL = new StringBuilder();
-            for (int i = 1; i <= 3; i++) {
+            for (int i = 1; i <= ROWS_PER_RELATION; i++) {
                 insertDataSQL.append("INSERT INTO \"").append(tableName).append("\" (attribute1, attribute2) VALUES\n");
                 insertDataSQL.append(" ('").append(tableName.toLowerCase()).append("_").append(i).append("_1', '").append(tableName.toLowerCase()).append("_").append(i).append("_2');\n");
             }
@@ -146,13 +156,17 @@ public class Main {
 
 
         // Generate JSON file
-        generateJsonFile(relationNames, twoAttributeRelationNames);
+        generateJsonFile(relationNames, twoAttributeRelationNames, IOUtils.addCompressionExtension("data.json", compression));
 
         // Generate CSV file
         generateCsvFile(iriToRelationMap);
     }
 
     public static void generateJsonFile(List<String> relationNames, List<String> twoAttributeRelationNames) {
+        generateJsonFile(relationNames, twoAttributeRelationNames, "data.json");
+    }
+
+    public static void generateJsonFile(List<String> relationNames, List<String> twoAttributeRelationNames, String jsonFileName) {
         // Create an ObjectMapper
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
@@ -186,7 +200,8 @@ public class Main {
                     "name", List.of("\"" + relationName + "\""),
                     "otherNames", List.of(),
                     "uniqueConstraints", List.of(),
-                    "foreignKeys", List.of()
+                    "foreignKeys", List.of(),
+                    "statistics", generateStatistics(columns)
             );
 
             relations.add(relationObject);
@@ -213,7 +228,8 @@ public class Main {
                     "name", List.of("\"" + relationName + "\""),
                     "otherNames", List.of(),
                     "uniqueConstraints", List.of(),
-                    "foreignKeys", List.of()
+                    "foreignKeys", List.of(),
+                    "statistics", generateStatistics(columns)
             );
 
             relations.add(relationObject);
@@ -224,19 +240,31 @@ public class Main {
         jsonStructure.put("relations", relations);
         jsonStructure.put("metadata", metadata);
 
-        try {
+        try (OutputStream out = IOUtils.newOutputStream(jsonFileName)) {
             // Convert the JSON object to JSON and write it to a file
-            objectMapper.writeValue(new File("data.json"), jsonStructure);
-            System.out.println("JSON file generated successfully.");
+            objectMapper.writeValue(out, jsonStructure);
+            System.out.println("JSON file generated successfully: " + jsonFileName);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
 
+    // Statistics used for ordering joins: every generated table contains ROWS_PER_RELATION tuples with unique values
+    private static Map<String, Object> generateStatistics(List<Map<String, Object>> columns) {
+        Map<String, Object> distinctValues = new LinkedHashMap<>();
+        for (Map<String, Object> column : columns) {
+            distinctValues.put((String) column.get("name"), ROWS_PER_RELATION);
+        }
+        return Map.of(
+                "rowCount", ROWS_PER_RELATION,
+                "distinctValues", distinctValues
+        );
+    }
+
     public static void generateCsvFile(Map<String, String> iriToRelationMap) throws IOException {
         String csvFileName = "iri_relation_names.csv";
-        BufferedWriter csvFileWriter = new BufferedWriter(new FileWriter(csvFileName));
+        BufferedWriter csvFileWriter = IOUtils.newWriter(csvFileName);
 
         // Write header to the CSV file
         csvFileWriter.write("IRI,RelationName\n");
@@ -1,32 +1,46 @@
 package se.umea.mapgen;
-import com.google.common.base.Charsets;
 import com.google.common.io.CharSource;
-import com.google.common.io.MoreFiles;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
+import ppmappingcompiler.BinaryViewsFile;
+import ppmappingcompiler.db.DBStatistics;
+import ppmappingcompiler.db.SQLJoinReordering;
 import ppmappingcompiler.fol.*;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.semanticweb.owlapi.model.OWLOntology;
 import ppmappingcompiler.parser.BCQParser;
 import ppmappingcompiler.parser.DatalogBCQParser;
 import ppmappingcompiler.policy.OntologyConjunctiveQuery;
+import ppmappingcompiler.util.BinaryContainer;
+import ppmappingcompiler.util.IOUtils;
 import ppmappingcompiler.util.OntologyUtils;
 import se.umea.mapgen.reformulation.OntopReformulationAPI;
-import se.umea.mapgen.reformulation.OntopReformulationResult;
+import se.umea.mapgen.reformulation.OntopNativeQuery;
+import se.umea.mapgen.reformulation.ReformulationTimeoutException;
+import se.umea.mapgen.reformulation.ReformulationTimings;
 
 import java.io.IOException;
-import java.io.FileReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 import java.io.PrintWriter;
 
 public class PolicyEmbedded {
 
+    // number of views reported as the slowest to reformulate
+    private static final int SLOWEST_VIEWS = 10;
+
+    // deadline (in ms) of the reformulation of each view, e.g. "-t:60000", and when retrying the timed-out ones, e.g. "-rt:600000"
+    static final String TIMEOUT_OPTION = "-t:";
+    static final String RETRY_TIMEOUT_OPTION = "-rt:";
+    static final String TIMED_OUT_VIEWS_FILE = "timed_out_views.json";
+
     public static void main(String[] args) throws Exception{
 
         // Specify the paths to the ontology, mapping, metadata, and SPARQL queries JSON file
@@ -47,7 +61,7 @@ public class PolicyEmbedded {
         OWLOntologyManager ontologyManager = OWLManager.createOWLOntologyManager();
         OWLOntology ontology; // Define the ontology variable
 
-        try (InputStream in = Files.newInputStream(Paths.get(ontologyFilePath))) {
+        try (InputStream in = IOUtils.newInputStream(ontologyFilePath)) {
             assert in != null;
             ontology = ontologyManager.loadOntologyFromOntologyDocument(in);
         }
@@ -56,18 +70,38 @@ public class PolicyEmbedded {
         Map<OntologyPredicateAtom, String> viewsByAtom = loadSparqlQueriesFromJson(sparqlJsonFilePath, ontology);
         System.out.println(viewsByAtom);
 
-        // Generate SQL queries
-        Map<OntologyPredicateAtom, OntopReformulationResult> predicatetoSQLQuery = generateSQL(ontologyFilePath, mappingFilePath, metadataFilePath, viewsByAtom);
-        System.out.println("Generated SQL Queries: " + predicatetoSQLQuery);
+        // Initialize Ontop, which reformulates the SPARQL queries into SQL queries
+        OntopReformulationAPI rewriter = createRewriter(ontologyFilePath, mappingFilePath, metadataFilePath);
+
+        // Load the (optional) table statistics, used for ordering joins in the embedded SQL queries
+        DBStatistics statistics = DBStatistics.loadFromJson(metadataFilePath);
 
         // Generate mapping file
-        String outputMappingFile = "output_mapping.obda";
-        generateMappingFile(predicatetoSQLQuery, outputMappingFile);
+        // the mapping file can be compressed, e.g. with option "-z:gz" or "-z:zst"
+        String outputMappingFile = IOUtils.addCompressionExtension("output_mapping.obda", IOUtils.getCompressionOption(args));
+        long timeoutMillis = getLongOption(args, TIMEOUT_OPTION, 0);
+        long retryTimeoutMillis = getLongOption(args, RETRY_TIMEOUT_OPTION, 0);
+        generateMappingFile(rewriter, viewsByAtom, outputMappingFile, statistics, timeoutMillis, retryTimeoutMillis, TIMED_OUT_VIEWS_FILE);
+    }
+
+    static long getLongOption(String[] args, String option, long defaultValue) {
+        String value = getOption(args, option, null);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    static String getOption(String[] args, String option, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(option)) return arg.substring(option.length());
+        }
+        return defaultValue;
     }
 
     private static Map<OntologyPredicateAtom, String> loadSparqlQueriesFromJson(String filePath, OWLOntology ontology) throws Exception {
+        // views compiled into a binary container are read without parsing the predicates
+        if (BinaryContainer.isBinaryFile(filePath)) return BinaryViewsFile.load(Paths.get(filePath));
+
         Map<OntologyPredicateAtom, String> predicatetoSparqlQuery = new HashMap<>();
-        try (FileReader reader = new FileReader(filePath)) {
+        try (Reader reader = IOUtils.newReader(filePath)) {
             ObjectMapper objectMapper = new ObjectMapper();
             JsonNode root = objectMapper.readTree(reader);
             JsonNode queriesNode = root.path("queries");
@@ -93,88 +127,212 @@ public class PolicyEmbedded {
         return bcqParser.OntologyPredicateAtom(predicate);
     }
 
-    private static Map<OntologyPredicateAtom,OntopReformulationResult> generateSQL(String ontologyFile, String mappingFile, String metadataFile, Map<OntologyPredicateAtom,String>predicatetoSparqlQuery) throws Exception{
+    static OntopReformulationAPI createRewriter(String ontologyFile, String mappingFile, String metadataFile) throws Exception{
         Properties properties = new Properties();
         properties.setProperty("jdbc.url", "jdbc:postgresql://localhost:5432/dummy"); //ToDO: handle database could be different from postgres    //needed only to determine DB type
-        properties.setProperty("ontop.existentialReasoning", "false"); // default is "false"
+        properties.setProperty("ontop.existentialReasoning", "auto"); // only when it may change the answers of a view
         properties.setProperty("ontop.reformulateToFullNativeQuery", "true"); // default is "false"
 
         //feeding all input files to OnTop
-        CharSource mappingSource = MoreFiles.asCharSource(Paths.get(mappingFile), Charsets.UTF_8);
-        CharSource ontologySource = MoreFiles.asCharSource(Paths.get(ontologyFile), Charsets.UTF_8);
-        CharSource metadataSource = MoreFiles.asCharSource(Paths.get(metadataFile), Charsets.UTF_8);
+        CharSource mappingSource = IOUtils.asCharSource(mappingFile);
+        CharSource ontologySource = IOUtils.asCharSource(ontologyFile);
+        CharSource metadataSource = IOUtils.asCharSource(metadataFile);
 
         //Intialize OnTop functionality to rewrite the queries
-        OntopReformulationAPI rewriter = new OntopReformulationAPI(properties, mappingSource, ontologySource, metadataSource);
-        Map<OntologyPredicateAtom, OntopReformulationResult> predicatetoSQLQuery = new HashMap<>();
-
-        // Iterate over each entry in the predicatetoSparqlQuery map
-        for (Map.Entry<OntologyPredicateAtom, String> entry : predicatetoSparqlQuery.entrySet()) {
-            OntologyPredicateAtom atom = entry.getKey();
-            String sparqlQuery = entry.getValue();
-
-            // Using the OntopReformulationAPI to rewrite the SPARQL query to SQL
-            OntopReformulationResult result = rewriter.reformulate(sparqlQuery);
-            //String sqlQuery = result.getNativeQuerySQL();
+        return new OntopReformulationAPI(properties, mappingSource, ontologySource, metadataSource);
+    }
 
-            // Add the result to the map of SQL queries
-            predicatetoSQLQuery.put(atom, result);
+    /**
+     * This method reformulates each view into SQL and writes the corresponding mapping as soon as it is generated.
+     * Only the native query (SQL and target map) of each reformulation is kept, while the IQs produced by Ontop are
+     * released view by view: memory does not grow with the total size of the IQs.<br>
+     * A view whose reformulation exceeds the deadline is set aside, so that the remaining views are not stalled. Once
+     * all views have been processed, the timed-out ones are optionally retried with a larger deadline, which resumes the
+     * reformulations left running in background (see {@link OntopReformulationAPI#reformulate(String, long)}). Views that still
+     * time out get no mapping (i.e., the predicate is never disclosed). The timed-out views are recorded in
+     * {@code timedOutViewsFile}, if any.
+     *
+     * @param timeoutMillis      The deadline of each reformulation (0 means no deadline).
+     * @param retryTimeoutMillis The deadline when retrying the timed-out views (0 means no retry).
+     */
+    private static void generateMappingFile(OntopReformulationAPI rewriter, Map<OntologyPredicateAtom, String> predicatetoSparqlQuery,
+                                            String outputMappingFile, DBStatistics statistics, long timeoutMillis,
+                                            long retryTimeoutMillis, String timedOutViewsFile) throws Exception {
+        int mappings;
+        ArrayNode timedOutViews = new ObjectMapper().getNodeFactory().arrayNode();
+        try (PrintWriter writer = new PrintWriter(IOUtils.newWriter(outputMappingFile))) {
+            mappings = generateMappings(rewriter, predicatetoSparqlQuery, writer, statistics, timeoutMillis,
+                    retryTimeoutMillis, timedOutViews, new HashMap<>(), new HashSet<>());
         }
+        System.out.println("Mapping file generated: " + outputMappingFile + " (" + mappings + " mappings)");
 
-        // Return the map of generated SQL queries
-        return predicatetoSQLQuery;
+        // Record the timed-out views for later analysis
+        if (!timedOutViews.isEmpty()) {
+            writeTimedOutViews(timedOutViews, timeoutMillis, retryTimeoutMillis, timedOutViewsFile);
+            System.out.println("Timed-out views recorded in " + timedOutViewsFile);
+        }
     }
 
-    private static void generateMappingFile(Map<OntologyPredicateAtom, OntopReformulationResult> predicatetoSQLQuery, String outputMappingFile) throws IOException {
-        try (PrintWriter writer = new PrintWriter(outputMappingFile, StandardCharsets.UTF_8)) {
-
-            // Emit prefixes block, currently empty
-            writer.println("[PrefixDeclaration]\n");
+    /**
+     * This method is the same as {@link #generateMappingFile(OntopReformulationAPI, Map, String, DBStatistics, long, long, String)},
+     * but the mappings are written to the given writer and the timed-out views are added to the given array.
+     *
+     * @param timedOutViews      The array to which each timed-out view is added, as an object with its
+     *                           {@code predicate}, its {@code sparqlQuery} and whether it was {@code resolvedOnRetry}.
+     * @param reformulationCache The reformulation of each SPARQL query, which is read and updated: it can be shared by
+     *                           several calls with the same rewriter (e.g., by a long-running process).
+     * @param timedOutQueries    The SPARQL queries whose reformulation still timed out, which is read and updated like
+     *                           {@code reformulationCache}: if a retry is enabled, their views are set aside at once,
+     *                           without waiting again for the first deadline.
+     * @return The number of mappings written.
+     */
+    static int generateMappings(OntopReformulationAPI rewriter, Map<OntologyPredicateAtom, String> predicatetoSparqlQuery,
+                                PrintWriter writer, DBStatistics statistics, long timeoutMillis, long retryTimeoutMillis,
+                                ArrayNode timedOutViews, Map<String, OntopNativeQuery> reformulationCache,
+                                Set<String> timedOutQueries) throws Exception {
+        SQLJoinReordering joinReordering = new SQLJoinReordering(statistics);
+
+        // Identical SPARQL queries (e.g., views sharing the same shape and predicates) are reformulated only once,
+        // and the ones which timed out (now or in a previous call) are not tried again before the retry
+        Set<String> setAsideQueries = retryTimeoutMillis == 0 ? new HashSet<>() : new HashSet<>(timedOutQueries);
+        Set<String> reformulatedQueries = new HashSet<>();
+        int mappings = 0;
+
+        // Timings of each reformulation, for reporting the slowest views
+        List<Map.Entry<OntologyPredicateAtom, ReformulationTimings>> timings = new ArrayList<>();
+
+        // Views whose reformulation timed out, and the ones which still time out after the retry
+        Map<OntologyPredicateAtom, String> setAsideViews = new LinkedHashMap<>();
+        Map<OntologyPredicateAtom, String> unresolvedViews = new LinkedHashMap<>();
+
+        // Emit prefixes block, currently empty
+        writer.println("[PrefixDeclaration]\n");
+
+        // Emit mappings block
+        writer.println("[MappingDeclaration] @collection [[");
+        for (Map.Entry<OntologyPredicateAtom, String> entry : predicatetoSparqlQuery.entrySet()) {
+            OntopNativeQuery result = reformulate(rewriter, entry.getKey(), entry.getValue(), timeoutMillis,
+                    reformulationCache, setAsideQueries, reformulatedQueries, timings);
+            if (result == null) {
+                setAsideViews.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            mappings = writeMapping(writer, entry.getKey(), result, joinReordering, mappings);
+        }
 
-            // Emit mappings block
-            writer.println("[MappingDeclaration] @collection [[");
-            boolean firstMapping = true;
-            for (Map.Entry<OntologyPredicateAtom, OntopReformulationResult> e : predicatetoSQLQuery.entrySet()) {
-                OntologyPredicateAtom predicate = e.getKey();
-                OntopReformulationResult result = e.getValue();
+        // Retry the timed-out views with a larger deadline
+        if (retryTimeoutMillis != 0 && !setAsideViews.isEmpty()) {
+            System.out.println("Retrying " + setAsideViews.size() + " timed-out views with a deadline of " + retryTimeoutMillis + " ms");
+            setAsideQueries.clear();
+        }
+        for (Map.Entry<OntologyPredicateAtom, String> entry : setAsideViews.entrySet()) {
+            OntopNativeQuery result = retryTimeoutMillis == 0 ? null : reformulate(rewriter, entry.getKey(),
+                    entry.getValue(), retryTimeoutMillis, reformulationCache, setAsideQueries, reformulatedQueries, timings);
+            if (result == null) {
+                unresolvedViews.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            mappings = writeMapping(writer, entry.getKey(), result, joinReordering, mappings);
+        }
+        writer.println("]]");
+        timedOutQueries.removeAll(setAsideViews.values());
+        timedOutQueries.addAll(unresolvedViews.values());
 
-                // Skip the mapping for this predicate in case the reformulated query is empty (no results possible)
-                if (result.isEmpty()) {
-                    continue;
-                }
+        System.out.println("Reformulated " + reformulatedQueries.size() + " distinct SPARQL queries for " + predicatetoSparqlQuery.size() + " views");
 
-                String sqlQuery = result.getNativeQuerySQL();
-                Map<String, String> targetMap = result.getNativeQueryTargetMap();
-
-                String target = null;
-                if (predicate.getArity() == 1) {
-                    // handle a class
-                    String subjVar = predicate.getVariables().get(0).getName();
-                    target = targetMap.get(subjVar) + " a <" + predicate.getPredicateIRI() + "> .";
-                } else {
-                    // handle a property
-                    String subjVar = predicate.getVariables().get(0).getName();
-                    String objVar = predicate.getVariables().get(1).getName();
-                    target = targetMap.get(subjVar) + " <" + predicate.getPredicateIRI() + "> " + targetMap.get(objVar) + " .";
-                }
+        for (Map.Entry<OntologyPredicateAtom, String> entry : setAsideViews.entrySet()) {
+            ObjectNode viewObject = timedOutViews.addObject();
+            viewObject.put("predicate", entry.getKey().toString());
+            viewObject.put("sparqlQuery", entry.getValue());
+            viewObject.put("resolvedOnRetry", !unresolvedViews.containsKey(entry.getKey()));
+        }
+        if (!unresolvedViews.isEmpty()) {
+            System.out.println("WARNING: " + unresolvedViews.size() + " views timed out and have no mapping");
+        }
 
-                if (!firstMapping) {
-                    writer.println();
-                }
-                firstMapping = false;
+        // Report where the reformulation time went
+        System.out.println(rewriter.getStatistics());
+        timings.sort(Comparator.comparingLong((Map.Entry<OntologyPredicateAtom, ReformulationTimings> e) -> e.getValue().getTotalNanos()).reversed());
+        System.out.println("Slowest views:");
+        for (Map.Entry<OntologyPredicateAtom, ReformulationTimings> e : timings.subList(0, Math.min(SLOWEST_VIEWS, timings.size()))) {
+            System.out.println("  " + e.getKey() + ": " + e.getValue());
+        }
+        return mappings;
+    }
 
-                String mapping = "" +
-                        "mappingId  " + predicate.toString() + "\n" +
-                        "target     " + target + "\n" +
-                        "source     " + sqlQuery.trim().replace("\n", "\n           ");
+    // Returns null if the reformulation of the view exceeded the deadline
+    private static OntopNativeQuery reformulate(OntopReformulationAPI rewriter, OntologyPredicateAtom predicate, String sparqlQuery,
+                                                long timeoutMillis, Map<String, OntopNativeQuery> reformulationCache,
+                                                Set<String> timedOutQueries, Set<String> reformulatedQueries,
+                                                List<Map.Entry<OntologyPredicateAtom, ReformulationTimings>> timings) throws Exception {
+        OntopNativeQuery result = reformulationCache.get(sparqlQuery);
+        if (result != null || timedOutQueries.contains(sparqlQuery)) {
+            return result;
+        }
 
-                writer.println(mapping);
-            }
-            writer.println("]]");
+        // Using the OntopReformulationAPI to rewrite the SPARQL query to SQL
+        try {
+            result = rewriter.reformulateToNativeQuery(sparqlQuery, timeoutMillis);
+        } catch (ReformulationTimeoutException e) {
+            System.out.println("Reformulation of " + predicate + " timed out after " + timeoutMillis + " ms");
+            timedOutQueries.add(sparqlQuery);
+            return null;
         }
+        reformulationCache.put(sparqlQuery, result);
+        reformulatedQueries.add(sparqlQuery);
+        if (result.getTimings() != null) {
+            timings.add(new AbstractMap.SimpleImmutableEntry<>(predicate, result.getTimings()));
+        }
+        return result;
     }
-}
 
+    // Returns the number of mappings written so far
+    private static int writeMapping(PrintWriter writer, OntologyPredicateAtom predicate, OntopNativeQuery result,
+                                    SQLJoinReordering joinReordering, int mappings) {
+        // Skip the mapping for this predicate in case the reformulated query is empty (no results possible)
+        if (result.isEmpty()) {
+            return mappings;
+        }
+        if (mappings > 0) {
+            writer.println();
+        }
+        writer.println(generateMapping(predicate, result, joinReordering));
+        return mappings + 1;
+    }
 
+    private static void writeTimedOutViews(ArrayNode jsonArray, long timeoutMillis, long retryTimeoutMillis,
+                                           String outputJsonFilename) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        ObjectNode jsonOutput = objectMapper.getNodeFactory().objectNode();
+        jsonOutput.put("timeoutMillis", timeoutMillis);
+        jsonOutput.put("retryTimeoutMillis", retryTimeoutMillis);
+        jsonOutput.set("views", jsonArray);
+        try (OutputStream out = IOUtils.newOutputStream(outputJsonFilename)) {
+            objectMapper.writeValue(out, jsonOutput);
+        }
+    }
 
+    private static String generateMapping(OntologyPredicateAtom predicate, OntopNativeQuery result, SQLJoinReordering joinReordering) {
+        // Put the most selective relations and the cheapest anti-joins first
+        String sqlQuery = joinReordering.reorder(result.getNativeQuerySQL());
+        Map<String, String> targetMap = result.getNativeQueryTargetMap();
+
+        String target = null;
+        if (predicate.getArity() == 1) {
+            // handle a class
+            String subjVar = predicate.getVariables().get(0).getName();
+            target = targetMap.get(subjVar) + " a <" + predicate.getPredicateIRI() + "> .";
+        } else {
+            // handle a property
+            String subjVar = predicate.getVariables().get(0).getName();
+            String objVar = predicate.getVariables().get(1).getName();
+            target = targetMap.get(subjVar) + " <" + predicate.getPredicateIRI() + "> " + targetMap.get(objVar) + " .";
+        }
 
+        return "" +
+                "mappingId  " + predicate.toString() + "\n" +
+                "target     " + target + "\n" +
+                "source     " + sqlQuery.trim().replace("\n", "\n           ");
+    }
+}
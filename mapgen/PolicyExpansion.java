@@ -1,17 +1,18 @@
 package se.umea.mapgen;
 
 import com.fasterxml.jackson.core.util.DefaultIndenter;
-import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.io.CharSource;
-import com.google.common.io.MoreFiles;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import it.unibz.inf.ontop.iq.IQ;
 import it.unibz.inf.ontop.iq.IQTree;
 import it.unibz.inf.ontop.iq.node.*;
 import it.unibz.inf.ontop.model.term.DBConstant;
+import it.unibz.inf.ontop.model.term.ImmutableExpression;
+import it.unibz.inf.ontop.model.term.ImmutableFunctionalTerm;
+import it.unibz.inf.ontop.model.term.ImmutableTerm;
+import it.unibz.inf.ontop.model.term.functionsymbol.db.DBIsNullOrNotFunctionSymbol;
+import it.unibz.inf.ontop.model.term.functionsymbol.db.DBNotFunctionSymbol;
+import it.unibz.inf.ontop.model.term.functionsymbol.db.DBStrictEqFunctionSymbol;
 import it.unibz.inf.ontop.model.term.VariableOrGroundTerm;
 import it.unibz.inf.ontop.model.term.impl.DBConstantImpl;
 import org.eclipse.rdf4j.query.algebra.ValueConstant;
@@ -19,32 +20,84 @@ import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import ppmappingcompiler.fol.*;
-import ppmappingcompiler.parser.BCQParser;
-import ppmappingcompiler.parser.DatalogBCQParser;
-import ppmappingcompiler.parser.ParserException;
+import ppmappingcompiler.policy.BinaryPolicyFile;
+import ppmappingcompiler.policy.CompactConjunctiveQuery;
+import ppmappingcompiler.policy.FactorisedPolicyRule;
 import ppmappingcompiler.policy.OntologyConjunctiveQuery;
+import ppmappingcompiler.policy.PolicyLoader;
+import ppmappingcompiler.policy.PolicyMinimizer;
+import ppmappingcompiler.util.BinaryContainer;
 import ppmappingcompiler.util.IOUtils;
 import se.umea.mapgen.reformulation.OntopReformulationAPI;
-import se.umea.mapgen.reformulation.OntopReformulationResult;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.File;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import javax.annotation.Nullable;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import java.io.BufferedReader;
-import java.io.FileReader;
-import java.nio.file.Paths;
-import java.nio.file.Files;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 
 
+/**
+ * This class expands a policy w.r.t. an ontology and the mappings, by reformulating each rule with Ontop.<br>
+ * An instance holds no mutable state, so rules can be expanded on several threads. Fresh variables are named
+ * per rule and expanded rules are collected in the order of the policy: the output does not depend on the
+ * number of threads.
+ */
 public class PolicyExpansion {
 
+    static final String RELATION_TO_IRI_FILE = "iri_relation_names.csv";
+    private static final String EXPANDED_POLICY_FILE = "expanded_policy.json";
+
+    // the options of main (see the README)
+    static final String THREADS_OPTION = "-threads:";
+    static final String MINIMIZE_OPTION = "-minimize:";
+    static final String FACTORISE_OPTION = "-factorise:";
+    static final String OUTPUT_OPTION = "-o:";
+    static final String GROUP_SIZE_OPTION = "-z:";
+
+    // in grouped mode, the branches of the union submitted to Ontop are tagged by binding this variable
+    static final String BRANCH_VARIABLE = "ppobdaBranch";
+    static final String BRANCH_TAG_PREFIX = "ppobda-branch-";
+
+    private final OWLOntology ontology;
+    private final Map<String, String> relationToIriMap;
+    private final OntopReformulationAPI rewriter;
+
+    public PolicyExpansion(OWLOntology ontology, Map<String, String> relationToIriMap, OntopReformulationAPI rewriter) {
+        this.ontology = ontology;
+        this.relationToIriMap = relationToIriMap;
+        this.rewriter = rewriter;
+    }
+
     public static void main(String[] args) throws Throwable {
+        // e.g. "-threads:4 -minimize:false -factorise:true -o:expanded_policy.bin -z:8", see performReformulation
+        for (String arg : args) {
+            if (Stream.of(THREADS_OPTION, MINIMIZE_OPTION, FACTORISE_OPTION, OUTPUT_OPTION, GROUP_SIZE_OPTION)
+                    .noneMatch(arg::startsWith)) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        int threads = (int) PolicyEmbedded.getLongOption(args, THREADS_OPTION, 1);
+        boolean minimize = Boolean.parseBoolean(PolicyEmbedded.getOption(args, MINIMIZE_OPTION, "true"));
+        boolean factorise = Boolean.parseBoolean(PolicyEmbedded.getOption(args, FACTORISE_OPTION, "false"));
+        String expandedPolicyFile = PolicyEmbedded.getOption(args, OUTPUT_OPTION, EXPANDED_POLICY_FILE);
+        int groupSize = (int) PolicyEmbedded.getLongOption(args, GROUP_SIZE_OPTION, 1);
+        // rejected before asking for the input files
+        checkOutputFormat(factorise, expandedPolicyFile);
 
         Scanner scanner = new Scanner(System.in);
         System.out.println("Enter the path to the OBDA file (e.g., direct_mappings.obda): ");
@@ -55,152 +108,815 @@ public class PolicyExpansion {
         String jsonFile = scanner.nextLine();
         System.out.println("Enter the PolicyFile: ");
         String PolicyFile = scanner.nextLine();
-        performReformulation(obdaFile, owlFile, jsonFile, PolicyFile);
+        performReformulation(obdaFile, owlFile, jsonFile, PolicyFile, threads, minimize, factorise, expandedPolicyFile, groupSize);
         scanner.close();
 
     }
 
     public static void performReformulation(String obdaFile, String owlFile, String jsonFile, String PolicyFile) throws Throwable {
+        performReformulation(obdaFile, owlFile, jsonFile, PolicyFile, 1, true, false, EXPANDED_POLICY_FILE, 1);
+    }
+
+    /**
+     * @param threads  The number of rules expanded at the same time.
+     * @param minimize Whether to remove the expanded rules subsumed by other ones. This requires keeping all the
+     *                 expanded rules in memory (compactly encoded), otherwise they are written as soon as they are generated.
+     *                 It is ignored for factorised policies.
+     * @param factorise Whether to keep the joins of unions produced by Ontop instead of lifting the unions: the output is
+     *                 a policy of {@link FactorisedPolicyRule factorised rules}, avoiding the multiplication of the
+     *                 alternatives of each atom during the expansion and in the output file. The compiler still
+     *                 multiplies them out when it loads the policy (see {@link PolicyLoader#load(String)}).
+     * @param expandedPolicyFile The output file: a JSON array of rules or, if its extension is {@code .bin}, a
+     *                 {@link BinaryPolicyFile binary policy file} (only for policies that are not factorised).
+     * @param groupSize The maximum number of rules submitted to Ontop as a single query, see
+     *                 {@link #expandGrouped(List, int, int)} (1 means that each rule is reformulated on its own).
+     *                 It is ignored for factorised policies.
+     */
+    public static void performReformulation(String obdaFile, String owlFile, String jsonFile, String PolicyFile,
+                                            int threads, boolean minimize, boolean factorise,
+                                            String expandedPolicyFile, int groupSize) throws Throwable {
+        checkOutputFormat(factorise, expandedPolicyFile);
 
         //load the ontology
         OWLOntologyManager ontologyManager = OWLManager.createOWLOntologyManager();
         OWLOntology ontology; // Define the ontology variable
 
-        try (InputStream in = Files.newInputStream(Paths.get(owlFile))) {
+        try (InputStream in = IOUtils.newInputStream(owlFile)) {
             assert in != null;
             ontology = ontologyManager.loadOntologyFromOntologyDocument(in);
         }
 
+        //Load the policy
+        List<OntologyConjunctiveQuery> policyRules = loadPolicyFromJson(PolicyFile, ontology);
+
+        //Intialize OnTop functionality to rewrite the queries
+        OntopReformulationAPI rewriter = createRewriter(obdaFile, owlFile, jsonFile, factorise);
+        PolicyExpansion expansion = new PolicyExpansion(ontology, loadRelationToIriMap(RELATION_TO_IRI_FILE), rewriter);
+
+        // The expanded policy may be huge: its rules are written as soon as they are generated, unless they must be
+        // minimized. In that case they are kept compactly encoded, and objects are rebuilt only for the output
+        SymbolTable symbols = new SymbolTable();
+        List<CompactConjunctiveQuery> expandedPolicyRules = new ArrayList<>();
+        CanonicalFormSet expandedRuleForms = new CanonicalFormSet(); // for discarding rules equal up to variable renaming
+        int[] counters = new int[2]; // distinct and duplicate rules
+
+        //Write expanded policies into json file (or binary file)
+        try (ExpandedPolicyWriter writer = BinaryContainer.isBinaryFile(expandedPolicyFile)
+                ? new BinaryPolicyWriter(expandedPolicyFile)
+                : new JsonPolicyWriter(expandedPolicyFile)) {
+
+            //Expand the rules (possibly in parallel), then process the results in the order of the policy
+            if (factorise) {
+                JsonPolicyWriter jsonWriter = (JsonPolicyWriter) writer; // binary files have been rejected above
+                expansion.forEachFactorisedExpansion(policyRules, threads, (policyRule, rules) -> {
+                    printPolicyRule(policyRule);
+                    rules.forEachOrdered(rule -> {
+                        System.out.println(rule);
+                        if (!expandedRuleForms.add(CanonicalForm.of(rule.toFormula()))) {
+                            counters[1]++;
+                        } else {
+                            counters[0]++;
+                            jsonWriter.write(rule);
+                        }
+                    });
+                });
+            } else {
+                BiConsumer<OntologyConjunctiveQuery, Stream<OntologyConjunctiveQuery>> action = (policyRule, queries) -> {
+                    printPolicyRule(policyRule);
+                    queries.forEachOrdered(query -> {
+                        System.out.println(query);
+                        if (!expandedRuleForms.add(query.getCanonicalForm())) {
+                            counters[1]++;
+                        } else if (minimize) {
+                            expandedPolicyRules.add(CompactConjunctiveQuery.of(query, symbols));
+                        } else {
+                            counters[0]++;
+                            writer.write(query);
+                        }
+                    });
+                };
+                if (groupSize > 1) {
+                    expansion.forEachGroupedExpansion(policyRules, threads, groupSize, action);
+                } else {
+                    expansion.forEachExpansion(policyRules, threads, action);
+                }
+            }
+
+            System.out.println("Removed " + counters[1] + " duplicate rules from the expanded policy");
+
+            if (minimize && !factorise) {
+                //Remove the rules that are subsumed by other rules of the expanded policy
+                List<CompactConjunctiveQuery> minimizedPolicyRules = PolicyMinimizer.minimize(expandedPolicyRules);
+                System.out.println("Removed " + (expandedPolicyRules.size() - minimizedPolicyRules.size())
+                        + " subsumed rules out of " + expandedPolicyRules.size());
+                for (CompactConjunctiveQuery query : minimizedPolicyRules) {
+                    counters[0]++;
+                    writer.write(query.toQuery(symbols));
+                }
+            }
+
+            System.out.println("File with expanded policy generated successfully: " + expandedPolicyFile
+                    + " (" + counters[0] + " rules)");
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // the binary policy file only stores conjunctive queries
+    private static void checkOutputFormat(boolean factorise, String expandedPolicyFile) {
+        if (factorise && BinaryContainer.isBinaryFile(expandedPolicyFile)) {
+            throw new IllegalArgumentException("A factorised policy cannot be written to a binary file: " + expandedPolicyFile);
+        }
+    }
+
+    /**
+     * This method initializes Ontop for expanding the rules of a policy.
+     *
+     * @param factorise Whether the rewriter keeps the joins of unions (see {@link #expandFactorised(OntologyConjunctiveQuery)}).
+     */
+    static OntopReformulationAPI createRewriter(String obdaFile, String owlFile, String jsonFile, boolean factorise) throws Exception {
         Properties properties = new Properties();
         properties.setProperty("jdbc.url", "jdbc:postgresql://localhost:5432/dummy"); // needed only to determine DB type
         properties.setProperty("ontop.existentialReasoning", "true"); // default is "false"
-        properties.setProperty("it.unibz.inf.ontop.iq.planner.QueryPlanner", "se.umea.mapgen.reformulation.OntopUnionLifterPlanner");
+        if (!factorise) {
+            properties.setProperty("it.unibz.inf.ontop.iq.planner.QueryPlanner", "se.umea.mapgen.reformulation.OntopUnionLifterPlanner");
+        }
 
         //feeding all input files to OnTop
-        CharSource mappingSource = MoreFiles.asCharSource(Paths.get(obdaFile), Charsets.UTF_8);
-        CharSource ontologySource = MoreFiles.asCharSource(Paths.get(owlFile), Charsets.UTF_8);
-        CharSource metadataSource = MoreFiles.asCharSource(Paths.get(jsonFile), Charsets.UTF_8);
+        CharSource mappingSource = IOUtils.asCharSource(obdaFile);
+        CharSource ontologySource = IOUtils.asCharSource(owlFile);
+        CharSource metadataSource = IOUtils.asCharSource(jsonFile);
 
-        //Load the policy
-        List<OntologyConjunctiveQuery> policyRules = loadPolicyFromJson(PolicyFile, ontology);
-        List<OntologyConjunctiveQuery> expandedPolicyRules = new ArrayList<>();
+        return new OntopReformulationAPI(properties, mappingSource, ontologySource, metadataSource);
+    }
 
-        //Intialize OnTop functionality to rewrite the queries
-        OntopReformulationAPI rewriter = new OntopReformulationAPI(properties, mappingSource, ontologySource, metadataSource);
-
-        // Print the policyRules that are converted into SPARQL ASK queries (for feeding into OnTop)
-        for (OntologyConjunctiveQuery policyRule : policyRules) {
-            //Convert OntologyConjuctiveQuery (Java object) into Sparql Ask Query (which is a string)
-            String policyRuleAsSparqlQuery = policyRule.toSparql();
-            System.out.println("Datalog rule: " + policyRule);
-            System.out.println("Sparql rule: " + policyRuleAsSparqlQuery);
-            System.out.println();
-
-            //Call OnTop to rewrite Sparql Ask query w.r.t Ontology and mappings
-            OntopReformulationResult result = rewriter.reformulate(policyRule.toSparql());
-
-            //Converting the IQ generated by OnTop into a List of OntologyConjuctiveQuery
-            IQ iq = result.getReformulatedQueryIQ();
-            List<OntologyConjunctiveQuery> queries = Lists.newArrayList();
-            generateOntologyConjunctiveQueries(iq.getTree(), ontology, queries);
-            expandedPolicyRules.addAll(queries);
-
-            for (OntologyConjunctiveQuery query : queries) {
-                System.out.println(query);
-            }
+    /**
+     * This method expands all the rules of a policy in memory, i.e. without writing the expanded policy.
+     * Rules equal up to variable renaming are only kept once.
+     *
+     * @param minimize  Whether to remove the expanded rules subsumed by other ones.
+     * @param groupSize The maximum number of rules submitted to Ontop as a single query (1 means no grouping).
+     * @return The expanded policy.
+     */
+    public List<OntologyConjunctiveQuery> expandPolicy(List<OntologyConjunctiveQuery> policyRules, int threads,
+                                                       boolean minimize, int groupSize) throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        List<CompactConjunctiveQuery> expandedPolicyRules = new ArrayList<>();
+        CanonicalFormSet expandedRuleForms = new CanonicalFormSet();
+        BiConsumer<OntologyConjunctiveQuery, Stream<OntologyConjunctiveQuery>> action = (policyRule, queries) ->
+                queries.forEachOrdered(query -> {
+                    if (expandedRuleForms.add(query.getCanonicalForm())) {
+                        expandedPolicyRules.add(CompactConjunctiveQuery.of(query, symbols));
+                    }
+                });
+        if (groupSize > 1) {
+            forEachGroupedExpansion(policyRules, threads, groupSize, action);
+        } else {
+            forEachExpansion(policyRules, threads, action);
+        }
+        List<CompactConjunctiveQuery> result = minimize ? PolicyMinimizer.minimize(expandedPolicyRules) : expandedPolicyRules;
+        return result.stream().map(query -> query.toQuery(symbols)).collect(Collectors.toList());
+    }
+
+    // Print the policyRules that are converted into SPARQL ASK queries (for feeding into OnTop)
+    private static void printPolicyRule(OntologyConjunctiveQuery policyRule) {
+        System.out.println("Datalog rule: " + policyRule);
+        System.out.println("Sparql rule: " + policyRule.toSparql());
+        System.out.println();
+    }
+
+    // Rules are written as soon as they are processed; IOExceptions are wrapped, since writers are called from lambdas
+    private interface ExpandedPolicyWriter extends Closeable {
+        void write(OntologyConjunctiveQuery query);
+    }
+
+    private static class JsonPolicyWriter implements ExpandedPolicyWriter {
+        private final JsonGenerator generator;
+
+        JsonPolicyWriter(String fileName) throws IOException {
+            //Intialize Jackson ObjectMapper require to write json(of expanded policies)
+            ObjectMapper objectMapper = new ObjectMapper();
+            objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+            DefaultPrettyPrinter prettyPrinter = new DefaultPrettyPrinter();
+            prettyPrinter.indentArraysWith(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE);
+            this.generator = objectMapper.getFactory().createGenerator(IOUtils.newOutputStream(fileName), JsonEncoding.UTF8);
+            generator.setPrettyPrinter(prettyPrinter);
+            generator.writeStartArray();
+        }
+
+        @Override
+        public void write(OntologyConjunctiveQuery query) {
+            writeRule(generator, query);
+        }
 
+        public void write(FactorisedPolicyRule rule) {
+            writeFactorisedRule(generator, rule);
         }
 
-        //Convert (List of) OntologyConjuctiveQuery into Datalog Rule (which are string)
-        List<String> rulesAsStrings = new ArrayList<>();
-        for (OntologyConjunctiveQuery query : expandedPolicyRules) {
-            String ruleAsString = query.toString(); // this produces something like "Q() :- A(x), R(x,y) ."
-            rulesAsStrings.add(ruleAsString);
+        @Override
+        public void close() throws IOException {
+            generator.writeEndArray();
+            generator.close();
         }
+    }
+
+    private static class BinaryPolicyWriter implements ExpandedPolicyWriter {
+        private final BinaryPolicyFile.Writer writer;
 
-        //Intialize Jackson ObjectMapper require to write json(of expanded policies)
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-        DefaultPrettyPrinter prettyPrinter = new DefaultPrettyPrinter();
-        prettyPrinter.indentArraysWith(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE);
+        BinaryPolicyWriter(String fileName) throws IOException {
+            this.writer = new BinaryPolicyFile.Writer(IOUtils.newOutputStream(fileName));
+        }
+
+        @Override
+        public void write(OntologyConjunctiveQuery query) {
+            try {
+                writer.add(query);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
 
-        //Write expanded policies into json file
+    // A factorised rule is written as an array (of factors) of arrays (of alternatives) of Datalog rules,
+    // unless it is a single conjunctive query
+    private static void writeFactorisedRule(JsonGenerator generator, FactorisedPolicyRule rule) {
+        if (rule.isConjunctive()) {
+            writeRule(generator, rule.expand().findFirst().orElseThrow(IllegalStateException::new));
+            return;
+        }
         try {
-            // you may ask the user how to call the output file
-            objectMapper.writer(prettyPrinter).writeValue(new File("expanded_policy.json"), rulesAsStrings);
-            String Expanded_Policy_Filename = "expanded_policy.json";
-            System.out.println("JSON file with expanded policy generated successfully: "+Expanded_Policy_Filename);
+            generator.writeStartArray();
+            for (List<OntologyConjunctiveQuery> factor : rule.getFactors()) {
+                generator.writeStartArray();
+                for (OntologyConjunctiveQuery alternative : factor) writeRule(generator, alternative);
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
 
-    private static void generateOntologyConjunctiveQueries(IQTree t, OWLOntology ontology, List<OntologyConjunctiveQuery> outputQueries) throws Exception {
+    //Convert OntologyConjuctiveQuery into Datalog Rule (which is a string)
+    private static void writeRule(JsonGenerator generator, OntologyConjunctiveQuery query) {
+        try {
+            generator.writeString(query.toString()); // this produces something like "Q() :- A(x), R(x,y) ."
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        // cases to be considered of IQs(the OnTop output) to covert it to OntologyConjuctiveQuery:
-        //
-        //1. UNION
-        //      JOIN
-        //          EXT1
-        //          EXT2
-        //      EXT3
-        //
-        //2. JOIN
-        //      EXT1
-        //      EXT2
-        //
-        //3. EXT
+    /**
+     * This method expands a single rule. It can be called concurrently.<br>
+     * The union of the reformulated IQ is traversed lazily: each conjunctive query is only built when the stream
+     * reaches it.
+     *
+     * @return The conjunctive queries the rule has been reformulated into.
+     */
+    public Stream<OntologyConjunctiveQuery> expand(OntologyConjunctiveQuery policyRule) throws Exception {
+        //Call OnTop to rewrite Sparql Ask query w.r.t Ontology and mappings
+        IQ iq = rewriter.reformulate(policyRule.toSparql()).getReformulatedQueryIQ();
+
+        //Converting the IQ generated by OnTop into a stream of OntologyConjuctiveQuery
+        return generateConjunctiveQueryBodies(iq.getTree(), freshNames(iq)).map(PolicyExpansion::toQuery);
+    }
 
+    /**
+     * This method expands a single rule, keeping the joins of unions produced by Ontop (i.e., without lifting
+     * the unions, see {@link #performReformulation(String, String, String, String, int, boolean, boolean, String, int)}).
+     * It can be called concurrently.
+     *
+     * @return The factorised rules the rule has been reformulated into (one for each branch of the topmost union).
+     */
+    public Stream<FactorisedPolicyRule> expandFactorised(OntologyConjunctiveQuery policyRule) throws Exception {
+        IQ iq = rewriter.reformulate(policyRule.toSparql()).getReformulatedQueryIQ();
+        return generateFactorisedRules(iq.getTree(), freshNames(iq), Collections.emptyList());
+    }
 
-        if (t.getRootNode() instanceof UnionNode) {
-            for (IQTree c : t.getChildren()) {
-                generateOntologyConjunctiveQueries(c, ontology, outputQueries);
+    // fresh names are scoped to the rule being expanded
+    private static FreshNameSupply freshNames(IQ iq) {
+        return freshNames(iq.getTree().getKnownVariables().stream()
+                .map(it.unibz.inf.ontop.model.term.Variable::getName)
+                .collect(Collectors.toSet()));
+    }
+
+    static FreshNameSupply freshNames(Collection<String> knownVariables) {
+        return FreshNameSupply.numbered("x", knownVariables);
+    }
+
+    /**
+     * This method expands all the rules of a policy, and passes each rule with its expansion to the action,
+     * in the same order as the rules.<br>
+     * With a single thread, expansions are consumed lazily. Otherwise, rules are expanded at the same time
+     * and the expansion of each rule is collected before being passed to the action.
+     *
+     * @param threads The number of rules expanded at the same time.
+     */
+    public void forEachExpansion(List<OntologyConjunctiveQuery> policyRules, int threads,
+                                 BiConsumer<OntologyConjunctiveQuery, Stream<OntologyConjunctiveQuery>> action) throws Exception {
+        forEachExpansion(policyRules, threads, this::expand, action);
+    }
+
+    /**
+     * This method is the same as {@link #forEachExpansion(List, int, BiConsumer)}, but rules are expanded
+     * through {@link #expandFactorised(OntologyConjunctiveQuery)}.
+     */
+    public void forEachFactorisedExpansion(List<OntologyConjunctiveQuery> policyRules, int threads,
+                                           BiConsumer<OntologyConjunctiveQuery, Stream<FactorisedPolicyRule>> action) throws Exception {
+        forEachExpansion(policyRules, threads, this::expandFactorised, action);
+    }
+
+    /**
+     * This method expands all the rules of a policy.
+     *
+     * @param threads The number of rules expanded at the same time.
+     * @return The expansion of each rule, in the same order as the rules.
+     */
+    public List<List<OntologyConjunctiveQuery>> expandAll(List<OntologyConjunctiveQuery> policyRules, int threads) throws Exception {
+        return expandAll(policyRules, threads, this::expand);
+    }
+
+    /**
+     * This method is the same as {@link #forEachExpansion(List, int, BiConsumer)}, but rules are expanded
+     * through {@link #expandGrouped(List, int, int)}, hence expansions are always collected first.
+     */
+    public void forEachGroupedExpansion(List<OntologyConjunctiveQuery> policyRules, int threads, int groupSize,
+                                        BiConsumer<OntologyConjunctiveQuery, Stream<OntologyConjunctiveQuery>> action) throws Exception {
+        List<List<OntologyConjunctiveQuery>> expansions = expandGrouped(policyRules, threads, groupSize);
+        for (int i = 0; i < policyRules.size(); i++) {
+            action.accept(policyRules.get(i), expansions.get(i).stream());
+        }
+    }
+
+    /**
+     * This method expands all the rules of a policy by groups: rules sharing predicates are clustered together
+     * (see {@link #clusterBySignature(List, int)}), and each cluster is submitted to Ontop as a single query, i.e. the
+     * union of its rules, so that the rewriting of the shared atoms is done once per cluster. Each branch of the union
+     * binds {@value #BRANCH_VARIABLE} to a distinct tag, by which the reformulated query is split back per rule.<br>
+     * Rules whose expansion cannot be told apart from the others (e.g., because Ontop merged tagged branches), or
+     * cannot be converted (see {@link #substitutionAtoms(ConstructionNode)}), are expanded on their own, as are the rules without any tagged branch: a tag lost by the optimizations of Ontop
+     * never drops a rule.
+     *
+     * @param threads   The number of clusters expanded at the same time.
+     * @param groupSize The maximum number of rules in a cluster.
+     * @return The expansion of each rule, in the same order as the rules.
+     */
+    public List<List<OntologyConjunctiveQuery>> expandGrouped(List<OntologyConjunctiveQuery> policyRules, int threads,
+                                                              int groupSize) throws Exception {
+        List<List<Integer>> clusters = clusterBySignature(policyRules, groupSize);
+        List<List<List<OntologyConjunctiveQuery>>> clusterExpansions = expandAll(clusters, threads, cluster ->
+                expandCluster(cluster.stream().map(policyRules::get).collect(Collectors.toList())).stream());
+
+        List<List<OntologyConjunctiveQuery>> expansions = new ArrayList<>(Collections.nCopies(policyRules.size(), null));
+        for (int c = 0; c < clusters.size(); c++) {
+            List<Integer> cluster = clusters.get(c);
+            for (int j = 0; j < cluster.size(); j++) expansions.set(cluster.get(j), clusterExpansions.get(c).get(j));
+        }
+        return expansions;
+    }
+
+    /**
+     * This method greedily clusters the rules of a policy by predicate signature: each rule joins the (non-full)
+     * cluster sharing the most predicates with it, if any, otherwise it starts a new cluster.
+     *
+     * @param groupSize The maximum number of rules in a cluster.
+     * @return The clusters, as lists of positions of the rules (in increasing order).
+     */
+    public static List<List<Integer>> clusterBySignature(List<OntologyConjunctiveQuery> policyRules, int groupSize) {
+        List<List<Integer>> clusters = new ArrayList<>();
+        List<Set<String>> signatures = new ArrayList<>();
+        List<Integer> openClusters = new ArrayList<>();
+        for (int i = 0; i < policyRules.size(); i++) {
+            Set<String> signature = policyRules.get(i).getAllPredicateAtoms().stream()
+                    .map(PredicateAtom::getPredicateIdentifier)
+                    .collect(Collectors.toSet());
+            int best = -1;
+            long bestOverlap = 0;
+            for (int c : openClusters) {
+                long overlap = signature.stream().filter(signatures.get(c)::contains).count();
+                if (overlap > bestOverlap) {
+                    best = c;
+                    bestOverlap = overlap;
+                }
+            }
+            if (best < 0) {
+                best = clusters.size();
+                clusters.add(new ArrayList<>());
+                signatures.add(new HashSet<>());
+                openClusters.add(best);
+            }
+            clusters.get(best).add(i);
+            signatures.get(best).addAll(signature);
+            if (clusters.get(best).size() >= groupSize) openClusters.remove(Integer.valueOf(best));
+        }
+        return clusters;
+    }
+
+    // Returns the expansion of each rule of the cluster, in the same order as the rules
+    private List<List<OntologyConjunctiveQuery>> expandCluster(List<OntologyConjunctiveQuery> rules) throws Exception {
+        List<List<OntologyConjunctiveQuery>> expansions = new ArrayList<>(Collections.nCopies(rules.size(), null));
+        if (rules.size() > 1) {
+            IQ iq = rewriter.reformulate(toTaggedUnion(rules)).getReformulatedQueryIQ();
+            Map<Integer, List<IQTree>> branches = new HashMap<>();
+            if (splitBranches(iq.getTree(), null, branches)) {
+                for (Map.Entry<Integer, List<IQTree>> e : branches.entrySet()) {
+                    if (e.getKey() >= rules.size()) continue;
+                    FreshNameSupply names = freshNames(iq); // fresh names are scoped to each rule
+                    try {
+                        expansions.set(e.getKey(), e.getValue().stream()
+                                .flatMap(branch -> generateConjunctiveQueryBodies(branch, names))
+                                .map(PolicyExpansion::toQuery)
+                                .collect(Collectors.toList()));
+                    } catch (IllegalArgumentException unsupported) {
+                        // e.g. a binding introduced by the union: the rule is expanded on its own
+                    }
+                }
             }
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            if (expansions.get(i) == null) expansions.set(i, expandToList(rules.get(i), this::expand));
+        }
+        return expansions;
+    }
 
-        } else if (t.getRootNode() instanceof InnerJoinNode) {
-            List<PredicateAtom> atoms = Lists.newArrayList();
+    // e.g. SELECT ?ppobdaBranch WHERE { { { A(x) } BIND("ppobda-branch-0" AS ?ppobdaBranch) } UNION { ... } }
+    private static String toTaggedUnion(List<OntologyConjunctiveQuery> rules) {
+        StringJoiner union = new StringJoiner(" UNION ", "SELECT ?" + BRANCH_VARIABLE + " WHERE { ", " }");
+        for (int i = 0; i < rules.size(); i++) {
+            union.add(String.format("{ %s BIND(\"%s%d\" AS ?%s) }",
+                    rules.get(i).toSparqlGroupPattern(), BRANCH_TAG_PREFIX, i, BRANCH_VARIABLE));
+        }
+        return union.toString();
+    }
+
+    /**
+     * This method splits an IQ tree into the subtrees of the topmost unions, grouped by the tag they are bound to
+     * (by the construction nodes above them, or within them).
+     *
+     * @return {@code false} if some subtree has no tag or more than one.
+     */
+    static boolean splitBranches(IQTree t, @Nullable Integer tag, Map<Integer, List<IQTree>> branches) {
+        QueryNode root = t.getRootNode();
+        if (root instanceof ConstructionNode) {
+            Integer nodeTag = branchTag((ConstructionNode) root);
+            return splitBranches(t.getChildren().get(0), nodeTag != null ? nodeTag : tag, branches);
+        } else if (root instanceof UnionNode) {
             for (IQTree c : t.getChildren()) {
-                if (c.getRootNode() instanceof ExtensionalDataNode) {
-                    ExtensionalDataNode n = (ExtensionalDataNode) c.getRootNode();
-                    atoms.add(generateAtom(n, ontology));
+                if (!splitBranches(c, tag, branches)) return false;
+            }
+            return true;
+        } else if (root instanceof DistinctNode || root instanceof SliceNode) {
+            return splitBranches(t.getChildren().get(0), tag, branches);
+        }
+        Set<Integer> tags = new HashSet<>();
+        collectBranchTags(t, tags);
+        if (tag != null) tags.add(tag);
+        if (tags.size() != 1) return false;
+        branches.computeIfAbsent(tags.iterator().next(), k -> new ArrayList<>()).add(t);
+        return true;
+    }
+
+    private static void collectBranchTags(IQTree t, Set<Integer> tags) {
+        if (t.getRootNode() instanceof ConstructionNode) {
+            Integer tag = branchTag((ConstructionNode) t.getRootNode());
+            if (tag != null) tags.add(tag);
+        }
+        for (IQTree c : t.getChildren()) collectBranchTags(c, tags);
+    }
+
+    // Ontop may rename the variable and wrap the tag into an RDF term: any constant having the tag prefix is looked for
+    static @Nullable Integer branchTag(ConstructionNode node) {
+        for (it.unibz.inf.ontop.model.term.Variable v : node.getVariables()) {
+            Integer tag = branchTag(node.getSubstitution().apply(v));
+            if (tag != null) return tag;
+        }
+        return null;
+    }
+
+    static @Nullable Integer branchTag(ImmutableTerm term) {
+        if (term instanceof it.unibz.inf.ontop.model.term.Constant) {
+            String value = ((it.unibz.inf.ontop.model.term.Constant) term).getValue();
+            if (value.startsWith(BRANCH_TAG_PREFIX)) {
+                try {
+                    return Integer.parseInt(value.substring(BRANCH_TAG_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        } else if (term instanceof ImmutableFunctionalTerm) {
+            for (ImmutableTerm t : ((ImmutableFunctionalTerm) term).getTerms()) {
+                Integer tag = branchTag(t);
+                if (tag != null) return tag;
+            }
+        }
+        return null;
+    }
+
+    @FunctionalInterface
+    interface Expander<S, T> {
+        Stream<T> expand(S item) throws Exception;
+    }
+
+    private static <T> void forEachExpansion(List<OntologyConjunctiveQuery> policyRules, int threads,
+                                             Expander<OntologyConjunctiveQuery, T> expander,
+                                             BiConsumer<OntologyConjunctiveQuery, Stream<T>> action) throws Exception {
+        if (threads <= 1) {
+            for (OntologyConjunctiveQuery policyRule : policyRules) {
+                try (Stream<T> expansion = expander.expand(policyRule)) {
+                    action.accept(policyRule, expansion);
+                }
+            }
+            return;
+        }
+        List<List<T>> expansions = expandAll(policyRules, threads, expander);
+        for (int i = 0; i < policyRules.size(); i++) {
+            action.accept(policyRules.get(i), expansions.get(i).stream());
+        }
+    }
+
+    static <S, T> List<List<T>> expandAll(List<S> policyRules, int threads,
+                                          Expander<S, T> expander) throws Exception {
+        List<List<T>> expansions = new ArrayList<>(Collections.nCopies(policyRules.size(), null));
+        if (threads <= 1) {
+            for (int i = 0; i < policyRules.size(); i++) expansions.set(i, expandToList(policyRules.get(i), expander));
+            return expansions;
+        }
+
+        // each task writes a distinct position of the lists
+        Exception[] errors = new Exception[policyRules.size()];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, policyRules.size()).parallel().forEach(i -> {
+                try {
+                    expansions.set(i, expandToList(policyRules.get(i), expander));
+                } catch (Exception e) {
+                    errors[i] = e;
+                }
+            })).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdown();
+        }
+        // report the error of the first failing rule, as a sequential run would do
+        for (Exception e : errors) {
+            if (e != null) throw e;
+        }
+        return expansions;
+    }
+
+    private static <S, T> List<T> expandToList(S policyRule, Expander<S, T> expander) throws Exception {
+        try (Stream<T> expansion = expander.expand(policyRule)) {
+            return expansion.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * This method converts an IQ tree into factorised rules: the topmost unions are split into distinct rules,
+     * while below a join each child becomes a factor, whose alternatives are the child's conjunctive queries.
+     * Factors having a single alternative (e.g., extensional nodes and join conditions) are merged together.
+     *
+     * @param bindings The equalities of the construction nodes above the tree, which every rule gets.
+     */
+    private Stream<FactorisedPolicyRule> generateFactorisedRules(IQTree t, FreshNameSupply names, List<Atom> bindings) {
+        QueryNode root = t.getRootNode();
+        if (root instanceof UnionNode) {
+            return t.getChildren().stream().flatMap(c -> generateFactorisedRules(c, names, bindings));
+        } else if (root instanceof DistinctNode || root instanceof SliceNode) {
+            return generateFactorisedRules(t.getChildren().get(0), names, bindings); // expect just one child
+        } else if (root instanceof ConstructionNode) {
+            return generateFactorisedRules(t.getChildren().get(0), names,
+                    concat(bindings, substitutionAtoms((ConstructionNode) root)));
+        }
+        return Stream.of(t).map(tree -> {
+            List<Atom> common = cloneAll(bindings);
+            List<List<OntologyConjunctiveQuery>> factors = new ArrayList<>();
+            for (List<List<Atom>> factor : generateFactors(tree, names)) {
+                if (factor.size() == 1) {
+                    common.addAll(factor.get(0));
                 } else {
-                    throw new IllegalArgumentException("IQ contains unsupported node " + c);
+                    factors.add(factor.stream().map(PolicyExpansion::toQuery).collect(Collectors.toList()));
                 }
             }
-            outputQueries.add(new OntologyConjunctiveQuery(atoms));
+            if (!common.isEmpty()) factors.add(0, Collections.singletonList(toQuery(common)));
+            return new FactorisedPolicyRule(factors);
+        });
+    }
+
+    /**
+     * @return The factors of the conjunction represented by the tree: each factor is the list of the bodies
+     * of its alternatives.
+     */
+    private List<List<List<Atom>>> generateFactors(IQTree t, FreshNameSupply names) {
+        QueryNode root = t.getRootNode();
+        List<List<List<Atom>>> factors = new ArrayList<>();
+        if (root instanceof InnerJoinNode || root instanceof FilterNode) {
+            Optional<ImmutableExpression> condition = root instanceof FilterNode
+                    ? Optional.of(((FilterNode) root).getFilterCondition())
+                    : ((InnerJoinNode) root).getOptionalFilterCondition();
+            for (IQTree c : t.getChildren()) factors.addAll(generateFactors(c, names));
+            List<List<Atom>> conditionBodies = filterConditionBodies(condition);
+            if (conditionBodies.size() > 1 || !conditionBodies.get(0).isEmpty()) factors.add(conditionBodies);
+        } else if (root instanceof DistinctNode || root instanceof SliceNode) {
+            factors.addAll(generateFactors(t.getChildren().get(0), names));
+        } else if (root instanceof ConstructionNode) {
+            factors.addAll(generateFactors(t.getChildren().get(0), names));
+            List<Atom> bindings = substitutionAtoms((ConstructionNode) root);
+            if (!bindings.isEmpty()) factors.add(Collections.singletonList(bindings));
+        } else {
+            // unions (below a join) and extensional nodes: the alternatives are multiplied out locally
+            factors.add(generateConjunctiveQueryBodies(t, names).collect(Collectors.toList()));
+        }
+        return factors;
+    }
+
+    private static OntologyConjunctiveQuery toQuery(List<Atom> body) {
+        try {
+            return new OntologyConjunctiveQuery(body);
+        } catch (Term.TermTypeException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * This method lazily converts an IQ tree into the bodies of the conjunctive queries it is the union of.<br>
+     * Cases to be considered of IQs (the OnTop output) to convert them to OntologyConjuctiveQuery:
+     * <ul>
+     *  <li> UNION: the union of the children's queries;
+     *  <li> JOIN: the cross product of the children's queries, plus the join condition (if any);
+     *  <li> FILTER: the child's queries, plus the filter condition;
+     *  <li> EXT: a single query, made of a single atom;
+     *  <li> CONSTRUCT: the child's queries, plus the equalities of the substitution (see {@link #substitutionAtoms(ConstructionNode)});
+     *  <li> DISTINCT, SLICE: the child's queries (denials are boolean queries).
+     * </ul>
+     * Children of a join are traversed again for each combination, so that no branch is kept in memory.<br>
+     * Each body gets its own atoms: a query binds the variables of its atoms, hence the atoms shared by several
+     * bodies (join and filter conditions, and the prefixes of the combinations) are cloned.
+     */
+    private Stream<List<Atom>> generateConjunctiveQueryBodies(IQTree t, FreshNameSupply names) {
+        QueryNode root = t.getRootNode();
+
+        if (root instanceof UnionNode) {
+            return t.getChildren().stream().flatMap(c -> generateConjunctiveQueryBodies(c, names));
+
+        } else if (root instanceof InnerJoinNode) {
+            Stream<List<Atom>> bodies = filterConditionBodies(((InnerJoinNode) root).getOptionalFilterCondition()).stream();
+            for (IQTree c : t.getChildren()) {
+                bodies = bodies.flatMap(prefix -> generateConjunctiveQueryBodies(c, names).map(body -> concat(cloneAll(prefix), body)));
+            }
+            return bodies;
+
+        } else if (root instanceof FilterNode) {
+            List<List<Atom>> conditions = filterConditionBodies(Optional.of(((FilterNode) root).getFilterCondition()));
+            if (conditions.size() == 1) {
+                return generateConjunctiveQueryBodies(t.getChildren().get(0), names).map(body -> concat(body, cloneAll(conditions.get(0))));
+            }
+            return generateConjunctiveQueryBodies(t.getChildren().get(0), names)
+                    .flatMap(body -> conditions.stream().map(condition -> concat(cloneAll(body), cloneAll(condition))));
+
+        } else if (root instanceof ExtensionalDataNode) {
+            return Stream.of((ExtensionalDataNode) root)
+                    .map(n -> unchecked(() -> Collections.singletonList(generateAtom(n, names))));
 
-        } else if (t.getRootNode() instanceof ExtensionalDataNode) {
-            ExtensionalDataNode n = (ExtensionalDataNode) t.getRootNode();
-            OntologyPredicateAtom atom = generateAtom(n, ontology);
-            outputQueries.add(new OntologyConjunctiveQuery(Arrays.asList(atom)));
+        } else if (root instanceof ConstructionNode) {
+            List<Atom> bindings = substitutionAtoms((ConstructionNode) root);
+            Stream<List<Atom>> bodies = generateConjunctiveQueryBodies(t.getChildren().get(0), names);
+            return bindings.isEmpty() ? bodies : bodies.map(body -> concat(body, cloneAll(bindings)));
 
-        } else if (t.getRootNode() instanceof SliceNode || t.getRootNode() instanceof ConstructionNode) {
-            generateOntologyConjunctiveQueries(t.getChildren().get(0), ontology, outputQueries); // expect just one child
+        } else if (root instanceof DistinctNode || root instanceof SliceNode) {
+            return generateConjunctiveQueryBodies(t.getChildren().get(0), names); // expect just one child
 
         } else {
             throw new IllegalArgumentException("IQ contains unsupported node " + t);
         }
     }
 
-    private static final AtomicInteger COUNTER = new AtomicInteger(); // for generating unique variables
+    /**
+     * This method converts a filter condition into comparison atoms. The condition must be a conjunction of:
+     * <ul>
+     *  <li> equalities, which become {@link Equality equalities};
+     *  <li> negated equalities, which become {@link StrictInequality strict inequalities}: since
+     *       {@code NOT(a = b = c)} holds iff {@code a != b} or {@code a != c}, a negated equality between more than
+     *       two terms is a disjunction, whose inequalities are put in distinct bodies;
+     *  <li> (negated) null checks, which are dropped: a denial without them is more general, hence it is still safe.
+     * </ul>
+     *
+     * @return The bodies the condition is the union of (a single empty body if there is no condition).
+     */
+    static List<List<Atom>> filterConditionBodies(Optional<ImmutableExpression> condition) {
+        List<List<Atom>> bodies = new ArrayList<>();
+        bodies.add(new ArrayList<>());
+        if (!condition.isPresent()) return bodies;
+        for (ImmutableExpression e : condition.get().flattenAND().collect(Collectors.toList())) {
+            boolean negated = e.getFunctionSymbol() instanceof DBNotFunctionSymbol;
+            ImmutableTerm content = negated ? e.getTerm(0) : e;
+            if (content instanceof ImmutableExpression
+                    && ((ImmutableExpression) content).getFunctionSymbol() instanceof DBIsNullOrNotFunctionSymbol) {
+                continue;
+            }
+            if (!(content instanceof ImmutableExpression)
+                    || !(((ImmutableExpression) content).getFunctionSymbol() instanceof DBStrictEqFunctionSymbol)) {
+                throw new IllegalArgumentException("IQ contains unsupported filter condition " + e);
+            }
+            List<? extends ImmutableTerm> arguments = ((ImmutableExpression) content).getTerms();
+            Term first = generateTerm(arguments.get(0));
+            List<Atom> comparisons = new ArrayList<>();
+            for (int i = 1; i < arguments.size(); i++) {
+                Term other = generateTerm(arguments.get(i));
+                comparisons.add(negated ? new StrictInequality(first, other) : new Equality(first, other));
+            }
+            if (negated && comparisons.size() > 1) {
+                List<List<Atom>> product = new ArrayList<>(bodies.size() * comparisons.size());
+                for (List<Atom> body : bodies) {
+                    for (Atom comparison : comparisons) {
+                        product.add(concat(cloneAll(body), Collections.singletonList(comparison.clone())));
+                    }
+                }
+                bodies = product;
+            } else {
+                for (List<Atom> body : bodies) body.addAll(cloneAll(comparisons));
+            }
+        }
+        return bodies;
+    }
 
-    private static OntologyPredicateAtom generateAtom(ExtensionalDataNode n, OWLOntology ontology) throws Exception {
+    /**
+     * This method converts the substitution of a construction node into equalities: a variable bound to a variable
+     * or to a constant is equal to it in the bodies below the node. The bindings of the
+     * {@value #BRANCH_VARIABLE branch tags} are dropped, and any other binding (e.g., to a function) is rejected.
+     */
+    static List<Atom> substitutionAtoms(ConstructionNode node) {
+        List<Atom> atoms = new ArrayList<>();
+        for (it.unibz.inf.ontop.model.term.Variable v : node.getSubstitution().getDomain()) {
+            ImmutableTerm term = node.getSubstitution().get(v);
+            if (branchTag(term) != null) continue;
+            if (!(term instanceof it.unibz.inf.ontop.model.term.Variable) && !(term instanceof DBConstant)) {
+                throw new IllegalArgumentException("IQ contains unsupported substitution " + v + "/" + term);
+            }
+            atoms.add(new Equality(new Variable(v.getName()), generateTerm(term)));
+        }
+        return atoms;
+    }
 
-        String csvFile = "iri_relation_names.csv"; // Replace with the path to your CSV file
-        Map<String, String> relationToIriMap = new HashMap();
+    private static Term generateTerm(ImmutableTerm ontopTerm) {
+        if (ontopTerm instanceof it.unibz.inf.ontop.model.term.Variable) {
+            return new Variable(((it.unibz.inf.ontop.model.term.Variable) ontopTerm).getName());
+        } else if (ontopTerm instanceof DBConstant) {
+            return new ObjectConstant(((DBConstant) ontopTerm).getValue());
+        }
+        throw new IllegalArgumentException("IQ contains unsupported term " + ontopTerm);
+    }
 
-        BufferedReader br = new BufferedReader(new FileReader(csvFile));
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] parts = line.split(",");
-            if (parts.length >= 2) {
-                String iri = parts[0].trim();
-                String relation = parts[1].trim();
-                relationToIriMap.put(relation, iri);
+    private static List<Atom> concat(List<Atom> first, List<Atom> second) {
+        List<Atom> result = new ArrayList<>(first.size() + second.size());
+        result.addAll(first);
+        result.addAll(second);
+        return result;
+    }
+
+    private static List<Atom> cloneAll(List<Atom> atoms) {
+        List<Atom> result = new ArrayList<>(atoms.size());
+        for (Atom atom : atoms) result.add(atom.clone());
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface AtomsSupplier {
+        List<Atom> get() throws Exception;
+    }
+
+    private static List<Atom> unchecked(AtomsSupplier supplier) {
+        try {
+            return supplier.get();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    static Map<String, String> loadRelationToIriMap(String csvFile) throws IOException {
+        Map<String, String> relationToIriMap = new HashMap<>();
+        try (BufferedReader br = IOUtils.newReader(csvFile)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length >= 2) {
+                    String iri = parts[0].trim();
+                    String relation = parts[1].trim();
+                    relationToIriMap.put(relation, iri);
+                }
             }
         }
+        return relationToIriMap;
+    }
 
-        br.close(); // Close the BufferedReader when done
+    private OntologyPredicateAtom generateAtom(ExtensionalDataNode n, FreshNameSupply names) throws Exception {
 
         // Get the relation name without quotes
         String relation = n.getRelationDefinition().getAtomPredicate().getName();
@@ -216,7 +932,7 @@ public class PolicyExpansion {
         for (int i = 0; i < n.getRelationDefinition().getAtomPredicate().getArity(); ++i) {
             VariableOrGroundTerm ontopTerm = n.getArgumentMap().get(i);
             if (ontopTerm == null) {
-                terms.add(new Variable("x" + COUNTER.incrementAndGet()));
+                terms.add(names.nextVariable()); // fresh names are scoped to the rule being expanded
             } else if (ontopTerm instanceof it.unibz.inf.ontop.model.term.Variable) {
                 String varName = ((it.unibz.inf.ontop.model.term.Variable) ontopTerm).getName();
                 terms.add(new Variable(varName));
@@ -231,24 +947,10 @@ public class PolicyExpansion {
     }
 
     public static List<OntologyConjunctiveQuery> loadPolicyFromJson(String PolicyFile, OWLOntology ontology)
-            throws IOException, ParserException, Term.TermTypeException {
+            throws IOException, PolicyLoader.InvalidPolicyException {
 
-        // Read the policy JSON file as a list of strings
-        String policyJsonString = IOUtils.readFile(PolicyFile);
-        JsonArray policyJsonArray = (JsonArray) JsonParser.parseString(policyJsonString);
-        List<String> policyRulesAsStrings = new ArrayList<>();
-        for (JsonElement e : policyJsonArray) {
-            policyRulesAsStrings.add(e.getAsString());
-        }
-
-        // Parse the rules from strings to OntologyConjunctiveQuery objects
-        BCQParser policyParser = new DatalogBCQParser(ontology);
-        List<OntologyConjunctiveQuery> policyRules = new ArrayList<>();
-        for (String policyRuleAsString : policyRulesAsStrings) {
-            OntologyConjunctiveQuery q = policyParser.OntologyConjunctiveQuery(DatalogBCQParser.toBCQ(policyRuleAsString));
-            policyRules.add(q);
-        }
-        return policyRules;
+        // Read the policy JSON file and parse the rules (in parallel) to OntologyConjunctiveQuery objects
+        return new PolicyLoader(ontology).load(PolicyFile);
     }
 
 
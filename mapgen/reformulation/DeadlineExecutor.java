@@ -0,0 +1,122 @@
+package se.umea.mapgen.reformulation;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Runs the reformulations of VKG queries with a deadline, on separate (daemon) threads.
+ * <p>
+ * When the deadline expires, the reformulation is abandoned, i.e., it keeps running in background, and a later call for
+ * the same query waits for it instead of starting a new one. At most {@code maxAbandoned} reformulations are kept for
+ * being resumed: beyond that, the least recently abandoned one is interrupted and discarded.
+ * </p>
+ * <p>
+ * A reformulation starts as soon as it is submitted, hence the deadline only covers its own execution: a thread is
+ * created whenever none is idle, including when the abandoned reformulations (discarded ones included, as Ontop may not
+ * react to the interruption) are still running. Once {@code maxThreads} reformulations are running, new ones are
+ * rejected instead.
+ * </p>
+ *
+ * @param <T> the type of the result of a reformulation
+ */
+@NonNullByDefault
+final class DeadlineExecutor<T> {
+
+    @FunctionalInterface
+    interface Reformulation<T> {
+        T reformulate(String vkgQuerySPARQL) throws Exception;
+    }
+
+    private final Reformulation<T> reformulation;
+
+    private final int maxThreads;
+
+    private @Nullable ThreadPoolExecutor executor; // created on demand
+
+    // the timed-out reformulations by VKG query, the least recently abandoned first (guarded by this)
+    private final Map<String, Future<T>> abandonedReformulations;
+
+    DeadlineExecutor(Reformulation<T> reformulation, int maxAbandoned, int maxThreads) {
+        this.reformulation = reformulation;
+        this.maxThreads = maxThreads;
+        this.abandonedReformulations = new LinkedHashMap<String, Future<T>>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Future<T>> eldest) {
+                if (size() <= maxAbandoned) {
+                    return false;
+                }
+                eldest.getValue().cancel(true);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Reformulates the supplied VKG query (or resumes its abandoned reformulation), within the supplied deadline.
+     *
+     * @param vkgQuerySPARQL the SPARQL expression for the input VKG query to reformulate
+     * @param timeoutMillis  the deadline in milliseconds
+     * @return the result of the reformulation
+     * @throws ExecutionException             if the reformulation fails (with the failure as its cause)
+     * @throws ReformulationTimeoutException  if the deadline expires before the reformulation completes
+     * @throws RejectedExecutionException     if {@code maxThreads} reformulations are already running
+     * @throws InterruptedException           if the calling thread is interrupted while waiting
+     */
+    T reformulate(String vkgQuerySPARQL, long timeoutMillis)
+            throws ExecutionException, ReformulationTimeoutException, InterruptedException {
+        Future<T> future = resume(vkgQuerySPARQL);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            abandon(vkgQuerySPARQL, future);
+            throw new ReformulationTimeoutException(vkgQuerySPARQL, timeoutMillis);
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the number of reformulations currently running, abandoned ones included.
+     *
+     * @return the number of running reformulations
+     */
+    synchronized int getRunningCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    private synchronized Future<T> resume(String vkgQuerySPARQL) {
+        Future<T> future = abandonedReformulations.remove(vkgQuerySPARQL);
+        if (future != null) {
+            return future;
+        }
+        try {
+            return getExecutor().submit(() -> reformulation.reformulate(vkgQuerySPARQL));
+        } catch (RejectedExecutionException ex) {
+            throw new RejectedExecutionException("Cannot start a reformulation: " + maxThreads + " reformulations "
+                    + "are still running, as Ontop does not react to the interruption of the timed-out ones", ex);
+        }
+    }
+
+    private synchronized void abandon(String vkgQuerySPARQL, Future<T> future) {
+        abandonedReformulations.put(vkgQuerySPARQL, future);
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            // no queue: a reformulation never waits for a thread; abandoned reformulations must not prevent the JVM
+            // from exiting
+            executor = new ThreadPoolExecutor(0, maxThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "ontop-reformulation");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+}
@@ -0,0 +1,210 @@
+package se.umea.mapgen.reformulation;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.parser.ParsedBooleanQuery;
+import org.eclipse.rdf4j.query.parser.ParsedQuery;
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.model.parameters.Imports;
+
+import java.util.*;
+
+/**
+ * Query-level check of whether existential reasoning (i.e., tree-witness rewriting) may contribute to the answers of a
+ * VKG SPARQL query.
+ * <p>
+ * Existential reasoning only matters for the anonymous individuals (or unknown values) implied by existential axioms,
+ * such as {@code A SubClassOf R some B}. Such a witness can only be matched by a triple pattern whose predicate (or
+ * class, for {@code rdf:type} patterns) is <i>existential-sensitive</i>, i.e., occurs in an existential restriction on
+ * the right-hand side of an axiom, or is a (transitive) super-predicate of one that does, and only through a variable
+ * which is not an answer variable (answers are never anonymous).
+ * </p>
+ * <p>
+ * A witness of a predicate is also a witness of the predicates it implies, through the class and property hierarchies,
+ * the domain and range axioms, and any axiom whose left-hand side is an anonymous class expression (e.g.,
+ * {@code R some Thing SubClassOf D}). The predicates of axioms of any other kind which may derive facts about a witness
+ * (e.g., property chains) are all existential-sensitive.
+ * </p>
+ * <p>
+ * The check is conservative: if a query cannot be analyzed (e.g., it has a variable in predicate position), existential
+ * reasoning is assumed to be needed.
+ * </p>
+ */
+@NonNullByDefault
+public final class ExistentialReasoningCheck {
+
+    // axioms which only constrain the named individuals, or never let a witness match a predicate it does not match
+    // already (e.g., symmetric properties)
+    private static final Set<AxiomType<?>> NEUTRAL_AXIOM_TYPES = new HashSet<>(Arrays.asList(
+            AxiomType.DISJOINT_CLASSES, AxiomType.DISJOINT_OBJECT_PROPERTIES, AxiomType.DISJOINT_DATA_PROPERTIES,
+            AxiomType.FUNCTIONAL_OBJECT_PROPERTY, AxiomType.FUNCTIONAL_DATA_PROPERTY,
+            AxiomType.INVERSE_FUNCTIONAL_OBJECT_PROPERTY, AxiomType.IRREFLEXIVE_OBJECT_PROPERTY,
+            AxiomType.ASYMMETRIC_OBJECT_PROPERTY, AxiomType.SYMMETRIC_OBJECT_PROPERTY,
+            AxiomType.TRANSITIVE_OBJECT_PROPERTY, AxiomType.DATA_PROPERTY_RANGE, AxiomType.DATATYPE_DEFINITION,
+            AxiomType.HAS_KEY, AxiomType.OBJECT_PROPERTY_ASSERTION, AxiomType.DATA_PROPERTY_ASSERTION,
+            AxiomType.NEGATIVE_OBJECT_PROPERTY_ASSERTION, AxiomType.NEGATIVE_DATA_PROPERTY_ASSERTION,
+            AxiomType.SAME_INDIVIDUAL, AxiomType.DIFFERENT_INDIVIDUALS));
+
+    private final Set<String> existentialPredicates;
+
+    private ExistentialReasoningCheck(Set<String> existentialPredicates) {
+        this.existentialPredicates = Collections.unmodifiableSet(existentialPredicates);
+    }
+
+    /**
+     * Creates a check for the existential axioms of the supplied ontology (including its imports).
+     *
+     * @param ontology the ontology
+     * @return the check
+     */
+    public static ExistentialReasoningCheck of(OWLOntology ontology) {
+
+        // Collect the predicates of the existential restrictions on the right-hand side of axioms, and the predicates
+        // a witness of each predicate is also a witness of
+        Set<String> predicates = new HashSet<>();
+        Map<String, Set<String>> superPredicates = new HashMap<>();
+        for (OWLLogicalAxiom ax : ontology.getLogicalAxioms(Imports.INCLUDED)) {
+            if (ax instanceof OWLSubClassOfAxiom) {
+                OWLSubClassOfAxiom sc = (OWLSubClassOfAxiom) ax;
+                collectExistentialPredicates(sc.getSuperClass(), predicates);
+                addEdges(superPredicates, sc.getSubClass(), sc.getSuperClass());
+            } else if (ax instanceof OWLEquivalentClassesAxiom) {
+                Set<OWLClassExpression> expressions = ((OWLEquivalentClassesAxiom) ax).getClassExpressions();
+                for (OWLClassExpression ce : expressions) {
+                    collectExistentialPredicates(ce, predicates);
+                    for (OWLClassExpression other : expressions) addEdges(superPredicates, ce, other);
+                }
+            } else if (ax instanceof OWLSubPropertyAxiom) {
+                OWLSubPropertyAxiom<?> sp = (OWLSubPropertyAxiom<?>) ax;
+                addEdges(superPredicates, sp.getSubProperty(), sp.getSuperProperty());
+            } else if (ax instanceof OWLEquivalentObjectPropertiesAxiom || ax instanceof OWLEquivalentDataPropertiesAxiom
+                    || ax instanceof OWLInverseObjectPropertiesAxiom) {
+                Set<? extends OWLPropertyExpression> properties = ((OWLNaryPropertyAxiom<?>) ax).getProperties();
+                for (OWLPropertyExpression p : properties) {
+                    for (OWLPropertyExpression other : properties) addEdges(superPredicates, p, other);
+                }
+            } else if (ax instanceof OWLObjectPropertyDomainAxiom || ax instanceof OWLDataPropertyDomainAxiom) {
+                // a witness may be the subject of the property (e.g., through an inverse existential restriction)
+                OWLPropertyDomainAxiom<?> pd = (OWLPropertyDomainAxiom<?>) ax;
+                addEdges(superPredicates, pd.getProperty(), pd.getDomain());
+            } else if (ax instanceof OWLObjectPropertyRangeAxiom) {
+                OWLObjectPropertyRangeAxiom pr = (OWLObjectPropertyRangeAxiom) ax;
+                addEdges(superPredicates, pr.getProperty(), pr.getRange());
+            } else if (ax instanceof OWLClassAssertionAxiom) {
+                collectExistentialPredicates(((OWLClassAssertionAxiom) ax).getClassExpression(), predicates);
+            } else if (!NEUTRAL_AXIOM_TYPES.contains(ax.getAxiomType())) {
+                // not modelled (e.g., property chains and reflexive properties): a witness may match any of its predicates
+                predicates.addAll(predicatesOf(ax));
+            }
+        }
+
+        // A witness of a predicate is also a witness of its super-predicates
+        Deque<String> toVisit = new ArrayDeque<>(predicates);
+        while (!toVisit.isEmpty()) {
+            for (String superPredicate : superPredicates.getOrDefault(toVisit.pop(), Collections.emptySet())) {
+                if (predicates.add(superPredicate)) toVisit.push(superPredicate);
+            }
+        }
+        return new ExistentialReasoningCheck(predicates);
+    }
+
+    /**
+     * Returns the predicates (classes and properties) a witness implied by an existential axiom may be matched by.
+     *
+     * @return the existential-sensitive predicates, as IRI strings
+     */
+    public Set<String> getExistentialPredicates() {
+        return existentialPredicates;
+    }
+
+    /**
+     * Tests whether existential reasoning may change the answers of the supplied query.
+     *
+     * @param vkgQuerySPARQL the SPARQL expression of the VKG query
+     * @return false, if the query can be reformulated without existential reasoning
+     */
+    public boolean isNeeded(String vkgQuerySPARQL) {
+        if (existentialPredicates.isEmpty()) return false;
+
+        ParsedQuery query;
+        try {
+            query = new SPARQLParser().parseQuery(vkgQuerySPARQL, null);
+        } catch (MalformedQueryException ex) {
+            return true; // let Ontop report the error
+        }
+        TupleExpr expr = query.getTupleExpr();
+        Set<String> answerVariables = query instanceof ParsedBooleanQuery ? Collections.emptySet() : expr.getBindingNames();
+
+        List<StatementPattern> patterns = new ArrayList<>();
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(StatementPattern node) {
+                patterns.add(node);
+            }
+        });
+
+        for (StatementPattern pattern : patterns) {
+            Value predicate = pattern.getPredicateVar().getValue();
+            if (predicate == null) return true;
+            if (RDF.TYPE.equals(predicate)) {
+                Value cls = pattern.getObjectVar().getValue();
+                if (cls == null) return true;
+                if (existentialPredicates.contains(cls.stringValue())
+                        && isExistential(pattern.getSubjectVar(), answerVariables)) return true;
+            } else if (existentialPredicates.contains(predicate.stringValue())
+                    && (isExistential(pattern.getSubjectVar(), answerVariables)
+                    || isExistential(pattern.getObjectVar(), answerVariables))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExistential(Var var, Set<String> answerVariables) {
+        return !var.hasValue() && !answerVariables.contains(var.getName());
+    }
+
+    private static void collectExistentialPredicates(OWLClassExpression ce, Set<String> predicates) {
+        for (OWLClassExpression nested : ce.getNestedClassExpressions()) {
+            if (nested instanceof OWLObjectSomeValuesFrom
+                    || nested instanceof OWLObjectMinCardinality
+                    || nested instanceof OWLObjectExactCardinality
+                    || nested instanceof OWLDataSomeValuesFrom
+                    || nested instanceof OWLDataMinCardinality
+                    || nested instanceof OWLDataExactCardinality) {
+                for (OWLEntity entity : nested.getSignature()) {
+                    if (!entity.isOWLDatatype()) predicates.add(entity.getIRI().toString());
+                }
+            }
+        }
+    }
+
+    private static void addEdges(Map<String, Set<String>> superPredicates, OWLObject sub, OWLObject sup) {
+        // every predicate of an anonymous expression is tracked (an inverse property through its named property):
+        // e.g., a witness of R is also a witness of D if R some Thing SubClassOf D
+        Set<String> superIRIs = predicatesOf(sup);
+        for (String subIRI : predicatesOf(sub)) {
+            for (String superIRI : superIRIs) {
+                if (!subIRI.equals(superIRI)) superPredicates.computeIfAbsent(subIRI, k -> new HashSet<>()).add(superIRI);
+            }
+        }
+    }
+
+    private static Set<String> predicatesOf(OWLObject o) {
+        Set<String> iris = new HashSet<>();
+        for (OWLEntity entity : o.getSignature()) {
+            if (entity.isOWLClass() || entity.isOWLObjectProperty() || entity.isOWLDataProperty()) {
+                iris.add(entity.getIRI().toString());
+            }
+        }
+        return iris;
+    }
+
+}
@@ -0,0 +1,118 @@
+package se.umea.mapgen.reformulation;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The native query obtained by reformulating a VKG SPARQL query with Ontop, without any of the IQs involved in the
+ * reformulation.
+ * <p>
+ * Instances of this class only hold what is needed for emitting an Ontop {@code .obda} mapping, i.e., the SQL of the
+ * native query and the {@link OntopReformulationResult#getNativeQueryTargetMap() target map} of its projected
+ * variables. Contrarily to {@link OntopReformulationResult}, they are cheap to keep around (e.g., in a cache) while
+ * many queries are reformulated, since the IQs can be garbage collected as soon as the instance is built.
+ * </p>
+ */
+@SuppressWarnings("unused")
+@NonNullByDefault
+public final class OntopNativeQuery {
+
+    private final String vkgQuerySPARQL;
+
+    private final @Nullable String nativeQuerySQL; // null if empty
+
+    private final @Nullable Map<String, String> nativeQueryTargetMap; // null if empty
+
+    private final @Nullable ReformulationTimings timings; // null if not measured
+
+    /**
+     * Creates a new native query object. Either both the SQL and the target map are supplied, or none of them (for a
+     * query determined to return empty results).
+     *
+     * @param vkgQuerySPARQL       the SPARQL expression for the input VKG query
+     * @param nativeQuerySQL       the SQL for the native query, or {@code null} if the query is empty
+     * @param nativeQueryTargetMap the target map of the native query, or {@code null} if the query is empty
+     */
+    public OntopNativeQuery(String vkgQuerySPARQL, @Nullable String nativeQuerySQL,
+                            @Nullable Map<String, String> nativeQueryTargetMap) {
+        this(vkgQuerySPARQL, nativeQuerySQL, nativeQueryTargetMap, null);
+    }
+
+    /**
+     * Creates a new native query object, including the timings of the reformulation it has been obtained from.
+     *
+     * @param vkgQuerySPARQL       the SPARQL expression for the input VKG query
+     * @param nativeQuerySQL       the SQL for the native query, or {@code null} if the query is empty
+     * @param nativeQueryTargetMap the target map of the native query, or {@code null} if the query is empty
+     * @param timings              the timings of the reformulation, if measured
+     */
+    public OntopNativeQuery(String vkgQuerySPARQL, @Nullable String nativeQuerySQL,
+                            @Nullable Map<String, String> nativeQueryTargetMap, @Nullable ReformulationTimings timings) {
+        if ((nativeQuerySQL == null) != (nativeQueryTargetMap == null)) {
+            throw new IllegalArgumentException("Either both or none of the SQL and the target map must be supplied");
+        }
+        this.vkgQuerySPARQL = Objects.requireNonNull(vkgQuerySPARQL);
+        this.nativeQuerySQL = nativeQuerySQL;
+        this.nativeQueryTargetMap = nativeQueryTargetMap == null ? null
+                : Collections.unmodifiableMap(nativeQueryTargetMap);
+        this.timings = timings;
+    }
+
+    /**
+     * Returns the SPARQL expression of the input VKG query.
+     *
+     * @return the SPARQL VKG query, never null
+     */
+    public String getVkgQuerySPARQL() {
+        return vkgQuerySPARQL;
+    }
+
+    /**
+     * Returns the SQL expression of the native query, if not empty.
+     *
+     * @return the SQL for the native query, or {@code null} if the query was determined to produce empty results
+     */
+    public @Nullable String getNativeQuerySQL() {
+        return nativeQuerySQL;
+    }
+
+    /**
+     * Returns a map associating each projected variable of the input VKG SPARQL query to the corresponding string to
+     * include in a <i>target</i> mapping clause (see {@link OntopReformulationResult#getNativeQueryTargetMap()}).
+     *
+     * @return a map from SPARQL projected variable to corresponding mapping target expression, or {@code null} if the
+     * query was determined to produce empty results
+     */
+    public @Nullable Map<String, String> getNativeQueryTargetMap() {
+        return nativeQueryTargetMap;
+    }
+
+    /**
+     * Returns the timings of the reformulation this native query has been obtained from.
+     *
+     * @return the timings of the reformulation, or {@code null} if not measured
+     */
+    public @Nullable ReformulationTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Tests whether the query was determined to return empty results during reformulation.
+     *
+     * @return true, if the query was determined to return empty results
+     */
+    public boolean isEmpty() {
+        return nativeQuerySQL == null;
+    }
+
+    @Override
+    public String toString() {
+        String nativeQuery = nativeQuerySQL != null ? nativeQuerySQL.trim() + "\n\n" + nativeQueryTargetMap : null;
+        return "=== VKG QUERY ===\n\n" + vkgQuerySPARQL.trim() + "\n\n=== NATIVE QUERY ===\n\n" + nativeQuery;
+    }
+
+}
@@ -20,17 +20,23 @@ import it.unibz.inf.ontop.query.SPARQLQuery;
 import it.unibz.inf.ontop.spec.OBDASpecification;
 import it.unibz.inf.ontop.spec.ontology.InconsistentOntologyException;
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Properties;
+import java.util.concurrent.*;
 
 /**
  * Simple wrapper of Ontop reformulation logics.
@@ -46,7 +52,8 @@ import java.util.Properties;
  * <li>{@code jdbc.url} (mandatory)
  * - needed only to determine DB type and use the corresponding dialect;</li>
  * <li>{@code ontop.existentialReasoning} (optional)
- * - set to "true" to enable existential reasoning (default is "false");</li>
+ * - set to "true" to enable existential reasoning (default is "false"), or to "auto" to enable it only for the queries
+ * whose answers may depend on it, as determined by an {@link ExistentialReasoningCheck};</li>
  * <li>{@code ontop.reformulateToFullNativeQuery} (optional)
  * - set to "true" to force Ontop to generate a native query returning a column for each variable projected in the
  * input VKG SPARQL query, delegating to the DB the task of applying IRI templates (default is "false");</li>
@@ -61,10 +68,29 @@ public final class OntopReformulationAPI {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OntopReformulationAPI.class);
 
+    public static final String EXISTENTIAL_REASONING_PROPERTY = "ontop.existentialReasoning";
+
+    public static final String EXISTENTIAL_REASONING_AUTO = "auto";
+
+    // timed-out reformulations kept running in background, so that they can be resumed by a later call
+    private static final int MAX_ABANDONED_REFORMULATIONS = 4;
+
+    // reformulations with a deadline running at the same time, abandoned ones included
+    private static final int MAX_REFORMULATION_THREADS = 16;
+
     private final OBDASpecification obdaSpecification;
 
     private final QueryReformulator queryReformulator;
 
+    private final @Nullable QueryReformulator nonExistentialQueryReformulator; // only in "auto" mode
+
+    private final @Nullable ExistentialReasoningCheck existentialReasoningCheck; // only in "auto" mode
+
+    private final ReformulationStatistics statistics = new ReformulationStatistics();
+
+    private final DeadlineExecutor<OntopReformulationResult> deadlineExecutor =
+            new DeadlineExecutor<>(this::reformulate, MAX_ABANDONED_REFORMULATIONS, MAX_REFORMULATION_THREADS);
+
     /**
      * Creates a new {@code OntopReformulationAPI} object for the supplied properties, mapping, ontology and database
      * metadata files.
@@ -105,6 +131,15 @@ public final class OntopReformulationAPI {
         Objects.requireNonNull(properties);
         Objects.requireNonNull(mappingSource);
 
+        // Resolve the existential reasoning mode, which Ontop only accepts as a boolean
+        String existentialReasoning = properties.getProperty(EXISTENTIAL_REASONING_PROPERTY, "false").trim().toLowerCase();
+        boolean auto = existentialReasoning.equals(EXISTENTIAL_REASONING_AUTO);
+        if (auto) {
+            properties = (Properties) properties.clone();
+            properties.setProperty(EXISTENTIAL_REASONING_PROPERTY, "true");
+        }
+        boolean enableExistentialReasoning = auto || Boolean.parseBoolean(existentialReasoning);
+
         // Variables for Reader objects allocated on demand and closed at the end
         Reader mappingReader = null, ontologyReader = null, metadataReader = null;
 
@@ -126,12 +161,18 @@ public final class OntopReformulationAPI {
             obdaSpecification = mappingConfig.loadSpecification();
 
             // Obtain the Ontop QueryReformulator object
-            OntopReformulationSQLConfiguration reformulationConfig = OntopReformulationSQLConfiguration.defaultBuilder()
-                    .properties(properties)
-                    .enableExistentialReasoning(true)
-                    .obdaSpecification(obdaSpecification)
-                    .build(); // may use this object to get other Ontop objects if needed
-            queryReformulator = reformulationConfig.loadQueryReformulator();
+            queryReformulator = loadQueryReformulator(properties, obdaSpecification, enableExistentialReasoning);
+
+            // In "auto" mode, obtain a cheaper QueryReformulator for the queries not needing existential reasoning
+            if (auto) {
+                nonExistentialQueryReformulator = loadQueryReformulator(properties, obdaSpecification, false);
+                existentialReasoningCheck = loadExistentialReasoningCheck(ontologySource);
+                LOGGER.info("Existential reasoning enabled only for queries using any of {} predicates",
+                        existentialReasoningCheck.getExistentialPredicates().size());
+            } else {
+                nonExistentialQueryReformulator = null;
+                existentialReasoningCheck = null;
+            }
 
         } finally {
             // Close all readers to free underlying files/resources
@@ -151,7 +192,8 @@ public final class OntopReformulationAPI {
     }
 
     /**
-     * Returns the wrapped Ontop {@code QueryReformulator} object.
+     * Returns the wrapped Ontop {@code QueryReformulator} object. In "auto" existential reasoning mode, this is the
+     * reformulator with existential reasoning enabled.
      *
      * @return the query reformulator object
      */
@@ -159,6 +201,15 @@ public final class OntopReformulationAPI {
         return queryReformulator;
     }
 
+    /**
+     * Returns the aggregated timings of all the reformulations performed so far by this object.
+     *
+     * @return the reformulation statistics
+     */
+    public ReformulationStatistics getStatistics() {
+        return statistics;
+    }
+
     /**
      * Reformulates the supplied VKG SPARQL query using Ontop.
      *
@@ -172,13 +223,19 @@ public final class OntopReformulationAPI {
         // Check input parameter
         Objects.requireNonNull(vkgQuerySPARQL);
 
-        // Parse the input SPARQL query (will fail if invalid)
+        // Select the reformulator, skipping existential reasoning if it cannot contribute to the answers
+        QueryReformulator queryReformulator = nonExistentialQueryReformulator != null
+                && existentialReasoningCheck != null && !existentialReasoningCheck.isNeeded(vkgQuerySPARQL)
+                ? nonExistentialQueryReformulator
+                : this.queryReformulator;
+
+        // Parse the input SPARQL query (will fail if invalid), timing it as part of the reformulation
+        ResultLogger resultLogger = new ResultLogger();
+        resultLogger.setSparqlQuery(vkgQuerySPARQL);
         KGQueryFactory kgQueryFactory = queryReformulator.getInputQueryFactory();
         SPARQLQuery<?> vkgQuery = kgQueryFactory.createSPARQLQuery(vkgQuerySPARQL);
 
         // Reformulate the query, collecting final and intermediate results into a OntopReformulationResult object
-        ResultLogger resultLogger = new ResultLogger();
-        resultLogger.setSparqlQuery(vkgQuerySPARQL);
         try {
             queryReformulator.reformulateIntoNativeQuery(vkgQuery, resultLogger);
         } catch (OntopReformulationException ex) {
@@ -186,7 +243,117 @@ public final class OntopReformulationAPI {
                 throw ex; // TODO: remove once ToFullNativeQueryReformulator is fixed
             }
         }
-        return resultLogger.toResult();
+        OntopReformulationResult result = resultLogger.toResult();
+        ReformulationTimings timings = result.getTimings();
+        if (timings != null) {
+            statistics.add(timings);
+        }
+        return result;
+    }
+
+    /**
+     * Reformulates the supplied VKG SPARQL query using Ontop, within the supplied deadline.
+     * <p>
+     * The reformulation runs on a separate (daemon) thread. When the deadline expires, the reformulation is abandoned,
+     * i.e., it keeps running in background, and a later call for the same query waits for it instead of starting a new
+     * one (e.g., when retrying with a larger deadline). At most {@value #MAX_ABANDONED_REFORMULATIONS} reformulations
+     * are abandoned at the same time: beyond that, the least recently abandoned one is interrupted and discarded.
+     * </p>
+     * <p>
+     * The deadline only covers the reformulation itself, which never waits for a thread. Since Ontop may not react to
+     * the interruption, at most {@value #MAX_REFORMULATION_THREADS} reformulations (abandoned ones included) run at the
+     * same time: beyond that, new reformulations are rejected.
+     * </p>
+     *
+     * @param vkgQuerySPARQL the SPARQL expression for the input VKG query to reformulate
+     * @param timeoutMillis  the deadline in milliseconds, or zero (or a negative value) for no deadline
+     * @return a result object containing input, output and intermediate results of Ontop reformulation
+     * @throws OntopKGQueryException          if the input query is not valid
+     * @throws OntopReformulationException    if query reformulation fails
+     * @throws ReformulationTimeoutException  if the deadline expires before the reformulation completes
+     * @throws RejectedExecutionException     if too many timed-out reformulations are still running
+     * @throws InterruptedException           if the calling thread is interrupted while waiting
+     */
+    public OntopReformulationResult reformulate(String vkgQuerySPARQL, long timeoutMillis)
+            throws OntopKGQueryException, OntopReformulationException, ReformulationTimeoutException, InterruptedException {
+
+        // Check input parameter
+        Objects.requireNonNull(vkgQuerySPARQL);
+        if (timeoutMillis <= 0) {
+            return reformulate(vkgQuerySPARQL);
+        }
+
+        // Run the reformulation on a separate thread (or resume the abandoned one), waiting for it at most until the deadline
+        try {
+            return deadlineExecutor.reformulate(vkgQuerySPARQL, timeoutMillis);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof OntopKGQueryException) {
+                throw (OntopKGQueryException) cause;
+            } else if (cause instanceof OntopReformulationException) {
+                throw (OntopReformulationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Reformulates the supplied VKG SPARQL query using Ontop, only retaining the resulting native query.
+     * See {@link #reformulate(String, long)} for the semantics of the deadline.
+     *
+     * @param vkgQuerySPARQL the SPARQL expression for the input VKG query to reformulate
+     * @param timeoutMillis  the deadline in milliseconds, or zero (or a negative value) for no deadline
+     * @return the native query (possibly empty) the VKG query has been reformulated into
+     * @throws OntopKGQueryException          if the input query is not valid
+     * @throws OntopReformulationException    if query reformulation fails
+     * @throws ReformulationTimeoutException  if the deadline expires before the reformulation completes
+     * @throws InterruptedException           if the calling thread is interrupted while waiting
+     */
+    public OntopNativeQuery reformulateToNativeQuery(String vkgQuerySPARQL, long timeoutMillis)
+            throws OntopKGQueryException, OntopReformulationException, ReformulationTimeoutException, InterruptedException {
+        return reformulate(vkgQuerySPARQL, timeoutMillis).toNativeQuery();
+    }
+
+    /**
+     * Reformulates the supplied VKG SPARQL query using Ontop, only retaining the resulting native query. This is the
+     * same as {@code reformulate(vkgQuerySPARQL).toNativeQuery()}: the IQs built during the reformulation become
+     * garbage as soon as this method returns.
+     *
+     * @param vkgQuerySPARQL the SPARQL expression for the input VKG query to reformulate
+     * @return the native query (possibly empty) the VKG query has been reformulated into
+     * @throws OntopKGQueryException       if the input query is not valid
+     * @throws OntopReformulationException if query reformulation fails
+     */
+    public OntopNativeQuery reformulateToNativeQuery(String vkgQuerySPARQL) throws OntopKGQueryException, OntopReformulationException {
+        return reformulate(vkgQuerySPARQL).toNativeQuery();
+    }
+
+    private static QueryReformulator loadQueryReformulator(Properties properties, OBDASpecification obdaSpecification,
+                                                           boolean enableExistentialReasoning) throws OBDASpecificationException {
+        OntopReformulationSQLConfiguration reformulationConfig = OntopReformulationSQLConfiguration.defaultBuilder()
+                .properties(properties)
+                .enableExistentialReasoning(enableExistentialReasoning)
+                .obdaSpecification(obdaSpecification)
+                .build(); // may use this object to get other Ontop objects if needed
+        return reformulationConfig.loadQueryReformulator();
+    }
+
+    private static ExistentialReasoningCheck loadExistentialReasoningCheck(@Nullable CharSource ontologySource) throws IOException {
+        try {
+            if (ontologySource == null) {
+                // without an ontology there are no existential axioms
+                return ExistentialReasoningCheck.of(OWLManager.createOWLOntologyManager().createOntology());
+            }
+            try (InputStream in = ontologySource.asByteSource(StandardCharsets.UTF_8).openStream()) {
+                return ExistentialReasoningCheck.of(OWLManager.createOWLOntologyManager().loadOntologyFromOntologyDocument(in));
+            }
+        } catch (OWLOntologyCreationException ex) {
+            throw new IOException("Cannot load the ontology for checking existential axioms", ex);
+        }
     }
 
     private static Properties loadProperties(Path propertiesFile) throws IOException {
@@ -217,24 +384,40 @@ public final class OntopReformulationAPI {
 
         private @Nullable IQ nativeQueryIQ;
 
+        private boolean wasCached;
+
+        // instants (System.nanoTime()) at which the reformulation started and each phase ended, empty if not observed
+        private long start;
+
+        private OptionalLong vkgQueryIQTime = OptionalLong.empty();
+
+        private OptionalLong reformulatedQueryIQTime = OptionalLong.empty();
+
+        private OptionalLong nativeQueryIQTime = OptionalLong.empty();
+
         @Override
         public void setSparqlQuery(String sparql) {
             this.vkgQuerySPARQL = sparql;
+            this.start = System.nanoTime();
         }
 
         @Override
         public void setSparqlIQ(IQ iq) {
             this.vkgQueryIQ = iq;
+            this.vkgQueryIQTime = OptionalLong.of(System.nanoTime());
         }
 
         @Override
         public void setPlannedQuery(IQ iq) {
             this.reformulatedQueryIQ = iq;
+            this.reformulatedQueryIQTime = OptionalLong.of(System.nanoTime());
         }
 
         @Override
         public void declareReformulationFinishedAndSerialize(IQ iq, boolean wasCached) {
             this.nativeQueryIQ = iq;
+            this.nativeQueryIQTime = OptionalLong.of(System.nanoTime());
+            this.wasCached = wasCached;
         }
 
         @Override
@@ -278,6 +461,12 @@ public final class OntopReformulationAPI {
             assert vkgQuerySPARQL != null;
             assert vkgQueryIQ != null;
 
+            // Collect the timings (node counts are computed before any IQ can be released)
+            ReformulationTimings timings = new ReformulationTimings(start, vkgQueryIQTime, reformulatedQueryIQTime,
+                    nativeQueryIQTime, System.nanoTime(), ReformulationTimings.countNodes(vkgQueryIQ),
+                    ReformulationTimings.countNodes(reformulatedQueryIQ), ReformulationTimings.countNodes(nativeQueryIQ),
+                    wasCached);
+
             // Retrieve the SQL for the native query, if possible
             String nativeQuerySQL = Optional.ofNullable(nativeQueryIQ)
                     .map(IQ::getTree)
@@ -289,13 +478,13 @@ public final class OntopReformulationAPI {
 
             // Return a result object for either an empty query (only input fields) or a non-empty one (all fields)
             if (nativeQueryIQ == null || nativeQuerySQL == null) {
-                return new OntopReformulationResult(vkgQuerySPARQL, vkgQueryIQ);
+                return new OntopReformulationResult(vkgQuerySPARQL, vkgQueryIQ, timings);
             } else {
                 // Recover the reformulatedQueryIQ from the nativeQueryIQ, in case not explicitly returned by Ontop
                 // (this may happen in certain unexpected cases, e.g., if a cached native query is reused)
                 IQ reformulatedQueryIQ = MoreObjects.firstNonNull(this.reformulatedQueryIQ, nativeQueryIQ);
                 return new OntopReformulationResult(vkgQuerySPARQL, vkgQueryIQ, reformulatedQueryIQ,
-                        nativeQueryIQ, nativeQuerySQL);
+                        nativeQueryIQ, nativeQuerySQL, timings);
             }
         }
 
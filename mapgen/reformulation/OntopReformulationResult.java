@@ -59,6 +59,8 @@ public final class OntopReformulationResult {
 
     private transient @Nullable Map<String, String> nativeQueryTargetMap; // null if empty
 
+    private final @Nullable ReformulationTimings timings; // null if not measured
+
     /**
      * Creates a new reformulation results object for an empty query, that is, a query determined to return empty
      * results. In such case, a native query is not needed and thus not generated.
@@ -67,11 +69,23 @@ public final class OntopReformulationResult {
      * @param vkgQueryIQ     the IQ for the input VKG query
      */
     public OntopReformulationResult(String vkgQuerySPARQL, IQ vkgQueryIQ) {
+        this(vkgQuerySPARQL, vkgQueryIQ, null);
+    }
+
+    /**
+     * Creates a new reformulation results object for an empty query, including the timings of its reformulation.
+     *
+     * @param vkgQuerySPARQL the SPARQL expression for the input VKG query
+     * @param vkgQueryIQ     the IQ for the input VKG query
+     * @param timings        the timings of the reformulation, if measured
+     */
+    public OntopReformulationResult(String vkgQuerySPARQL, IQ vkgQueryIQ, @Nullable ReformulationTimings timings) {
         this.vkgQuerySPARQL = Objects.requireNonNull(vkgQuerySPARQL);
         this.vkgQueryIQ = Objects.requireNonNull(vkgQueryIQ);
         this.reformulatedQueryIQ = null;
         this.nativeQueryIQ = null;
         this.nativeQuerySQL = null;
+        this.timings = timings;
     }
 
     /**
@@ -87,11 +101,27 @@ public final class OntopReformulationResult {
      */
     public OntopReformulationResult(String vkgQuerySPARQL, IQ vkgQueryIQ, IQ reformulatedQueryIQ, IQ nativeQueryIQ,
                                     String nativeQuerySQL) {
+        this(vkgQuerySPARQL, vkgQueryIQ, reformulatedQueryIQ, nativeQueryIQ, nativeQuerySQL, null);
+    }
+
+    /**
+     * Creates a new reformulation results object for a non-empty query, including the timings of its reformulation.
+     *
+     * @param vkgQuerySPARQL      the SPARQL expression for the input VKG query
+     * @param vkgQueryIQ          the IQ for the input VKG query
+     * @param reformulatedQueryIQ the IQ for the reformulated query, prior to its conversion to a NativeNode IQ
+     * @param nativeQueryIQ       the IQ for the native query, consisting primarily of a NativeNode
+     * @param nativeQuerySQL      the SQL for the native query
+     * @param timings             the timings of the reformulation, if measured
+     */
+    public OntopReformulationResult(String vkgQuerySPARQL, IQ vkgQueryIQ, IQ reformulatedQueryIQ, IQ nativeQueryIQ,
+                                    String nativeQuerySQL, @Nullable ReformulationTimings timings) {
         this.vkgQuerySPARQL = Objects.requireNonNull(vkgQuerySPARQL);
         this.vkgQueryIQ = Objects.requireNonNull(vkgQueryIQ);
         this.reformulatedQueryIQ = Objects.requireNonNull(reformulatedQueryIQ);
         this.nativeQueryIQ = Objects.requireNonNull(nativeQueryIQ);
         this.nativeQuerySQL = Objects.requireNonNull(nativeQuerySQL);
+        this.timings = timings;
     }
 
     /**
@@ -165,6 +195,26 @@ public final class OntopReformulationResult {
         return nativeQueryTargetMap;
     }
 
+    /**
+     * Returns the latency of each phase of the reformulation, along with the sizes of the IQs and whether the native
+     * query was cached by Ontop.
+     *
+     * @return the timings of the reformulation, or {@code null} if not measured
+     */
+    public @Nullable ReformulationTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Returns the native query of this result, i.e., its SQL and target map, without any IQ. The returned object does
+     * not refer to this one, hence this result can be garbage collected while the native query is retained.
+     *
+     * @return the native query (possibly empty) of this result
+     */
+    public OntopNativeQuery toNativeQuery() {
+        return new OntopNativeQuery(vkgQuerySPARQL, nativeQuerySQL, getNativeQueryTargetMap(), timings);
+    }
+
     /**
      * Tests whether the query was determined to return empty results during reformulation. In this case there is no
      * need to query the native data source, hence a native query and all the associated information are not returned.
@@ -186,7 +236,8 @@ public final class OntopReformulationResult {
                 : null;
         return "=== VKG QUERY ===\n\n" + vkgQuerySPARQL.trim() + "\n\n" + vkgQueryIQ.toString().trim()
                 + "\n\n=== REFORMULATED QUERY ===\n\n" + reformulatedQuery
-                + "\n\n=== NATIVE QUERY ===\n\n" + nativeQuery;
+                + "\n\n=== NATIVE QUERY ===\n\n" + nativeQuery
+                + "\n\n=== TIMINGS ===\n\n" + timings;
     }
 
     private static Map<String, String> extractNativeQueryTargetMap(@Nullable IQ iq) {
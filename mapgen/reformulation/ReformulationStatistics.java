@@ -0,0 +1,106 @@
+package se.umea.mapgen.reformulation;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * Aggregated {@link ReformulationTimings timings} of many reformulations, e.g. all the ones performed by an
+ * {@link OntopReformulationAPI} object.
+ * <p>
+ * For each phase, latencies are collected into a histogram with logarithmic buckets: bucket {@code i} counts the
+ * reformulations whose phase took between {@code 2^i} (inclusive) and {@code 2^(i+1)} (exclusive) microseconds, and
+ * bucket 0 also counts the ones below 1 microsecond. Methods are thread-safe.
+ * </p>
+ */
+@SuppressWarnings("unused")
+@NonNullByDefault
+public final class ReformulationStatistics {
+
+    private final Histogram parse = new Histogram();
+
+    private final Histogram rewriting = new Histogram();
+
+    private final Histogram nativeQueryGeneration = new Histogram();
+
+    private final Histogram total = new Histogram();
+
+    private long count = 0;
+
+    private long cached = 0;
+
+    /**
+     * Adds the timings of a reformulation.
+     *
+     * @param timings the timings
+     */
+    public synchronized void add(ReformulationTimings timings) {
+        count++;
+        if (timings.wasCached()) {
+            cached++;
+        }
+        timings.getParseNanos().ifPresent(parse::add); // phases not observed are not counted
+        timings.getRewritingNanos().ifPresent(rewriting::add);
+        timings.getNativeQueryGenerationNanos().ifPresent(nativeQueryGeneration::add);
+        total.add(timings.getTotalNanos());
+    }
+
+    /**
+     * @return the number of reformulations added so far
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of reformulations which reused a cached native query
+     */
+    public synchronized long getCachedCount() {
+        return cached;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Reformulations: " + count + " (" + cached + " cached)\n"
+                + "parse:                   " + parse + "\n"
+                + "rewriting:               " + rewriting + "\n"
+                + "native query generation: " + nativeQueryGeneration + "\n"
+                + "total:                   " + total;
+    }
+
+    private static final class Histogram {
+
+        private final long[] buckets = new long[Long.SIZE];
+
+        private long count = 0;
+
+        private long sumNanos = 0;
+
+        private long maxNanos = 0;
+
+        void add(long nanos) {
+            long micros = nanos / 1000;
+            buckets[micros == 0 ? 0 : 63 - Long.numberOfLeadingZeros(micros)]++;
+            count++;
+            sumNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) {
+                return "n/a";
+            }
+            StringBuilder sb = new StringBuilder()
+                    .append("mean ").append(ReformulationTimings.format(sumNanos / count))
+                    .append(", max ").append(ReformulationTimings.format(maxNanos))
+                    .append(", histogram (us)");
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) {
+                    sb.append(" [").append(i == 0 ? 0 : 1L << i).append(",").append(1L << (i + 1)).append("):")
+                            .append(buckets[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+}
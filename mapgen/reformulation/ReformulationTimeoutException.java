@@ -0,0 +1,49 @@
+package se.umea.mapgen.reformulation;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.Objects;
+
+/**
+ * Thrown when the reformulation of a VKG SPARQL query exceeds its deadline (see
+ * {@link OntopReformulationAPI#reformulate(String, long)}).
+ */
+@SuppressWarnings("unused")
+@NonNullByDefault
+public final class ReformulationTimeoutException extends Exception {
+
+    private final String vkgQuerySPARQL;
+
+    private final long timeoutMillis;
+
+    /**
+     * Creates a new exception for the supplied query and deadline.
+     *
+     * @param vkgQuerySPARQL the SPARQL expression of the VKG query whose reformulation timed out
+     * @param timeoutMillis  the deadline, in milliseconds
+     */
+    public ReformulationTimeoutException(String vkgQuerySPARQL, long timeoutMillis) {
+        super("Reformulation took more than " + timeoutMillis + " ms");
+        this.vkgQuerySPARQL = Objects.requireNonNull(vkgQuerySPARQL);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the SPARQL expression of the VKG query whose reformulation timed out.
+     *
+     * @return the SPARQL VKG query, never null
+     */
+    public String getVkgQuerySPARQL() {
+        return vkgQuerySPARQL;
+    }
+
+    /**
+     * Returns the deadline which was exceeded.
+     *
+     * @return the deadline, in milliseconds
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+}
@@ -0,0 +1,177 @@
+package se.umea.mapgen.reformulation;
+
+import it.unibz.inf.ontop.iq.IQ;
+import it.unibz.inf.ontop.iq.IQTree;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.OptionalLong;
+
+/**
+ * The latency of the phases of the reformulation of a VKG SPARQL query performed by Ontop, together with the sizes of
+ * the IQs produced along the way.
+ * <p>
+ * Phases are delimited by the callbacks Ontop issues to its {@code QueryLogger}:
+ * <ul>
+ * <li><i>parse</i> - from the parsing of the SPARQL expression to its conversion into an IQ;</li>
+ * <li><i>rewriting</i> - rewriting w.r.t. the ontology, mapping unfolding, optimization and planning, up to the planned
+ * IQ (Ontop issues no callback in between, hence these steps are measured together);</li>
+ * <li><i>native query generation</i> - from the planned IQ to the native query.</li>
+ * </ul>
+ * A phase which was not observed (e.g., because the native query was cached, or the query was determined to be empty)
+ * has no duration. An IQ which was not produced has a negative size.
+ * </p>
+ */
+@SuppressWarnings("unused")
+@NonNullByDefault
+public final class ReformulationTimings {
+
+    private final OptionalLong parseNanos;
+
+    private final OptionalLong rewritingNanos;
+
+    private final OptionalLong nativeQueryGenerationNanos;
+
+    private final long totalNanos;
+
+    private final int vkgQueryIQSize;
+
+    private final int reformulatedQueryIQSize;
+
+    private final int nativeQueryIQSize;
+
+    private final boolean wasCached;
+
+    /**
+     * Creates a new timings object from the instants (as returned by {@link System#nanoTime()}) at which the phases
+     * ended, an empty instant meaning that the phase was not observed (any value may be returned by
+     * {@link System#nanoTime()}, hence none can stand for a missing instant).
+     *
+     * @param start               the instant the reformulation started
+     * @param vkgQueryIQ          the instant the VKG query was converted into an IQ
+     * @param reformulatedQueryIQ the instant the reformulated query was planned
+     * @param nativeQueryIQ       the instant the native query was generated
+     * @param end                 the instant the reformulation ended
+     * @param vkgQueryIQSize      the number of nodes of the VKG query IQ
+     * @param reformulatedQueryIQSize the number of nodes of the reformulated query IQ
+     * @param nativeQueryIQSize   the number of nodes of the native query IQ
+     * @param wasCached           whether Ontop reused a cached native query
+     */
+    public ReformulationTimings(long start, OptionalLong vkgQueryIQ, OptionalLong reformulatedQueryIQ,
+                                OptionalLong nativeQueryIQ, long end,
+                                int vkgQueryIQSize, int reformulatedQueryIQSize, int nativeQueryIQSize,
+                                boolean wasCached) {
+        this.parseNanos = duration(OptionalLong.of(start), vkgQueryIQ);
+        this.rewritingNanos = duration(vkgQueryIQ, reformulatedQueryIQ);
+        this.nativeQueryGenerationNanos = duration(reformulatedQueryIQ, nativeQueryIQ);
+        this.totalNanos = end - start;
+        this.vkgQueryIQSize = vkgQueryIQSize;
+        this.reformulatedQueryIQSize = reformulatedQueryIQSize;
+        this.nativeQueryIQSize = nativeQueryIQSize;
+        this.wasCached = wasCached;
+    }
+
+    /**
+     * Returns the time spent parsing the VKG query and converting it into an IQ.
+     *
+     * @return the duration in nanoseconds, if observed
+     */
+    public OptionalLong getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Returns the time spent rewriting, unfolding, optimizing and planning the query.
+     *
+     * @return the duration in nanoseconds, if observed
+     */
+    public OptionalLong getRewritingNanos() {
+        return rewritingNanos;
+    }
+
+    /**
+     * Returns the time spent generating the native query from the planned IQ.
+     *
+     * @return the duration in nanoseconds, if observed
+     */
+    public OptionalLong getNativeQueryGenerationNanos() {
+        return nativeQueryGenerationNanos;
+    }
+
+    /**
+     * Returns the time spent in the whole reformulation.
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the number of nodes of the VKG query IQ, or a negative value if not available
+     */
+    public int getVkgQueryIQSize() {
+        return vkgQueryIQSize;
+    }
+
+    /**
+     * @return the number of nodes of the reformulated query IQ, or a negative value if not available
+     */
+    public int getReformulatedQueryIQSize() {
+        return reformulatedQueryIQSize;
+    }
+
+    /**
+     * @return the number of nodes of the native query IQ, or a negative value if not available
+     */
+    public int getNativeQueryIQSize() {
+        return nativeQueryIQSize;
+    }
+
+    /**
+     * Tests whether Ontop reused a cached native query, in which case rewriting and planning were skipped.
+     *
+     * @return true, if the native query was cached
+     */
+    public boolean wasCached() {
+        return wasCached;
+    }
+
+    /**
+     * Returns the number of nodes of the supplied IQ.
+     *
+     * @param iq the IQ, possibly null
+     * @return the number of nodes, or -1 if the IQ is null
+     */
+    public static int countNodes(@Nullable IQ iq) {
+        return iq == null ? -1 : countNodes(iq.getTree());
+    }
+
+    private static int countNodes(IQTree tree) {
+        int count = 1;
+        for (IQTree child : tree.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    private static OptionalLong duration(OptionalLong from, OptionalLong to) {
+        return from.isPresent() && to.isPresent() ? OptionalLong.of(to.getAsLong() - from.getAsLong()) : OptionalLong.empty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("parse %s, rewriting %s, native query generation %s, total %s; IQ nodes %d/%d/%d%s",
+                format(parseNanos), format(rewritingNanos), format(nativeQueryGenerationNanos), format(totalNanos),
+                vkgQueryIQSize, reformulatedQueryIQSize, nativeQueryIQSize, wasCached ? " (cached)" : "");
+    }
+
+    static String format(OptionalLong nanos) {
+        return nanos.isPresent() ? format(nanos.getAsLong()) : "n/a";
+    }
+
+    static String format(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+
+}
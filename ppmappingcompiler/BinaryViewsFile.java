@@ -0,0 +1,89 @@
+package ppmappingcompiler;
+
+import ppmappingcompiler.fol.CompactAtom;
+import ppmappingcompiler.fol.OntologyPredicateAtom;
+import ppmappingcompiler.fol.SymbolTable;
+import ppmappingcompiler.util.BinaryContainer;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static ppmappingcompiler.util.BinaryContainer.readVarInt;
+import static ppmappingcompiler.util.BinaryContainer.writeVarInt;
+
+/**
+ * This class reads and writes the compiled views (i.e., the SPARQL query of each censored predicate) as a
+ * {@link BinaryContainer binary container}, as an alternative to {@code predicatetosparql.json}.<br>
+ * Each record is the {@link CompactAtom compact atom} defined by the view followed by the UTF-8 text of its query,
+ * and is indexed by the identifier of the atom's predicate.
+ */
+public final class BinaryViewsFile {
+
+    private static final int KIND = 2;
+
+    private BinaryViewsFile() {
+    }
+
+    public static void write(@Nonnull Map<OntologyPredicateAtom, String> viewsByAtom, @Nonnull OutputStream outputStream) throws IOException {
+        SymbolTable symbols = new SymbolTable();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try (BinaryContainer.Writer container = new BinaryContainer.Writer(outputStream, KIND, symbols)) {
+            for (Map.Entry<OntologyPredicateAtom, String> entry : viewsByAtom.entrySet()) {
+                CompactAtom atom = CompactAtom.of(entry.getKey(), symbols);
+                byte[] query = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                record.reset();
+                atom.writeTo(record);
+                writeVarInt(record, query.length);
+                record.write(query);
+                container.add(record.toByteArray(), atom.getPredicate());
+            }
+        }
+    }
+
+    /**
+     * @return The views, in the same order as in the file.
+     */
+    public static Map<OntologyPredicateAtom, String> load(@Nonnull Path path) throws IOException {
+        BinaryContainer.Reader reader = open(path);
+        Map<OntologyPredicateAtom, String> viewsByAtom = new LinkedHashMap<>();
+        for (int i = 0; i < reader.size(); i++) readView(reader.getRecord(i), reader.getSymbols(), viewsByAtom);
+        return viewsByAtom;
+    }
+
+    /**
+     * @return The views of the given predicate.
+     */
+    public static Map<OntologyPredicateAtom, String> load(@Nonnull Path path, @Nonnull String predicateIRI) throws IOException {
+        BinaryContainer.Reader reader = open(path);
+        Map<OntologyPredicateAtom, String> viewsByAtom = new LinkedHashMap<>();
+        int predicate = reader.getSymbols().lookup(predicateIRI);
+        if (predicate < 0) return viewsByAtom;
+        for (int i : reader.getRecordsByKey(predicate)) readView(reader.getRecord(i), reader.getSymbols(), viewsByAtom);
+        return viewsByAtom;
+    }
+
+    /*===================*
+     * AUXILIARY METHODS *
+     *===================*/
+
+    private static BinaryContainer.Reader open(Path path) throws IOException {
+        BinaryContainer.Reader reader = BinaryContainer.Reader.open(path);
+        if (reader.getKind() != KIND) throw new IOException("Not a binary views file: " + path);
+        return reader;
+    }
+
+    private static void readView(ByteBuffer record, SymbolTable symbols, Map<OntologyPredicateAtom, String> viewsByAtom) {
+        OntologyPredicateAtom atom = CompactAtom.readFrom(record).toAtom(symbols);
+        byte[] query = new byte[readVarInt(record)];
+        record.get(query);
+        viewsByAtom.put(atom, new String(query, StandardCharsets.UTF_8));
+    }
+
+}
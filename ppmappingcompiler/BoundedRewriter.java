@@ -0,0 +1,170 @@
+package ppmappingcompiler;
+
+import ppmappingcompiler.fol.*;
+import ppmappingcompiler.fol.FormulaContainer.RecursionMethod;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * This class puts a budget on the prioritized rewriting of each atom.<br>
+ * The size of a rewriting grows combinatorially with {@code k} and with the number of denials touching the atom,
+ * hence a single atom may stall the whole compilation. For each atom:
+ * <ul>
+ *  <li> if its predicate does not occur in any denial, the atom is never involved in a violation and
+ *       its rewriting is the atom itself, without running the rewriter;
+ *  <li> otherwise, the rewriter runs within the given time budget, and the contradictory disjuncts are
+ *       removed from its result (the rewriter is a black box: neither its sub-rewritings are memoised nor its
+ *       contradictory branches are pruned during the search);
+ *  <li> if the time budget is exceeded or the rewriting has more disjuncts than allowed, the conservative
+ *       view {@link False} (i.e., the predicate is never disclosed) is used instead.
+ * </ul>
+ * A budget equal to zero means no limit.<br>
+ * A rewriting exceeding the time budget is interrupted, but the rewriter may ignore the interruption and keep running:
+ * since rewriters are not thread-safe, the abandoned one is never used again and a fresh one is obtained from the
+ * factory for the following atoms. At most {@value #MAX_ABANDONED_REWRITINGS} abandoned rewritings may be running at
+ * the same time: beyond that, the following atoms get the conservative view without running the rewriter, so that
+ * abandoned rewritings cannot take over the CPU. Methods are NOT thread-safe.
+ */
+public class BoundedRewriter implements AutoCloseable {
+
+    public static final int MAX_ABANDONED_REWRITINGS = 2;
+
+    /**
+     * A rewriting algorithm, e.g. {@code PrioritizedRewriter::rewrite}.
+     */
+    @FunctionalInterface
+    public interface Rewriting {
+        Formula rewrite(OntologyPredicateAtom atom, int k) throws Exception;
+    }
+
+    private final Supplier<Rewriting> rewriterFactory;
+    private Rewriting rewriting;
+    private final Set<String> constrainedPredicates = new HashSet<>();
+    private final int maxDisjuncts;
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    private final AtomicInteger runningRewritings = new AtomicInteger();  // including the abandoned ones
+    private final List<OntologyPredicateAtom> fallbacks = new ArrayList<>();
+
+    /**
+     * @param rewriterFactory A factory of instances of the rewriting algorithm
+     *                        (e.g. {@code () -> new PrioritizedRewriter(...)::rewrite}).
+     * @param policy          The (refined) denials the rewriting algorithm works on.
+     * @param maxDisjuncts    The maximum number of disjuncts of a rewriting.
+     * @param timeoutMillis   The maximum time (in milliseconds) spent rewriting a single atom.
+     */
+    public BoundedRewriter(@Nonnull Supplier<Rewriting> rewriterFactory, @Nonnull Collection<? extends Formula> policy,
+                           int maxDisjuncts, long timeoutMillis) {
+        this.rewriterFactory = rewriterFactory;
+        this.rewriting = rewriterFactory.get();
+        this.maxDisjuncts = maxDisjuncts;
+        this.timeoutMillis = timeoutMillis;
+        for (Formula denial : policy) {
+            if (denial instanceof PredicateAtom) {
+                constrainedPredicates.add(((PredicateAtom) denial).getPredicateIdentifier());
+            } else if (denial instanceof FormulaContainer) {
+                ((FormulaContainer) denial).apply(f -> {
+                    if (f instanceof PredicateAtom) constrainedPredicates.add(((PredicateAtom) f).getPredicateIdentifier());
+                }, RecursionMethod.DFS);
+            }
+        }
+        // the rewriter may ignore interruptions: daemon threads do not prevent the JVM from exiting
+        this.executor = timeoutMillis > 0
+                ? Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "bounded-rewriter");
+                    t.setDaemon(true);
+                    return t;
+                })
+                : null;
+    }
+
+    public Formula rewrite(OntologyPredicateAtom atom, int k) throws Exception {
+        if (!constrainedPredicates.contains(atom.getPredicateIdentifier())) return atom.clone();
+
+        Formula result;
+        if (executor == null) {
+            result = rewriting.rewrite(atom, k);
+        } else {
+            // no rewriting is running here, hence the running ones have all been abandoned
+            int abandoned = runningRewritings.get();
+            if (abandoned >= MAX_ABANDONED_REWRITINGS) {
+                return fallback(atom, String.format("%d timed-out rewritings are still running", abandoned));
+            }
+
+            // the task may outlive this call, hence it must not share anything with the caller
+            Rewriting current = rewriting;
+            OntologyPredicateAtom input = atom.clone();
+            runningRewritings.incrementAndGet();
+            Future<Formula> future = executor.submit(() -> {
+                try {
+                    return current.rewrite(input, k);
+                } finally {
+                    // before the result is set, hence the counter is up to date when the caller gets it
+                    runningRewritings.decrementAndGet();
+                }
+            });
+            try {
+                result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                rewriting = rewriterFactory.get();
+                return fallback(atom, String.format("rewriting took more than %d ms", timeoutMillis));
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        result = removeContradictoryDisjuncts(result);
+        int disjuncts = countDisjuncts(result);
+        if (maxDisjuncts > 0 && disjuncts > maxDisjuncts) {
+            return fallback(atom, String.format("rewriting has %d disjuncts (max %d)", disjuncts, maxDisjuncts));
+        }
+        return result;
+    }
+
+    /**
+     * @return The atoms whose rewriting exceeded the budget, in the order they have been rewritten.
+     */
+    public List<OntologyPredicateAtom> getFallbacks() {
+        return Collections.unmodifiableList(fallbacks);
+    }
+
+    /**
+     * This method interrupts the rewritings still running (if any) and releases the threads.
+     */
+    @Override
+    public void close() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /*===================*
+     * AUXILIARY METHODS *
+     *===================*/
+
+    private Formula fallback(OntologyPredicateAtom atom, String reason) {
+        Logger.warn(String.format("Using a conservative view for %s: %s", atom, reason));
+        fallbacks.add(atom);
+        return False.getInstance();
+    }
+
+    private static Formula removeContradictoryDisjuncts(Formula formula) {
+        if (!(formula instanceof Disjunction)) return formula;
+        List<Formula> disjuncts = new ArrayList<>();
+        ((Disjunction) formula).forEach(f -> {
+            if (!f.isContradiction()) disjuncts.add(f);
+        });
+        return disjuncts.isEmpty() ? False.getInstance() : new Disjunction(disjuncts);
+    }
+
+    private static int countDisjuncts(Formula formula) {
+        if (!(formula instanceof Disjunction)) return 1;
+        int[] count = {0};
+        ((Disjunction) formula).forEach(f -> count[0]++);
+        return count[0];
+    }
+
+}
@@ -22,6 +22,7 @@ public class Configuration {
     // only for OBDA mappings
     public String ontologyFilename;
     public String generatedMappingsFilename;
+    public String sparqlViewsFilename = "predicatetosparql.json";     // binary if ending with ".bin"
 
     // only for SQL views
     public String tablesFilename;
@@ -32,10 +33,13 @@ public class Configuration {
     public String priorityFilename;
     public int kValue = 1;
     public boolean transitivePriority = false;
+    public int maxRewritingDisjuncts = 0;       // 0 means no limit
+    public long rewritingTimeoutMillis = 0;     // 0 means no limit
 
     // other flags
     public boolean numberRestrictionsCheck = false;
     public boolean comparisonAtomsCheck = false;
+    public boolean simplifySparql = true;
 
     public String dbUser;
     public String dbPassword;
@@ -83,6 +87,7 @@ public class Configuration {
         policyFilename = ioPrefs.get("policyFilename", null);
         refinedPolicyFilename = ioPrefs.get("refinedPolicyFilename", null);
         generatedMappingsFilename = ioPrefs.get("generatedMappingsFilename", null);
+        sparqlViewsFilename = ioPrefs.get("sparqlViewsFilename", sparqlViewsFilename);
         generatedViewsFilename = ioPrefs.get("generatedViewsFilename", null);
         tablesFilename = ioPrefs.get("tablesFilename", null);
         fkFilename = ioPrefs.get("fkFilename", null);
@@ -100,10 +105,13 @@ public class Configuration {
         priorityFilename = priorityPrefs.get("priorityFilename", null);
         kValue = Integer.parseInt(priorityPrefs.get("kValue", "" + kValue));
         transitivePriority = getBooleanPreference(priorityPrefs, "transitivePriority", transitivePriority);
+        maxRewritingDisjuncts = Integer.parseInt(priorityPrefs.get("maxRewritingDisjuncts", "" + maxRewritingDisjuncts));
+        rewritingTimeoutMillis = Long.parseLong(priorityPrefs.get("rewritingTimeoutMillis", "" + rewritingTimeoutMillis));
 
         Preferences flagsPrefs = prefs.node("flags");        // header [flags]
         numberRestrictionsCheck = getBooleanPreference(flagsPrefs, "numberRestrictionsCheck", numberRestrictionsCheck);
         comparisonAtomsCheck = getBooleanPreference(flagsPrefs, "comparisonAtomsCheck", comparisonAtomsCheck);
+        simplifySparql = getBooleanPreference(flagsPrefs, "simplifySparql", simplifySparql);
 
         Preferences namingPrefs = prefs.node("naming");        // header [naming]
         viewSuffix = namingPrefs.get("viewSuffix", viewSuffix);
@@ -126,6 +134,7 @@ public class Configuration {
         policyFilename = Paths.get(policyFile).toAbsolutePath().toString();
         refinedPolicyFilename = IOUtils.addSuffixToFilePath(policyFilename, "_refined");
         generatedMappingsFilename = null;
+        sparqlViewsFilename = "predicatetosparql.json";
         generatedViewsFilename = null;
         tablesFilename = null;
         fkFilename = null;
@@ -135,9 +144,12 @@ public class Configuration {
         priorityFilename = null;
         kValue = 1;
         transitivePriority = false;
+        maxRewritingDisjuncts = 0;
+        rewritingTimeoutMillis = 0;
 
         numberRestrictionsCheck = false;
         comparisonAtomsCheck = false;
+        simplifySparql = true;
 
         viewSuffix = "";
         columnNamePrefix = "obj";
@@ -24,14 +24,15 @@ public class Logger {
     private static final String ANSI_YELLOW = "\u001B[33m";
     private static final String ANSI_BLUE = "\u001B[34m";
 
-    private static String logFilePath = null;
+    // logging may happen on several threads: lines are written atomically (see log)
+    private static volatile String logFilePath = null;
     private static boolean emptyLog = true;
-    private static int logLevel = DEBUG;
+    private static volatile int logLevel = DEBUG;
 
     /*
      * in outputPath directory will eventually be created a new subdirectory "logs" where all log files will be put in
      */
-    public static void setLogPath(String outputPath) {
+    public static synchronized void setLogPath(String outputPath) {
         // if outputPath exists, create "logs" directory inside it
         File outDirectory = new File(outputPath);
         if (outDirectory.exists() && outDirectory.isDirectory()) {
@@ -96,7 +97,7 @@ public class Logger {
         log(s, indentNum, "ERROR", ANSI_RED, ERROR);
     }
 
-    private static void log(Object s, int indentNum, String logType, String color, int logLevel) {
+    private static synchronized void log(Object s, int indentNum, String logType, String color, int logLevel) {
         if (logLevel < Logger.logLevel) return;
 
         StringBuilder line = new StringBuilder();
@@ -11,21 +11,20 @@ import org.semanticweb.owlapi.model.OWLOntology;
 import ppmappingcompiler.fol.*;
 import ppmappingcompiler.fol.PredicateAtom.PredicateArityException;
 import ppmappingcompiler.fol.Term.TermTypeException;
-import ppmappingcompiler.parser.BCQParser;
-import ppmappingcompiler.parser.DatalogBCQParser;
-import ppmappingcompiler.parser.ParserException;
 import ppmappingcompiler.policy.ConjunctiveQuery;
 import ppmappingcompiler.policy.OntologyConjunctiveQuery;
+import ppmappingcompiler.policy.PolicyLoader;
+import ppmappingcompiler.policy.RedundancyConditions;
+import ppmappingcompiler.util.BinaryContainer;
 import ppmappingcompiler.util.IOUtils;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.stream.Collectors;
 
 import static ppmappingcompiler.fol.Formula.LC_LATIN_ALPHABET;
-import static ppmappingcompiler.util.IOUtils.loadJsonArrayAsStringList;
 import static ppmappingcompiler.util.OntologyUtils.*;
 import static ppmappingcompiler.util.Utils.formatTemplate;
 
@@ -103,6 +102,29 @@ public class PPOBDAMappingCompiler extends CensoredViewCompiler {
         Set<OntologyConjunctiveQuery> policySet = loadPolicyFromJson(prependInputPath(config.policyFilename), ontology);
         Logger.drawLine();
 
+        Map<OntologyPredicateAtom, String> viewsByAtom = compileViews(ontology, policySet);
+        String outputFilename = config.sparqlViewsFilename;
+        if (BinaryContainer.isBinaryFile(outputFilename)) {
+            try (OutputStream out = IOUtils.newOutputStream(outputFilename)) {
+                BinaryViewsFile.write(viewsByAtom, out);
+            }
+            System.out.println("Successfully wrote SPARQL queries to " + outputFilename);
+        } else {
+            writeMapToJsonFile(viewsByAtom, outputFilename);
+        }
+
+        // [FC] Log generated views
+        Logger.info("Resulting views:\n\n" + Joiner.on("\n\n").withKeyValueSeparator("\n").join(viewsByAtom) + "\n");
+    }
+
+    /**
+     * This method compiles the (expanded) policy into a censored view for each predicate of the ontology.
+     * The ontology and the policy are passed by the caller, hence they can be loaded once and reused by several
+     * compilations (e.g., by a long-running process).
+     *
+     * @return The SPARQL query of each view. Predicates that are never disclosed have no view.
+     */
+    public Map<OntologyPredicateAtom, String> compileViews(OWLOntology ontology, Set<OntologyConjunctiveQuery> policySet) throws Exception {
         PriorityManager pm = new PriorityManager(ontology, config.transitivePriority);
         if (config.priorityFilename != null) {
             Logger.info("Reading priority relation");
@@ -112,6 +134,10 @@ public class PPOBDAMappingCompiler extends CensoredViewCompiler {
 
         Logger.info("Finding redundancy conditions");
         Map<OntologyConjunctiveQuery, Set<FlatConjunction>> policyToRedundancyConditions = PolicyRefine.getRedundancyConditions(policySet);
+        int redundancyConditionsCount = RedundancyConditions.count(policyToRedundancyConditions);
+        policyToRedundancyConditions = RedundancyConditions.prune(policyToRedundancyConditions);
+        Logger.info(String.format("Pruned %d of %d redundancy conditions implied by other ones",
+                redundancyConditionsCount - RedundancyConditions.count(policyToRedundancyConditions), redundancyConditionsCount));
         serializeRefinedQueries(policyToRedundancyConditions, prependInputPath(config.refinedPolicyFilename));
 
         // building FO formulas from CQ + RC
@@ -125,10 +151,21 @@ public class PPOBDAMappingCompiler extends CensoredViewCompiler {
         Logger.drawLine();
 
         Logger.info("Encoding the policy into a 1-to-1 predicate mapping");
-        PrioritizedRewriter pr = new PrioritizedRewriter(refinedPolicySet, pm, LC_LATIN_ALPHABET);
-        Map<OntologyPredicateAtom, Formula> mappings = new HashMap<>(); // [FC] this map contains the redefined concepts
-        for (OntologyPredicateAtom atom : getAtomsToRewrite(ontology, config.columnAliasPrefix)) {
-            mappings.put(atom, pr.rewrite(atom, config.kValue));
+        // [FC] this map contains the redefined concepts, sorted so that the output does not depend on hashing
+        // (by IRI rather than by name, since predicates of different namespaces may share their local name)
+        List<OntologyPredicateAtom> atomsToRewrite = new ArrayList<>(getAtomsToRewrite(ontology, config.columnAliasPrefix));
+        atomsToRewrite.sort(Comparator.comparing(OntologyPredicateAtom::getPredicateIRI)
+                .thenComparingInt(OntologyPredicateAtom::getArity)
+                .thenComparing(atom -> atom.getType()));    // getType is overloaded
+        Map<OntologyPredicateAtom, Formula> mappings = new LinkedHashMap<>();
+        try (BoundedRewriter br = new BoundedRewriter(() -> new PrioritizedRewriter(refinedPolicySet, pm, LC_LATIN_ALPHABET)::rewrite,
+                refinedPolicySet, config.maxRewritingDisjuncts, config.rewritingTimeoutMillis)) {
+            for (OntologyPredicateAtom atom : atomsToRewrite) {
+                mappings.put(atom, br.rewrite(atom, config.kValue));
+            }
+            if (!br.getFallbacks().isEmpty()) {
+                Logger.warn(String.format("%d atoms exceeded the rewriting budget: %s", br.getFallbacks().size(), br.getFallbacks()));
+            }
         }
 
         // [FC] Anticipating optimization of formulae (is done after anyway) and logging of generated predicate mappings
@@ -171,52 +208,84 @@ public class PPOBDAMappingCompiler extends CensoredViewCompiler {
         //     }
         //     schema.addTable(new Table(atom.getPredicateName(), columnNames));
         // }
-        // Map<OntologyPredicateAtom, String> viewsByAtom = getCensoredViews(mappings, schema); // original code that works
+        // DBStatistics statistics = config.tablesFilename == null
+        //         ? DBStatistics.empty()
+        //         : DBStatistics.loadFromJson(prependInputPath(config.tablesFilename));
+        // Map<OntologyPredicateAtom, String> viewsByAtom = getCensoredViews(mappings, new SQLCompiler(schema, statistics));
 
         // [FC] Here we convert the concepts redefinitions (map entries) into SPARQL SELECT queries
-        Map<OntologyPredicateAtom, String> viewsByAtom = getCensoredViews(mappings);
-        String outputJsonFilename = "predicatetosparql.json";
-        writeMapToJsonFile(viewsByAtom, outputJsonFilename);
-
-        // [FC] Log generated views
-        Logger.info("Resulting views:\n\n" + Joiner.on("\n\n").withKeyValueSeparator("\n").join(viewsByAtom) + "\n");
+        return getCensoredViews(mappings, config.simplifySparql);
     }
 
-    private static <L extends PredicateAtom> Map<L, String> getCensoredViews(Map<L, Formula> mappings){
-        Map<L, String> predicateToQuery = new HashMap<>();
+    /**
+     * This method compiles each view into a SPARQL query.<br>
+     * Views that are identical up to the renaming of their variables and to the substitution of the predicate
+     * they define share the same {@link CanonicalForm canonical form}: only one of them is compiled, while the
+     * others are obtained from it by renaming predicate IRIs and variables in the resulting query.
+     */
+    private static Map<OntologyPredicateAtom, String> getCensoredViews(Map<OntologyPredicateAtom, Formula> mappings, boolean simplifySparql) {
+        Map<OntologyPredicateAtom, String> predicateToQuery = new LinkedHashMap<>();    // same order as the mappings
+        Map<CanonicalForm, OntologyPredicateAtom> representatives = new HashMap<>();
+        Map<OntologyPredicateAtom, CanonicalForm> canonicalForms = new HashMap<>();
         int numMappings = mappings.size();
         Logger.info("Number of views to generate:" + numMappings);
         int mappingCounter = 0;
         SparqlCompiler compiler = new SparqlCompiler();
-        for (L atom : mappings.keySet()) {
+        for (OntologyPredicateAtom atom : mappings.keySet()) {
             Logger.info(String.format("View #%d (of %d): %s", ++mappingCounter, numMappings, atom));
             Formula f = mappings.get(atom);
             f.optimize();
-            predicateToQuery.put(atom, compiler.convertToSPARQL(f));
+            if (f.isContradiction()) {
+                // no view at all: the predicate is never disclosed
+                Logger.info("Skipping view never disclosing any fact");
+                continue;
+            }
+            CanonicalForm canonicalForm = CanonicalForm.of(f, Collections.singletonMap(atom.getPredicateIRI(), HEAD_PREDICATE_PLACEHOLDER));
+            canonicalForms.put(atom, canonicalForm);
+            OntologyPredicateAtom representative = representatives.putIfAbsent(canonicalForm, atom);
+            if (representative == null) {
+                predicateToQuery.put(atom, compiler.convertToSPARQL(f, simplifySparql));
+            } else {
+                predicateToQuery.put(atom, instantiateView(predicateToQuery.get(representative),
+                        representative, canonicalForms.get(representative), atom, canonicalForm));
+            }
         }
+        Logger.info(String.format("Compiled %d distinct view shapes for %d views", representatives.size(), numMappings));
         return predicateToQuery;
     }
 
+    private static final String HEAD_PREDICATE_PLACEHOLDER = "<$head>";
+
+    /**
+     * This method adapts the SPARQL query compiled for a view to another view having the same canonical form.
+     */
+    private static String instantiateView(String sparql,
+                                          OntologyPredicateAtom from, CanonicalForm fromForm,
+                                          OntologyPredicateAtom to, CanonicalForm toForm) {
+        Map<String, String> canonicalToTarget = new HashMap<>();
+        toForm.getRenaming().forEach((name, canonical) -> canonicalToTarget.put(canonical, name));
+        Map<String, String> renaming = new HashMap<>();
+        fromForm.getRenaming().forEach((name, canonical) -> renaming.put(name, canonicalToTarget.get(canonical)));
+
+        String query = sparql.replace("<" + from.getPredicateIRI() + ">", "<" + to.getPredicateIRI() + ">");
+        return SparqlCompiler.renameVariables(query, renaming);
+    }
+
     /*=====================*
      *  LOADING FUNCTIONS  *
      *=====================*/
 
     /**
-     * This method reads the policy from a JSON file.
+     * This method reads the policy from a JSON file.<br>
+     * Factorised rules are multiplied out (see {@link PolicyLoader#load(String)}): the refinement and the prioritized
+     * rewriting only work on CQs.
      *
      * @param policyFilePath The JSON file where the policy is stored.
      * @return A {@link List list} of {@link ConjunctiveQuery CQs}.
      */
-    Set<OntologyConjunctiveQuery> loadPolicyFromJson(String policyFilePath, OWLOntology ontology) throws IOException, ParserException, TermTypeException, OntologyConjunctiveQuery.UnsafePolicyException {
-        BCQParser policyParser = new DatalogBCQParser(ontology);
-        Set<OntologyConjunctiveQuery> policySet = new HashSet<>();
-        for (String s : loadJsonArrayAsStringList(policyFilePath)) {
-            OntologyConjunctiveQuery q = policyParser.OntologyConjunctiveQuery(DatalogBCQParser.toBCQ(s));
-            if (config.numberRestrictionsCheck) q.numberRestrictionsSafetyCheck();
-            if (config.comparisonAtomsCheck) q.comparisonAtomsSafetyCheck();
-            policySet.add(q);
-        }
-        return policySet;
+    Set<OntologyConjunctiveQuery> loadPolicyFromJson(String policyFilePath, OWLOntology ontology) throws IOException, PolicyLoader.InvalidPolicyException {
+        PolicyLoader loader = new PolicyLoader(ontology, config.numberRestrictionsCheck, config.comparisonAtomsCheck);
+        return new HashSet<>(loader.load(policyFilePath));
     }
 
     /*=====================*
@@ -272,7 +341,9 @@ public class PPOBDAMappingCompiler extends CensoredViewCompiler {
         // Create a JSON object to store the array
         ObjectNode jsonOutput = objectMapper.getNodeFactory().objectNode();
         jsonOutput.put("queries", jsonArray);
-        objectMapper.writer(prettyPrinter).writeValue(new File(outputJsonFilename), jsonOutput);
+        try (OutputStream out = IOUtils.newOutputStream(outputJsonFilename)) {
+            objectMapper.writer(prettyPrinter).writeValue(out, jsonOutput);
+        }
         System.out.println("Successfully wrote SPARQL queries to " + outputJsonFilename);
 
     }
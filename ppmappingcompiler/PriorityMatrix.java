@@ -0,0 +1,175 @@
+package ppmappingcompiler;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A priority relation between the rules of a policy, identified by their (0-based) position.<br>
+ * The relation is stored as a dense bit matrix: row {@code i} is the set of rules {@code i} is preferred to,
+ * packed into {@code long} words. Hence {@link #isPreferred(int, int)} is a constant-time lookup, and the
+ * {@link #closeTransitively() transitive closure} is computed with Warshall's algorithm on whole words,
+ * i.e. 64 pairs at a time.<br>
+ * The matrix can be {@link #writeTo(OutputStream) serialized} in a compact binary form, e.g. for caching it
+ * alongside the compiled policy.
+ */
+public class PriorityMatrix {
+
+    private static final int MAGIC = 0x50505249;    // "PPRI"
+    private static final int VERSION = 1;
+    private static final int MAX_WORDS = Integer.MAX_VALUE - 8;   // the largest array most JVMs can allocate
+
+    private final int size;
+    private final int words;    // words per row
+    private final long[] bits;
+
+    /**
+     * Creates an empty priority relation.
+     *
+     * @param size The number of rules.
+     * @throws IllegalArgumentException If the size is negative or the matrix would not fit in an array.
+     */
+    public PriorityMatrix(int size) {
+        if (size < 0) throw new IllegalArgumentException("Negative size: " + size);
+        long length = length(size);
+        if (length > MAX_WORDS) throw new IllegalArgumentException("Too many rules for a priority matrix: " + size);
+        this.size = size;
+        this.words = wordsPerRow(size);
+        this.bits = new long[(int) length];
+    }
+
+    private PriorityMatrix(int size, long[] bits) {
+        this.size = size;
+        this.words = wordsPerRow(size);
+        this.bits = bits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This method states that the rule {@code preferred} has priority over the rule {@code other}.
+     */
+    public void setPreferred(int preferred, int other) {
+        checkIndex(preferred);
+        checkIndex(other);
+        bits[preferred * words + (other >>> 6)] |= 1L << other;
+    }
+
+    /**
+     * @return {@code true} if the rule {@code preferred} has priority over the rule {@code other}.
+     */
+    public boolean isPreferred(int preferred, int other) {
+        checkIndex(preferred);
+        checkIndex(other);
+        return (bits[preferred * words + (other >>> 6)] & 1L << other) != 0;
+    }
+
+    /**
+     * This method closes the relation under transitivity (Warshall's algorithm): for each rule {@code k},
+     * every rule preferred to {@code k} becomes preferred to all the rules {@code k} is preferred to.
+     */
+    public void closeTransitively() {
+        for (int k = 0; k < size; k++) {
+            int kWord = k >>> 6;
+            long kBit = 1L << k;
+            int kRow = k * words;
+            for (int i = 0; i < size; i++) {
+                int iRow = i * words;
+                if ((bits[iRow + kWord] & kBit) == 0) continue;
+                for (int w = 0; w < words; w++) {
+                    bits[iRow + w] |= bits[kRow + w];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if some rule is (transitively) preferred to itself.
+     * The check is only meaningful after {@link #closeTransitively()}.
+     */
+    public boolean hasCycle() {
+        for (int i = 0; i < size; i++) {
+            if (isPreferred(i, i)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of pairs in the relation.
+     */
+    public int count() {
+        int count = 0;
+        for (long word : bits) count += Long.bitCount(word);
+        return count;
+    }
+
+    /*===============*
+     * SERIALIZATION *
+     *===============*/
+
+    public void writeTo(@Nonnull OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        for (long word : bits) out.writeLong(word);
+        out.flush();
+    }
+
+    public static PriorityMatrix readFrom(@Nonnull InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != MAGIC) throw new IOException("Not a priority matrix");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported priority matrix version: " + version);
+        int size = in.readInt();
+        if (size < 0 || length(size) > MAX_WORDS) throw new IOException("Invalid priority matrix size: " + size);
+        int length = (int) length(size);
+        // the array grows while reading, so that a corrupted size fails on EOF rather than with a huge allocation
+        long[] bits = new long[Math.min(length, 1 << 16)];
+        for (int i = 0; i < length; i++) {
+            if (i == bits.length) bits = Arrays.copyOf(bits, (int) Math.min(length, 2L * i));
+            bits[i] = in.readLong();
+        }
+        // the bits beyond the last column of each row must be clear
+        int words = wordsPerRow(size);
+        long padding = size % Long.SIZE == 0 ? 0 : -1L << size;
+        for (int row = 0; row < size; row++) {
+            if ((bits[row * words + words - 1] & padding) != 0) {
+                throw new IOException("Invalid priority matrix: row " + row + " has columns beyond " + size);
+            }
+        }
+        return new PriorityMatrix(size, bits);
+    }
+
+    /*===================*
+     * AUXILIARY METHODS *
+     *===================*/
+
+    private static int wordsPerRow(int size) {
+        return (int) ((size + (long) Long.SIZE - 1) / Long.SIZE);
+    }
+
+    private static long length(int size) {
+        return (long) size * wordsPerRow(size);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Rule index: " + index + ", size: " + size);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof PriorityMatrix)) return false;
+        PriorityMatrix m = (PriorityMatrix) obj;
+        return size == m.size && Arrays.equals(bits, m.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(bits);
+    }
+
+}
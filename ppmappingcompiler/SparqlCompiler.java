@@ -1,12 +1,12 @@
 package ppmappingcompiler;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import ppmappingcompiler.fol.*;
-import javax.annotation.Nonnull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This class allows to get a Sparql query that is equivalent to a FO formula represented by an instance of {@link Formula}.
@@ -16,162 +16,390 @@ import java.util.stream.Collectors;
  *     <li><i>Requested variable</i>: variable that must appear in the SELECT statement of a formula.
  *     <li><i>Shared variable</i>: variable occurring in more than one member of a conjunction.
  * </ul>
+ * <p>
+ * The compilation is performed in two passes:
+ * <ol>
+ *     <li> the variables projected out by each subformula are computed bottom-up;
+ *     <li> the SPARQL text is written top-down into an {@link Appendable}.
+ * </ol>
+ * In this way, the text of a subformula is written exactly once, instead of being copied once per ancestor.<br>
+ * Before being written, the query can be simplified (see {@link #convertToSPARQL(Formula, Appendable, boolean)}).
  */
 
 public class SparqlCompiler {
 
     public static String convertToSPARQL(Formula formula) {
-        SparqlRewriting rewriting = convertFormulaToSPARQL(formula);
+        return convertToSPARQL(formula, true);
+    }
 
-        String varList = rewriting.variables.stream()
-                .map(v -> "?" + v)
-                .collect(Collectors.joining(" "));
+    /**
+     * See {@link #convertToSPARQL(Formula, Appendable, boolean)}.
+     */
+    public static String convertToSPARQL(Formula formula, boolean simplify) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            convertToSPARQL(formula, sb, simplify);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // this should never happen with a StringBuilder
+        }
+        return sb.toString();
+    }
 
-        return "SELECT DISTINCT " + varList + " {\n" + rewriting.string + "\n}";
+    public static void convertToSPARQL(Formula formula, Appendable out) throws IOException {
+        convertToSPARQL(formula, out, true);
+    }
 
+    /**
+     * This method writes the SPARQL query corresponding to a formula into the given {@link Appendable}.<br>
+     * If required, the query is simplified before being written, by:
+     * <ul>
+     *     <li> merging the existential subformulas of a conjunction that share some free variable and that
+     *          cannot be inlined (e.g. {@code ∃y (R(x,y) AND T(y)) AND ∃z (S(x,z) AND T(z))} becomes
+     *          {@code ∃y,z (R(x,y) AND T(y) AND S(x,z) AND T(z))}, while {@code ∃y R(x,y) AND ∃z S(x,z)} is kept as it is);
+     *     <li> dropping the DISTINCT modifier of non-Boolean subqueries, since the outermost query already removes duplicates;
+     *     <li> inlining the non-Boolean subqueries made of a single triple, whose existential variables are
+     *          replaced by blank nodes (e.g. {@code { SELECT ?x { ?x <R> ?y . }}} becomes {@code ?x <R> [] .}).
+     * </ul>
+     * Boolean subqueries keep their DISTINCT modifier, which prevents them from multiplying the tuples they are joined with.
+     *
+     * @param formula  The formula to be expressed in SPARQL.
+     * @param out      The {@link Appendable} (e.g. a {@link StringBuilder} or a {@link java.io.Writer writer})
+     *                 the SPARQL text is written into.
+     * @param simplify {@code true} if the query must be simplified, {@code false} otherwise (default: {@code true}).
+     */
+    public static void convertToSPARQL(Formula formula, Appendable out, boolean simplify) throws IOException {
+        if (simplify) formula = mergeExistentials(formula.clone());
+
+        Map<Formula, Set<String>> projectedVariables = new IdentityHashMap<>();
+        Set<String> variables = computeProjectedVariables(formula, projectedVariables);
+
+        out.append("SELECT DISTINCT ");
+        appendVariables(variables, out);
+        out.append(" {\n");
+        new SparqlWriter(out, projectedVariables, simplify).write(formula);
+        out.append("\n}");
     }
 
-    private static SparqlRewriting convertFormulaToSPARQL(Formula formula) {
-        if (formula instanceof Conjunction) {
-            return convertConjunctionToSPARQL((Conjunction) formula);
-        } else if (formula instanceof Disjunction) {
-            return convertDisjunctionToSPARQL((Disjunction) formula);
-        } else if (formula instanceof Negation) {
-            return convertNegationToSPARQL((Negation) formula);
-        } else if (formula instanceof Exist) {
-            return convertExistToSparql((Exist) formula);
-        } else if (formula instanceof OntologyPredicateAtom) {
-            return convertPredicateAtomToSPARQL((OntologyPredicateAtom) formula);
+    // IRIs and string literals are matched as a whole, so that no variable is looked for inside them
+    private static final Pattern SPARQL_VARIABLE = Pattern.compile("<[^<>\\s]*>|\"(?:[^\"\\\\]|\\\\.)*\"|'(?:[^'\\\\]|\\\\.)*'|\\?(\\w+)");
+
+    /**
+     * This method renames the variables of a SPARQL query.<br>
+     * Occurrences of {@code ?name} inside IRIs (e.g. {@code <http://example.org/p?x=1>}) and string literals are left untouched.
+     *
+     * @param query    The SPARQL query.
+     * @param renaming A map from the old names of the variables (without the leading {@code ?}) to the new ones.
+     *                 Variables not occurring in the map keep their name.
+     * @return The SPARQL query with renamed variables.
+     */
+    public static String renameVariables(String query, Map<String, String> renaming) {
+        Matcher matcher = SPARQL_VARIABLE.matcher(query);
+        StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            String replacement = name == null ? matcher.group() : "?" + renaming.getOrDefault(name, name);
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
         }
-        throw new Error();
+        matcher.appendTail(sb);
+        return sb.toString();
     }
 
-    private static SparqlRewriting convertConjunctionToSPARQL(Conjunction conjunction) {
-        Set<Formula> subFormulas = conjunction.getFormulas();
+    /*================*
+     * SIMPLIFICATION *
+     *================*/
 
-        // Separate positive and negative subformulas
-        List<Formula> positiveFormulas = new ArrayList<>();
-        List<Formula> negativeFormulas = new ArrayList<>();
+    private static Formula mergeExistentials(Formula formula) {
+        if (formula instanceof FormulaContainer) {
+            ((FormulaContainer) formula).replace(SparqlCompiler::mergeExistentialsLocally, FormulaContainer.RecursionMethod.DFS);
+        }
+        return mergeExistentialsLocally(formula);
+    }
 
-        for (Formula subFormula : subFormulas) {
-            if (subFormula instanceof Negation) {
-                negativeFormulas.add(subFormula);
-            } else {
-                positiveFormulas.add(subFormula);
+    /**
+     * This method merges nested existential quantifiers, and the existential members of a conjunction
+     * sharing some free variable. Two existential formulas {@code ∃X A} and {@code ∃Y B} are merged
+     * into {@code ∃X∪Y (A AND B)} only if {@code X} and {@code Y} are disjoint, no variable of {@code X}
+     * is free in {@code B} and no variable of {@code Y} is free in {@code A}.<br>
+     * Existential formulas without shared variables are not merged, since this would introduce cross products,
+     * and neither are {@link #isInlineable(Exist) inlineable} ones, since they are written as plain triples anyway.
+     */
+    private static Formula mergeExistentialsLocally(Formula formula) {
+        if (formula instanceof Exist) {
+            Exist exist = (Exist) formula;
+            Formula content = content(exist);
+            if (content instanceof Exist) {
+                Set<String> outerVars = names(exist.getQuantifiedVariables());
+                if (Collections.disjoint(outerVars, names(((Exist) content).getQuantifiedVariables()))) {
+                    Set<Variable> quantifiedVars = exist.getQuantifiedVariables();
+                    quantifiedVars.addAll(((Exist) content).getQuantifiedVariables());
+                    return new Exist(content((Exist) content), quantifiedVars);
+                }
             }
+            return formula;
         }
-
-        // Convert positive subformulas to SPARQL
-        StringBuilder sparqlQuery = new StringBuilder();
-        Set<String> projectedVars = new HashSet<>();
-        boolean first = true;
-
-        for (Formula Formula : Iterables.concat(positiveFormulas, negativeFormulas)) {
-            SparqlRewriting positiveFormulaRewriting = convertFormulaToSPARQL(Formula);
-            sparqlQuery.append(first ? "" : "\n");
-            sparqlQuery.append(positiveFormulaRewriting.string);
-            first = false;
-            projectedVars.addAll(positiveFormulaRewriting.variables);
+        if (!(formula instanceof Conjunction)) return formula;
+
+        Conjunction conjunction = (Conjunction) formula;
+        List<Formula> subFormulas = children(conjunction);
+        List<ExistGroup> groups = new ArrayList<>();
+        Map<Formula, ExistGroup> groupByMember = new IdentityHashMap<>();
+        for (Formula sf : subFormulas) {
+            if (!(sf instanceof Exist) || isInlineable((Exist) sf)) continue;
+            Exist exist = (Exist) sf;
+            Set<String> free = names(exist.getFreeVariables());
+            Set<String> bound = names(exist.getQuantifiedVariables());
+            ExistGroup group = groups.stream()
+                    .filter(g -> g.canMerge(free, bound))
+                    .findFirst()
+                    .orElseGet(() -> {
+                        ExistGroup g = new ExistGroup();
+                        groups.add(g);
+                        return g;
+                    });
+            group.add(exist, free, bound);
+            groupByMember.put(exist, group);
         }
-
-        return new SparqlRewriting(sparqlQuery.toString(), projectedVars);
+        if (groups.size() == groupByMember.size()) return formula;   // nothing to merge
+
+        // each group replaces its first member
+        List<Formula> newSubFormulas = new ArrayList<>();
+        for (Formula sf : subFormulas) {
+            ExistGroup group = groupByMember.get(sf);
+            if (group == null) newSubFormulas.add(sf);
+            else if (group.members.get(0) == sf) newSubFormulas.add(group.merge());
+        }
+        conjunction.clear();
+        conjunction.addAll(newSubFormulas);
+        return conjunction;
     }
 
+    private static class ExistGroup {
+        private final List<Exist> members = new ArrayList<>();
+        private final Set<String> freeVars = new HashSet<>();
+        private final Set<String> boundVars = new HashSet<>();
 
-    private static SparqlRewriting convertDisjunctionToSPARQL(Disjunction disjunction) {
-        Set<Formula> subFormulas = disjunction.getFormulas();
-        StringBuilder sparqlQuery = new StringBuilder();
-        Set<String> projectedVars = new HashSet<>();
-        boolean first = true;
-
-        for (Formula subFormula : subFormulas) {
+        private boolean canMerge(Set<String> free, Set<String> bound) {
+            return !Collections.disjoint(free, freeVars)
+                    && Collections.disjoint(bound, freeVars)
+                    && Collections.disjoint(bound, boundVars)
+                    && Collections.disjoint(free, boundVars);
+        }
 
-            SparqlRewriting subFormulaRewriting = convertFormulaToSPARQL(subFormula);
-            sparqlQuery.append(first ? "" : " UNION ");
-            sparqlQuery.append("{ ").append(subFormulaRewriting.string).append(" }");
-            first = false;
-            projectedVars.addAll(subFormulaRewriting.variables);
+        private void add(Exist exist, Set<String> free, Set<String> bound) {
+            members.add(exist);
+            freeVars.addAll(free);
+            boundVars.addAll(bound);
         }
 
-        return new SparqlRewriting(sparqlQuery.toString(), projectedVars);
+        private Formula merge() {
+            if (members.size() == 1) return members.get(0);
+            Conjunction content = new Conjunction();
+            Set<Variable> quantifiedVars = new HashSet<>();
+            for (Exist e : members) {
+                content.add(content(e));
+                quantifiedVars.addAll(e.getQuantifiedVariables());
+            }
+            content.flatten(false);
+            return new Exist(content, quantifiedVars);
+        }
     }
 
-    private static SparqlRewriting convertNegationToSPARQL(Negation negation) {
-        Formula content = negation.getContent();
-        SparqlRewriting contentRewriting = convertFormulaToSPARQL(content);
-        String sparqlQuery = "MINUS { " + contentRewriting.string + " }";
-        Set<String> projectedVars = new HashSet<>(contentRewriting.variables);
-
-        return new SparqlRewriting(sparqlQuery, projectedVars);
+    /*============*
+     * FIRST PASS *
+     *============*/
+
+    /**
+     * This method computes, bottom-up, the names of the SPARQL variables projected out by each subformula.
+     * Subformulas are visited without being cloned, hence they are identified by reference.
+     *
+     * @param formula            The formula.
+     * @param projectedVariables The map (by identity) to be filled with the variables projected out by each subformula.
+     * @return The variables projected out by the input formula.
+     */
+    private static Set<String> computeProjectedVariables(Formula formula, Map<Formula, Set<String>> projectedVariables) {
+        Set<String> variables;
+        if (formula instanceof Conjunction || formula instanceof Disjunction) {
+            variables = new HashSet<>();
+            for (Formula sf : children((ManyFormulasContainer) formula)) {
+                variables.addAll(computeProjectedVariables(sf, projectedVariables));
+            }
+        } else if (formula instanceof Negation) {
+            // a MINUS pattern projects out the same variables of its content
+            variables = computeProjectedVariables(content((Negation) formula), projectedVariables);
+        } else if (formula instanceof Exist) {
+            variables = new HashSet<>(computeProjectedVariables(content((Exist) formula), projectedVariables));
+            for (Variable existentiallyQuantifiedVar : ((Exist) formula).getQuantifiedVariables()) {
+                variables.remove(existentiallyQuantifiedVar.getName()); // remove existentially quantified variables
+            }
+        } else if (formula instanceof OntologyPredicateAtom) {
+            List<Term> arguments = ((OntologyPredicateAtom) formula).getTerms();
+            if (arguments.size() != 1 && arguments.size() != 2) throw new Error();
+            variables = new HashSet<>(2);
+            for (Term t : arguments) variables.add(((Variable) t).getName());
+        } else throw new Error();
+
+        projectedVariables.put(formula, variables);
+        return variables;
     }
 
-    public static SparqlRewriting convertExistToSparql(Exist formula) {
+    /*=============*
+     * SECOND PASS *
+     *=============*/
 
-        SparqlRewriting contentRewriting = convertFormulaToSPARQL(formula.getContent());
-        Set<String> vars = new HashSet<>(contentRewriting.variables); // copy of all variable names produced by the child
+    private static final class SparqlWriter {
+        private final Appendable out;
+        private final Map<Formula, Set<String>> projectedVariables;
+        private final boolean simplify;
 
-        for (Variable existentiallyQuantifiedVar : formula.getQuantifiedVariables()) {
-            vars.remove(existentiallyQuantifiedVar.getName()); // remove existentially quantified variables
-        }
-        if (vars.isEmpty()){
-            String sparqlQuery = "{ SELECT DISTINCT (1 AS ?dummy) { " + contentRewriting.string + " }}";
-            return new SparqlRewriting(sparqlQuery, vars);
+        SparqlWriter(Appendable out, Map<Formula, Set<String>> projectedVariables, boolean simplify) {
+            this.out = out;
+            this.projectedVariables = projectedVariables;
+            this.simplify = simplify;
         }
 
-        String varList = vars.stream().map(v -> "?" + v).collect(Collectors.joining(" ")); // "?x ?y ?z"
-        String sparqlQuery = " { SELECT DISTINCT " + varList + " { " + contentRewriting.string + " }}";
-
-        return new SparqlRewriting(sparqlQuery, vars);
-    }
-
+        private void write(Formula formula) throws IOException {
+            if (formula instanceof Conjunction) {
+                writeConjunction((Conjunction) formula);
+            } else if (formula instanceof Disjunction) {
+                writeDisjunction((Disjunction) formula);
+            } else if (formula instanceof Negation) {
+                writeNegation((Negation) formula);
+            } else if (formula instanceof Exist) {
+                writeExist((Exist) formula);
+            } else if (formula instanceof OntologyPredicateAtom) {
+                writePredicateAtom((OntologyPredicateAtom) formula);
+            } else throw new Error();
+        }
 
+        private void writeConjunction(Conjunction conjunction) throws IOException {
+            List<Formula> subFormulas = children(conjunction);
+            boolean first = true;
+
+            // positive subformulas first, then negative ones
+            for (boolean negative : new boolean[]{false, true}) {
+                for (Formula sf : subFormulas) {
+                    if (sf instanceof Negation != negative) continue;
+                    if (!first) out.append("\n");
+                    first = false;
+                    write(sf);
+                }
+            }
+        }
 
-    private static SparqlRewriting convertPredicateAtomToSPARQL(OntologyPredicateAtom predicateAtom) {
-        String predicateIRI = predicateAtom.getPredicateIRI();
-        Term[] arguments = predicateAtom.getTerms().toArray(new Term[0]);
+        private void writeDisjunction(Disjunction disjunction) throws IOException {
+            boolean first = true;
+            for (Formula sf : children(disjunction)) {
+                out.append(first ? "{ " : " UNION { ");
+                first = false;
+                write(sf);
+                out.append(" }");
+            }
+        }
 
-        if (arguments.length == 1) {
-            // Conversion for Concepts
-            Variable variable = (Variable) arguments[0];
-            String var = variable.getName();
+        private void writeNegation(Negation negation) throws IOException {
+            out.append("MINUS { ");
+            write(content(negation));
+            out.append(" }");
+        }
 
-            String sparqlString = "?" + var + " a <" + predicateIRI + "> .";
-            Set <String> projectedVars = ImmutableSet.of(var);
-            return new SparqlRewriting(sparqlString, projectedVars);
+        private void writeExist(Exist exist) throws IOException {
+            Set<String> variables = projectedVariables.get(exist);
+            Formula content = content(exist);
+            if (variables.isEmpty()) {
+                out.append("{ SELECT DISTINCT (1 AS ?dummy) { ");
+            } else if (simplify && isInlineable(exist)) {
+                writePredicateAtom((OntologyPredicateAtom) content, names(exist.getQuantifiedVariables()));
+                return;
+            } else {
+                // the outermost query is a SELECT DISTINCT, hence duplicates are removed anyway
+                out.append(simplify ? " { SELECT " : " { SELECT DISTINCT ");
+                appendVariables(variables, out);
+                out.append(" { ");
+            }
+            write(content);
+            out.append(" }}");
+        }
 
-        } else if (arguments.length == 2) {
-            // Conversion for roles
-            Variable subject = (Variable) arguments[0];
-            Variable object = (Variable) arguments[1];
+        private void writePredicateAtom(OntologyPredicateAtom predicateAtom) throws IOException {
+            writePredicateAtom(predicateAtom, Collections.emptySet());
+        }
 
-            String subjectVar = subject.getName();
-            String objectVar = object.getName();
+        /**
+         * @param blankVariables The names of the variables to be written as blank nodes.
+         */
+        private void writePredicateAtom(OntologyPredicateAtom predicateAtom, Set<String> blankVariables) throws IOException {
+            String predicateIRI = predicateAtom.getPredicateIRI();
+            List<Term> arguments = predicateAtom.getTerms();
+
+            if (arguments.size() == 1) {
+                // Conversion for Concepts
+                writeVariable((Variable) arguments.get(0), blankVariables);
+                out.append(" a <").append(predicateIRI).append("> .");
+            } else if (arguments.size() == 2) {
+                // Conversion for roles
+                writeVariable((Variable) arguments.get(0), blankVariables);
+                out.append(" <").append(predicateIRI).append("> ");
+                writeVariable((Variable) arguments.get(1), blankVariables);
+                out.append(" .");
+            } else throw new Error();
+        }
 
-            String sparqlString = "?" + subjectVar + " <" + predicateIRI + "> ?" + objectVar + " .";
-            Set <String> projectedVars = ImmutableSet.of(subjectVar, objectVar);
-            return new SparqlRewriting(sparqlString, projectedVars);
+        private void writeVariable(Variable variable, Set<String> blankVariables) throws IOException {
+            String name = variable.getName();
+            if (blankVariables.contains(name)) out.append("[]");
+            else out.append("?").append(name);
         }
-        throw new Error();
     }
 
-
-
-    public static final class SparqlRewriting {
-
-        public final String string; // the SPARQL expression corresponding to a formula
-
-        public final Set<String> variables; // the SPARQL variables projected out by the SPARQL expression\
-
-        public SparqlRewriting(String string, Iterable<String> variables) {
-            this.string = Objects.requireNonNull(string);
-            this.variables = ImmutableSet.copyOf(variables);
+    /*===================*
+     * AUXILIARY METHODS *
+     *===================*/
+
+    /**
+     * An existential subquery can be replaced by its content if the latter is a single triple
+     * where each existential variable occurs only once (so that it can be written as a blank node),
+     * and at least one variable is not quantified (otherwise it is a Boolean subquery).
+     */
+    private static boolean isInlineable(Exist exist) {
+        Formula content = content(exist);
+        if (!(content instanceof OntologyPredicateAtom)) return false;
+        Set<String> quantifiedVars = names(exist.getQuantifiedVariables());
+        Set<String> seen = new HashSet<>();
+        boolean free = false;
+        for (Term t : ((OntologyPredicateAtom) content).getTerms()) {
+            String name = ((Variable) t).getName();
+            if (!quantifiedVars.contains(name)) free = true;
+            else if (!seen.add(name)) return false;
         }
-
+        return free;
     }
 
+    private static void appendVariables(Set<String> variables, Appendable out) throws IOException {
+        boolean first = true;
+        for (String v : variables) {
+            out.append(first ? "?" : " ?").append(v);
+            first = false;
+        }
+    }
 
-}
+    private static Set<String> names(Collection<Variable> variables) {
+        Set<String> names = new HashSet<>();
+        for (Variable v : variables) names.add(v.getName());
+        return names;
+    }
 
+    // the getters of formula containers return clones, which is what we want to avoid here
 
+    private static List<Formula> children(ManyFormulasContainer container) {
+        List<Formula> children = new ArrayList<>();
+        container.forEach(children::add);
+        return children;
+    }
 
+    private static Formula content(SingleFormulaContainer container) {
+        Formula[] content = new Formula[1];
+        container.apply(sf -> content[0] = sf);
+        return content[0];
+    }
 
+}
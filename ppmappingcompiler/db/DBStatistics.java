@@ -0,0 +1,135 @@
+package ppmappingcompiler.db;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ppmappingcompiler.util.IOUtils;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * This class holds the (optional) statistics attached to the relations of a DB metadata JSON file.<br>
+ * Statistics are stored, for each relation, in a {@code "statistics"} object of the form:
+ * <pre>
+ *     "statistics": {
+ *         "rowCount": 3,
+ *         "distinctValues": { "\"attribute\"": 3 }
+ *     }</pre>
+ * Both fields are optional, and relations without statistics are simply treated as relations of unknown size.
+ */
+public class DBStatistics {
+
+    public static final String STATISTICS_KEY = "statistics";
+    public static final String ROW_COUNT_KEY = "rowCount";
+    public static final String DISTINCT_VALUES_KEY = "distinctValues";
+
+    // value returned when the cardinality of a relation cannot be estimated
+    public static final double UNKNOWN_CARDINALITY = Double.POSITIVE_INFINITY;
+
+    private static final DBStatistics EMPTY = new DBStatistics(Collections.emptyMap());
+
+    private final Map<String, RelationStatistics> relations;
+
+    private DBStatistics(Map<String, RelationStatistics> relations) {
+        this.relations = relations;
+    }
+
+    public static DBStatistics empty() {
+        return EMPTY;
+    }
+
+    /**
+     * This method reads the statistics from a DB metadata JSON file (the same file which is given to Ontop).
+     *
+     * @param metadataFilePath The JSON file where the DB metadata is stored.
+     * @return The statistics found in the file (possibly none).
+     */
+    public static DBStatistics loadFromJson(String metadataFilePath) throws IOException {
+        JsonNode root;
+        try (InputStream in = IOUtils.newInputStream(metadataFilePath)) {
+            root = new ObjectMapper().readTree(in);
+        }
+        Map<String, RelationStatistics> relations = new HashMap<>();
+        for (JsonNode relationNode : root.path("relations")) {
+            JsonNode statisticsNode = relationNode.path(STATISTICS_KEY);
+            JsonNode nameNode = relationNode.path("name");
+            if (!statisticsNode.isObject() || !nameNode.isArray() || nameNode.size() == 0) continue;
+
+            // the last component of the (possibly schema-qualified) name is the relation name
+            String relationName = unquote(nameNode.get(nameNode.size() - 1).asText());
+            Long rowCount = statisticsNode.has(ROW_COUNT_KEY) ? statisticsNode.get(ROW_COUNT_KEY).asLong() : null;
+            Map<String, Long> distinctValues = new HashMap<>();
+            statisticsNode.path(DISTINCT_VALUES_KEY).fields().forEachRemaining(
+                    e -> distinctValues.put(unquote(e.getKey()), e.getValue().asLong()));
+            relations.put(relationName, new RelationStatistics(rowCount, distinctValues));
+        }
+        return relations.isEmpty() ? empty() : new DBStatistics(relations);
+    }
+
+    public boolean isEmpty() {
+        return this.relations.isEmpty();
+    }
+
+    public OptionalLong getRowCount(String relationName) {
+        RelationStatistics rs = this.relations.get(unquote(relationName));
+        return rs == null || rs.rowCount == null ? OptionalLong.empty() : OptionalLong.of(rs.rowCount);
+    }
+
+    public OptionalLong getDistinctValues(String relationName, String columnName) {
+        RelationStatistics rs = this.relations.get(unquote(relationName));
+        if (rs == null) return OptionalLong.empty();
+        Long distinctValues = rs.distinctValues.get(unquote(columnName));
+        return distinctValues == null ? OptionalLong.empty() : OptionalLong.of(distinctValues);
+    }
+
+    /**
+     * This method estimates the number of tuples returned by a relation when some of its columns are bound
+     * to constants, assuming uniformly distributed and independent values.<br>
+     * E.g., given a relation with 100 rows and a column with 10 distinct values, binding such column gives 10 rows.
+     *
+     * @param relationName The relation name.
+     * @param boundColumns The columns bound to a constant.
+     * @return The estimated cardinality, or {@link #UNKNOWN_CARDINALITY} if the relation has no row count.
+     */
+    public double estimateCardinality(String relationName, @Nonnull Collection<String> boundColumns) {
+        OptionalLong rowCount = getRowCount(relationName);
+        if (rowCount.isEmpty()) return UNKNOWN_CARDINALITY;
+        double cardinality = rowCount.getAsLong();
+        for (String column : boundColumns) {
+            OptionalLong distinctValues = getDistinctValues(relationName, column);
+            if (distinctValues.isPresent() && distinctValues.getAsLong() > 0) {
+                cardinality /= distinctValues.getAsLong();
+            }
+        }
+        return cardinality;
+    }
+
+    public double estimateCardinality(String relationName) {
+        return estimateCardinality(relationName, Collections.emptyList());
+    }
+
+    /**
+     * This method removes the SQL quotation marks (if any) from an identifier.<br>
+     * E.g., {@code "Student"} becomes {@code Student}.
+     */
+    static String unquote(@Nonnull String identifier) {
+        String s = identifier.trim();
+        if (s.length() >= 2 && (s.startsWith("\"") && s.endsWith("\"") || s.startsWith("`") && s.endsWith("`"))) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    private static class RelationStatistics {
+        private final Long rowCount;    // null if unknown
+        private final Map<String, Long> distinctValues;
+
+        RelationStatistics(Long rowCount, Map<String, Long> distinctValues) {
+            this.rowCount = rowCount;
+            this.distinctValues = distinctValues;
+        }
+    }
+
+}
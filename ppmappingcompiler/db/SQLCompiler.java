@@ -25,13 +25,20 @@ import static ppmappingcompiler.util.Utils.*;
 public class SQLCompiler {
 
     private final DBSchema schema;
+    private final DBStatistics statistics;
 
     public static final String BOOLEAN_WILDCARD = "1";    // wildcard value to be returned for Boolean queries evaluating to true
     private static final String FALSE_VALUE = "FALSE";
     private static final String TRUE_VALUE = "TRUE";
 
-    public SQLCompiler(DBSchema schema) {
+    /**
+     * @param schema     The DB schema.
+     * @param statistics The statistics (e.g. row counts) of the tables of the schema, which are used
+     *                   for ordering the members of joins. They are ignored if {@link DBStatistics#empty() empty}.
+     */
+    public SQLCompiler(DBSchema schema, DBStatistics statistics) {
         this.schema = schema;
+        this.statistics = statistics;
     }
 
     /**
@@ -59,7 +66,7 @@ public class SQLCompiler {
      * @return A {@link String string} in SQL format.
      */
     public String sqlify(@Nonnull Formula formula, @Nonnull Map<Variable, String> aliases, boolean distinct) throws SQLificationException {
-        return new SQLificationInstance(schema, formula, aliases, distinct).exec();
+        return new SQLificationInstance(schema, statistics, formula, aliases, distinct).exec();
     }
 
     /**
@@ -75,6 +82,7 @@ public class SQLCompiler {
 
     private static class SQLificationInstance {
         private final DBSchema schema;
+        private final DBStatistics statistics;
         private final Formula mainFormula;
         private final boolean distinct;
 
@@ -92,6 +100,7 @@ public class SQLCompiler {
         private static final String OR = "OR";
 
         SQLificationInstance(@Nonnull DBSchema schema,
+                             @Nonnull DBStatistics statistics,
                              @Nonnull Formula formula,
                              @Nonnull Map<Variable, String> aliases,
                              boolean distinct) {
@@ -104,6 +113,7 @@ public class SQLCompiler {
 
             this.mainFormula = removeUnnecessaryContainer(f); // e.g. NOT(NOT(R(x,y))) -> R(x,y)
             this.schema = schema;
+            this.statistics = statistics;
             this.variableAliases = aliases;
             this.distinct = distinct;
         }
@@ -129,10 +139,9 @@ public class SQLCompiler {
          * in order to getting rid of constants and self-joins inside predicate atoms.
          */
         private Formula explodePredicateAtoms(Formula formula, Set<String> variablesAlphabet) {
-            Set<String> activeVariablesAlphabet = formula.getActiveVariablesAlphabet();
+            FreshNameSupply names = new FreshNameSupply(variablesAlphabet, formula.getActiveVariablesAlphabet());
             Function<Formula, Formula> explode = f -> {
-                if (f instanceof PredicateAtom) return ((PredicateAtom) f)
-                        .explode(variablesAlphabet, activeVariablesAlphabet, true);
+                if (f instanceof PredicateAtom) return ((PredicateAtom) f).explode(names);
                 else return f;
             };
             if (formula instanceof PredicateAtom) {
@@ -263,6 +272,48 @@ public class SQLCompiler {
             } else return term.toString();
         }
 
+        /**
+         * This method estimates the number of tuples returned by the SQL translation of a formula,
+         * basing on the available {@link DBStatistics statistics}. In particular:
+         * <ul>
+         *     <li> a predicate atom returns the rows of its table, divided by the distinct values of the columns bound to constants;
+         *     <li> a conjunction returns at most the tuples of its most selective member;
+         *     <li> a disjunction returns at most the sum of the tuples of its members;
+         *     <li> quantifiers and negations cost as much as their content (e.g. an anti-join scans the negated subquery);
+         *     <li> comparisons do not access any table.
+         * </ul>
+         */
+        private double estimateCardinality(Formula f) {
+            if (f instanceof PredicateAtom) {
+                PredicateAtom atom = (PredicateAtom) f;
+                Table table = this.schema.getTableByName(atom.getPredicateName());
+                if (table == null) return DBStatistics.UNKNOWN_CARDINALITY;
+                List<String> columnNames = table.getAttributes();
+                List<String> boundColumns = new ArrayList<>();
+                for (int i = 0; i < atom.getArity() && i < columnNames.size(); i++) {
+                    if (atom.getTerm(i) instanceof Constant) boundColumns.add(columnNames.get(i));
+                }
+                return this.statistics.estimateCardinality(table.getTableName(), boundColumns);
+            }
+            if (f instanceof ComparisonAtom || f instanceof True || f instanceof False) return 0;
+            if (f instanceof Conjunction) {
+                double[] min = {DBStatistics.UNKNOWN_CARDINALITY};
+                ((Conjunction) f).forEach(sf -> min[0] = Math.min(min[0], estimateCardinality(sf)));
+                return min[0];
+            }
+            if (f instanceof Disjunction) {
+                double[] sum = {0};
+                ((Disjunction) f).forEach(sf -> sum[0] += estimateCardinality(sf));
+                return sum[0];
+            }
+            if (f instanceof SingleFormulaContainer) {
+                double[] content = {DBStatistics.UNKNOWN_CARDINALITY};
+                ((SingleFormulaContainer) f).apply(sf -> content[0] = estimateCardinality(sf));
+                return content[0];
+            }
+            return DBStatistics.UNKNOWN_CARDINALITY;
+        }
+
         private static Set<Variable> getSelectableVariables(Formula formula) {
             Set<Variable> allVariables = new HashSet<>(formula.getVariables());
             if (formula instanceof PredicateAtom) {
@@ -331,8 +382,8 @@ public class SQLCompiler {
             Map<Variable, Formula> whereDistinguishedVars = new HashMap<>(distinguishedVariables);
 
             // classify subqueries (JOIN vs. WHERE)
-            Set<Formula> joinSubqueries = new HashSet<>();
-            Set<Formula> whereSubqueries = new HashSet<>();
+            List<Formula> joinSubqueries = new ArrayList<>();
+            List<Formula> whereSubqueries = new ArrayList<>();
             for (Formula sf : conjunction) {
                 Set<Variable> varsToRequest = setIntersection(allVarsToRequest, sf.getFreeVariables());
                 if (varsToRequest.isEmpty() || !getSelectableVariables(sf).containsAll(varsToRequest)) {
@@ -359,6 +410,12 @@ public class SQLCompiler {
                 ), this.mainFormula);
             }
 
+            // most selective relations and cheapest filters first
+            if (!this.statistics.isEmpty()) {
+                joinSubqueries.sort(Comparator.comparingDouble(this::estimateCardinality));
+                whereSubqueries.sort(Comparator.comparingDouble(this::estimateCardinality));
+            }
+
             // build SQL query
             List<StringBuilder> joinSQLSubqueries = new ArrayList<>();
             List<StringBuilder> whereSQLSubqueries = new ArrayList<>();
@@ -0,0 +1,280 @@
+package ppmappingcompiler.db;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.function.IntPredicate;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class reorders the members of the joins and the conditions of a SQL query produced by an external tool
+ * (e.g. Ontop), basing on the {@link DBStatistics statistics} of the DB. In particular:
+ * <ul>
+ *     <li> the relations of a comma-separated FROM clause are sorted from the smallest to the largest one;
+ *     <li> the conditions of a WHERE clause are sorted so that simple filters come first, followed by
+ *          (anti-)joins expressed as {@code [NOT] EXISTS} subqueries, from the cheapest to the most expensive one.
+ * </ul>
+ * Both transformations only permute the operands of commutative operators, hence they do not change the
+ * semantics of the query. Clauses whose structure is not recognized (e.g. explicit JOINs, top-level ORs)
+ * are left untouched, and so is every clause whose order is already the expected one.
+ */
+public class SQLJoinReordering {
+
+    private final DBStatistics statistics;
+
+    private static final String[] SET_OPERATORS = {"UNION", "EXCEPT", "INTERSECT", "MINUS"};
+    private static final String[] SET_QUANTIFIERS = {"ALL", "DISTINCT"};
+    private static final String[] CLAUSES_AFTER_FROM = {"WHERE", "GROUP", "HAVING", "WINDOW", "ORDER", "LIMIT", "OFFSET", "FETCH"};
+    private static final String[] CLAUSES_AFTER_WHERE = {"GROUP", "HAVING", "WINDOW", "ORDER", "LIMIT", "OFFSET", "FETCH"};
+    private static final String[] EXPLICIT_JOINS = {"JOIN", "LATERAL"};
+    private static final String[] NON_SPLITTABLE_CONDITIONS = {"OR", "BETWEEN"};
+    private static final Pattern SUBQUERY_CONDITION = Pattern.compile("^[\\s(]*(NOT\\s+)?EXISTS\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern IDENTIFIER = Pattern.compile("\"((?:[^\"]|\"\")+)\"|\\b([A-Za-z_][A-Za-z0-9_]*)\\b");
+
+    // plain conditions (e.g. comparisons) must precede every subquery
+    private static final double PLAIN_CONDITION_COST = -1;
+
+    public SQLJoinReordering(@Nonnull DBStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param sql A SQL query.
+     * @return The same query, with the members of its joins and WHERE clauses sorted as described in
+     * {@link SQLJoinReordering}. If no statistics are available, the input query is returned as it is.
+     */
+    public String reorder(@Nonnull String sql) {
+        if (this.statistics.isEmpty()) return sql;
+        return reorderQuery(sql);
+    }
+
+    /*********************
+     * AUXILIARY METHODS *
+     *********************/
+
+    private String reorderQuery(String sql) {
+        List<Integer> setOperators = findTopLevel(sql, 0, sql.length(), i -> keywordAt(sql, i, SET_OPERATORS) != null);
+        if (setOperators.isEmpty()) return reorderSelect(sql);
+
+        // the operands of a set operation are reordered separately
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        for (int position : setOperators) {
+            sb.append(reorderSelect(sql.substring(start, position)));
+            int end = position + keywordAt(sql, position, SET_OPERATORS).length();
+            int next = skipWhitespaces(sql, end);
+            String quantifier = keywordAt(sql, next, SET_QUANTIFIERS);
+            if (quantifier != null) end = next + quantifier.length();
+            sb.append(sql, position, end);
+            start = end;
+        }
+        return sb.append(reorderSelect(sql.substring(start))).toString();
+    }
+
+    private String reorderSelect(String sql) {
+        List<Integer> from = findTopLevel(sql, 0, sql.length(), i -> keywordAt(sql, i, "FROM") != null);
+        if (from.isEmpty()) return reorderSubqueries(sql);
+
+        int fromStart = from.get(0) + "FROM".length();
+        int fromEnd = firstTopLevelKeyword(sql, fromStart, CLAUSES_AFTER_FROM);
+        boolean hasWhere = fromEnd < sql.length() && keywordAt(sql, fromEnd, "WHERE") != null;
+        int whereStart = hasWhere ? fromEnd + "WHERE".length() : fromEnd;
+        int whereEnd = hasWhere ? firstTopLevelKeyword(sql, whereStart, CLAUSES_AFTER_WHERE) : fromEnd;
+
+        return reorderSubqueries(sql.substring(0, fromStart)) +
+                reorderFromClause(sql.substring(fromStart, fromEnd)) +
+                (hasWhere ? sql.substring(fromEnd, whereStart) + reorderWhereClause(sql.substring(whereStart, whereEnd)) : "") +
+                reorderSubqueries(sql.substring(whereEnd));
+    }
+
+    private String reorderFromClause(String clause) {
+        List<String> items = splitTopLevel(clause, i -> clause.charAt(i) == ',');
+        items.replaceAll(this::reorderSubqueries);
+        if (items.size() < 2 || !findTopLevel(clause, 0, clause.length(), i -> keywordAt(clause, i, EXPLICIT_JOINS) != null).isEmpty()) {
+            return String.join(",", items);
+        }
+        List<String> sorted = sortByCost(items, this::estimateTableReferenceCost);
+        return sorted.equals(items) ? String.join(",", items) : joinTrimmed(clause, sorted, ", ");
+    }
+
+    private String reorderWhereClause(String clause) {
+        List<String> conditions = splitTopLevel(clause, i -> keywordAt(clause, i, "AND") != null);
+        if (conditions.size() < 2 || !findTopLevel(clause, 0, clause.length(), i -> keywordAt(clause, i, NON_SPLITTABLE_CONDITIONS) != null).isEmpty()) {
+            return reorderSubqueries(clause);
+        }
+        // the first split item does not contain the "AND" keyword, while the following ones start with it
+        List<String> operands = new ArrayList<>();
+        for (int i = 0; i < conditions.size(); i++) {
+            operands.add(reorderSubqueries(i == 0 ? conditions.get(i) : conditions.get(i).substring("AND".length())));
+        }
+        List<String> sorted = sortByCost(operands, this::estimateConditionCost);
+        if (!sorted.equals(operands)) return joinTrimmed(clause, sorted, " AND ");
+
+        StringBuilder sb = new StringBuilder(operands.get(0));
+        for (int i = 1; i < operands.size(); i++) {
+            sb.append(conditions.get(i), 0, "AND".length()).append(operands.get(i));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> sortByCost(List<String> operands, ToDoubleFunction<String> cost) {
+        List<String> sorted = new ArrayList<>(operands);
+        sorted.sort(Comparator.comparingDouble(cost));  // stable
+        return sorted;
+    }
+
+    /**
+     * This method joins the operands of a clause, preserving the leading and trailing whitespaces of the original one.
+     */
+    private static String joinTrimmed(String clause, List<String> operands, String separator) {
+        String leading = clause.substring(0, clause.length() - clause.stripLeading().length());
+        String trailing = clause.substring(clause.stripTrailing().length());
+        List<String> trimmed = new ArrayList<>();
+        operands.forEach(o -> trimmed.add(o.trim()));
+        return leading + String.join(separator, trimmed) + trailing;
+    }
+
+    /**
+     * The cost of a table reference (e.g. {@code "Student" v1}) is the number of rows of the table.
+     * Derived tables (i.e. subqueries in the FROM clause) are considered as tables of unknown size.
+     */
+    private double estimateTableReferenceCost(String tableReference) {
+        String s = tableReference.trim();
+        if (s.startsWith("(")) return DBStatistics.UNKNOWN_CARDINALITY;
+        String relation = s.split("\\s+", 2)[0];
+        // schema-qualified names: keep the relation name only
+        Matcher m = IDENTIFIER.matcher(relation);
+        String last = null;
+        while (m.find()) last = m.group(1) != null ? m.group(1) : m.group(2);
+        return last == null ? DBStatistics.UNKNOWN_CARDINALITY : this.statistics.estimateCardinality(last);
+    }
+
+    /**
+     * The cost of a {@code [NOT] EXISTS} condition is estimated as the size of the smallest relation it accesses,
+     * while any other condition is considered as a plain filter to be evaluated before subqueries.
+     */
+    private double estimateConditionCost(String condition) {
+        if (!SUBQUERY_CONDITION.matcher(condition).find()) return PLAIN_CONDITION_COST;
+        double cost = DBStatistics.UNKNOWN_CARDINALITY;
+        Matcher m = IDENTIFIER.matcher(condition);
+        while (m.find()) {
+            String identifier = m.group(1) != null ? m.group(1).replace("\"\"", "\"") : m.group(2);
+            OptionalLong rowCount = this.statistics.getRowCount(identifier);
+            if (rowCount.isPresent()) cost = Math.min(cost, rowCount.getAsLong());
+        }
+        return cost;
+    }
+
+    /**
+     * This method reorders every subquery (i.e. a parenthesized SELECT statement) occurring in the input SQL fragment.
+     */
+    private String reorderSubqueries(String fragment) {
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        for (int open : findTopLevel(fragment, 0, fragment.length(), i -> fragment.charAt(i) == '(')) {
+            int close = matchingParenthesis(fragment, open);
+            if (close < 0) return fragment;
+            String content = fragment.substring(open + 1, close);
+            String stripped = content.stripLeading();
+            boolean isQuery = keywordAt(stripped, 0, "SELECT", "WITH") != null || stripped.startsWith("(");
+            sb.append(fragment, start, open + 1)
+                    .append(isQuery ? reorderQuery(content) : reorderSubqueries(content));
+            start = close;
+        }
+        return sb.append(fragment.substring(start)).toString();
+    }
+
+    private int firstTopLevelKeyword(String sql, int from, String... keywords) {
+        List<Integer> positions = findTopLevel(sql, from, sql.length(), i -> keywordAt(sql, i, keywords) != null);
+        return positions.isEmpty() ? sql.length() : positions.get(0);
+    }
+
+    private static List<String> splitTopLevel(String s, IntPredicate isSeparator) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        for (int position : findTopLevel(s, 0, s.length(), isSeparator)) {
+            pieces.add(s.substring(start, position));
+            start = position;
+            // a separator character is not kept in the pieces, while a separator keyword is (it is removed by the caller)
+            if (s.charAt(position) == ',') start++;
+        }
+        pieces.add(s.substring(start));
+        return pieces;
+    }
+
+    /**
+     * This method returns the positions, in the range {@code [from, to)}, that are not nested into
+     * parentheses or {@code CASE ... END} expressions nor quoted (either as a literal or as an identifier),
+     * and that satisfy the given predicate.
+     * An opening parenthesis (or a {@code CASE} keyword) at nesting level 0 is considered as a top-level position.
+     */
+    private static List<Integer> findTopLevel(String s, int from, int to, IntPredicate matcher) {
+        List<Integer> positions = new ArrayList<>();
+        int depth = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '\'' || c == '"') {
+                i = skipQuoted(s, i);
+                continue;
+            }
+            if (depth == 0 && matcher.test(i)) positions.add(i);
+            if (c == '(' || Character.isLetter(c) && keywordAt(s, i, "CASE") != null) depth++;
+            else if (c == ')' || Character.isLetter(c) && keywordAt(s, i, "END") != null) depth--;
+        }
+        return positions;
+    }
+
+    private static int matchingParenthesis(String s, int open) {
+        int depth = 0;
+        for (int i = open; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\'' || c == '"') i = skipQuoted(s, i);
+            else if (c == '(') depth++;
+            else if (c == ')' && --depth == 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The position of the quote closing the one at the given position (doubled quotes are escaped ones).
+     */
+    private static int skipQuoted(String s, int start) {
+        char quote = s.charAt(start);
+        int i = start + 1;
+        while (i < s.length()) {
+            if (s.charAt(i) != quote) i++;
+            else if (i + 1 < s.length() && s.charAt(i + 1) == quote) i += 2;
+            else return i;
+        }
+        return s.length();
+    }
+
+    private static int skipWhitespaces(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * @return The keyword (case-insensitive) occurring as a whole word at the given position, or {@code null} if none.
+     */
+    private static String keywordAt(String s, int i, String... keywords) {
+        if (i > 0 && isIdentifierChar(s.charAt(i - 1))) return null;
+        for (String keyword : keywords) {
+            int end = i + keyword.length();
+            if (s.regionMatches(true, i, keyword, 0, keyword.length())
+                    && (end >= s.length() || !isIdentifierChar(s.charAt(end)))) {
+                return keyword;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+}
@@ -82,7 +82,7 @@ public abstract class Atom extends Formula {
     }
 
     @Override
-    public void distinguishQuantifiedVariables(Set<String> variablesAlphabet, Set<String> reservedNames, boolean updateReservedNames) {
+    protected void distinguishQuantifiedVariables(FreshNameSupply names) {
         // do nothing
     }
 
@@ -0,0 +1,282 @@
+package ppmappingcompiler.fol;
+
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The canonical form of a {@link Formula formula} is a textual key which does not depend on:
+ * <ul>
+ *     <li>the names of the {@link Variable variables}, which are renamed in order of first occurrence;</li>
+ *     <li>the order of the members of {@link Conjunction conjunctions} and {@link Disjunction disjunctions};</li>
+ *     <li>the order of the operands of symmetric {@link ComparisonAtom comparisons};</li>
+ *     <li>the order of the variables bound by a {@link Quantifier quantifier};</li>
+ *     <li>(optionally) the identifiers of some predicates, which are replaced by placeholders.</li>
+ * </ul>
+ * Two formulas having the same key are identical up to a bijective renaming of variables (and to the
+ * substitution of the abstracted predicates), which is available through {@link #getRenaming()}.<br>
+ * The converse does not always hold: members whose shape only differs in how they are joined to the rest of the
+ * formula are ordered as they appear, hence equivalent formulas may occasionally get different keys.
+ */
+public final class CanonicalForm {
+
+    private static final String VARIABLE_PREFIX = "v";
+
+    private final String key;
+    private final long fingerprint;
+    private final Map<String, String> renaming;
+
+    private CanonicalForm(String key, Map<String, String> renaming) {
+        this.key = key;
+        this.fingerprint = Hashing.farmHashFingerprint64().hashString(key, StandardCharsets.UTF_8).asLong();
+        this.renaming = Collections.unmodifiableMap(renaming);
+    }
+
+    public static CanonicalForm of(@Nonnull Formula formula) {
+        return of(formula, Collections.emptyMap());
+    }
+
+    /**
+     * @param formula              The formula to be canonicalized. It is not modified.
+     * @param predicateAbstraction A map from predicate identifiers to the placeholders replacing them in the key.
+     * @return The canonical form of the formula.
+     */
+    public static CanonicalForm of(@Nonnull Formula formula, @Nonnull Map<String, String> predicateAbstraction) {
+        Builder builder = new Builder(predicateAbstraction);
+        builder.collectOccurrences(formula);
+        builder.assignColors();
+        StringBuilder key = new StringBuilder();
+        builder.serialize(formula, key);
+        return new CanonicalForm(key.toString(), builder.renaming);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return A 64-bit structural hash of the canonical key, stable across executions.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return A map from the names of the variables of the original formula to their canonical names.
+     */
+    public Map<String, String> getRenaming() {
+        return renaming;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof CanonicalForm)) return false;
+        CanonicalForm other = (CanonicalForm) obj;
+        return fingerprint == other.fingerprint && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint);
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+
+
+    /*===================*
+     * AUXILIARY METHODS *
+     *===================*/
+
+    /**
+     * The canonicalization runs in three passes:
+     * <ol>
+     *     <li>each variable is given a "color", i.e. the multiset of the (predicate, position) pairs it occurs in;</li>
+     *     <li>each sub-formula is given a "shape", i.e. its serialization where variables are replaced by their colors;
+     *     members of commutative containers are sorted by shape;</li>
+     *     <li>the formula is serialized following the sorted order, naming variables by their first occurrence.</li>
+     * </ol>
+     * Sub-formulas are visited without being cloned.
+     */
+    private static final class Builder {
+        private final Map<String, String> predicateAbstraction;
+        private final Map<String, List<String>> occurrences = new HashMap<>();
+        private final Map<String, Integer> colors = new HashMap<>();
+        private final Map<Formula, String> shapes = new IdentityHashMap<>();
+        private final Map<String, String> renaming = new HashMap<>();
+
+        Builder(Map<String, String> predicateAbstraction) {
+            this.predicateAbstraction = predicateAbstraction;
+        }
+
+        private String predicate(PredicateAtom atom) {
+            String id = atom.getPredicateIdentifier();
+            return predicateAbstraction.getOrDefault(id, "<" + id + ">") + "/" + atom.terms.size();
+        }
+
+        private void occurs(Term term, String position) {
+            if (term instanceof Variable) {
+                occurrences.computeIfAbsent(((Variable) term).getName(), k -> new ArrayList<>()).add(position);
+            }
+        }
+
+        void collectOccurrences(Formula formula) {
+            if (formula instanceof PredicateAtom) {
+                PredicateAtom atom = (PredicateAtom) formula;
+                String predicate = predicate(atom);
+                for (int i = 0; i < atom.terms.size(); i++) occurs(atom.terms.get(i), predicate + "#" + i);
+            } else if (formula instanceof ComparisonAtom) {
+                ComparisonAtom atom = (ComparisonAtom) formula;
+                String operator = atom.getSqlOperator();
+                occurs(atom.left, operator + (atom.isSymmetric() ? "" : "#0"));
+                occurs(atom.right, operator + (atom.isSymmetric() ? "" : "#1"));
+            } else if (formula instanceof ManyFormulasContainer) {
+                ((ManyFormulasContainer) formula).forEach(this::collectOccurrences);
+            } else if (formula instanceof Quantifier) {
+                Quantifier quantifier = (Quantifier) formula;
+                String kind = quantifier instanceof Exist ? "E" : "A";
+                for (Variable v : quantifier.getQuantifiedVariables()) occurs(v, kind);
+                quantifier.apply(this::collectOccurrences);
+            } else if (formula instanceof SingleFormulaContainer) {
+                ((SingleFormulaContainer) formula).apply(this::collectOccurrences);
+            }
+        }
+
+        void assignColors() {
+            Map<String, String> signatures = new HashMap<>();
+            occurrences.forEach((name, positions) -> {
+                List<String> sorted = new ArrayList<>(positions);
+                Collections.sort(sorted);
+                signatures.put(name, String.join(",", sorted));
+            });
+            List<String> distinct = new ArrayList<>(new TreeSet<>(signatures.values()));
+            signatures.forEach((name, signature) -> colors.put(name, Collections.binarySearch(distinct, signature)));
+        }
+
+        private String termShape(Term term) {
+            return term instanceof Variable
+                    ? "?" + colors.get(((Variable) term).getName())
+                    : term.toSparql();
+        }
+
+        private String shape(Formula formula) {
+            String shape = shapes.get(formula);
+            if (shape != null) return shape;
+
+            StringBuilder sb = new StringBuilder();
+            if (formula instanceof PredicateAtom) {
+                PredicateAtom atom = (PredicateAtom) formula;
+                sb.append(predicate(atom)).append('(');
+                for (int i = 0; i < atom.terms.size(); i++) {
+                    if (i > 0) sb.append(',');
+                    sb.append(termShape(atom.terms.get(i)));
+                }
+                sb.append(')');
+            } else if (formula instanceof ComparisonAtom) {
+                ComparisonAtom atom = (ComparisonAtom) formula;
+                String left = termShape(atom.left), right = termShape(atom.right);
+                if (atom.isSymmetric() && left.compareTo(right) > 0) {
+                    String tmp = left;
+                    left = right;
+                    right = tmp;
+                }
+                sb.append(atom.getSqlOperator()).append('(').append(left).append(',').append(right).append(')');
+            } else if (formula instanceof ManyFormulasContainer) {
+                sb.append(containerName(formula)).append('[');
+                List<String> members = new ArrayList<>();
+                ((ManyFormulasContainer) formula).forEach(f -> members.add(shape(f)));
+                Collections.sort(members);
+                sb.append(String.join(";", members)).append(']');
+            } else if (formula instanceof Quantifier) {
+                Quantifier quantifier = (Quantifier) formula;
+                List<Integer> quantified = new ArrayList<>();
+                for (Variable v : quantifier.getQuantifiedVariables()) quantified.add(colors.get(v.getName()));
+                Collections.sort(quantified);
+                sb.append(containerName(formula)).append(quantified).append('(').append(shape(quantifier.content)).append(')');
+            } else if (formula instanceof SingleFormulaContainer) {
+                sb.append(containerName(formula)).append('(').append(shape(((SingleFormulaContainer) formula).content)).append(')');
+            } else {
+                sb.append(containerName(formula));
+            }
+            shape = sb.toString();
+            shapes.put(formula, shape);
+            return shape;
+        }
+
+        private String rename(Term term) {
+            if (!(term instanceof Variable)) return term.toSparql();
+            String name = ((Variable) term).getName();
+            return "?" + renaming.computeIfAbsent(name, k -> VARIABLE_PREFIX + renaming.size());
+        }
+
+        void serialize(Formula formula, StringBuilder sb) {
+            if (formula instanceof PredicateAtom) {
+                PredicateAtom atom = (PredicateAtom) formula;
+                sb.append(predicate(atom)).append('(');
+                for (int i = 0; i < atom.terms.size(); i++) {
+                    if (i > 0) sb.append(',');
+                    sb.append(rename(atom.terms.get(i)));
+                }
+                sb.append(')');
+            } else if (formula instanceof ComparisonAtom) {
+                ComparisonAtom atom = (ComparisonAtom) formula;
+                Term left = atom.left, right = atom.right;
+                if (atom.isSymmetric() && termShape(left).compareTo(termShape(right)) > 0) {
+                    Term tmp = left;
+                    left = right;
+                    right = tmp;
+                }
+                String l = rename(left), r = rename(right);
+                if (atom.isSymmetric() && l.compareTo(r) > 0 && termShape(left).equals(termShape(right))) {
+                    String tmp = l;
+                    l = r;
+                    r = tmp;
+                }
+                sb.append(atom.getSqlOperator()).append('(').append(l).append(',').append(r).append(')');
+            } else if (formula instanceof ManyFormulasContainer) {
+                List<Formula> members = new ArrayList<>();
+                ((ManyFormulasContainer) formula).forEach(members::add);
+                members.sort(Comparator.comparing(this::shape));  // stable: ties keep their original order
+                sb.append(containerName(formula)).append('[');
+                for (int i = 0; i < members.size(); i++) {
+                    if (i > 0) sb.append(';');
+                    serialize(members.get(i), sb);
+                }
+                sb.append(']');
+            } else if (formula instanceof Quantifier) {
+                Quantifier quantifier = (Quantifier) formula;
+                StringBuilder content = new StringBuilder();
+                serialize(quantifier.content, content);
+                // quantified variables not occurring in the content are named after the others
+                List<Variable> quantifiedVars = new ArrayList<>(quantifier.getQuantifiedVariables());
+                quantifiedVars.sort(Comparator.comparing(v -> colors.get(v.getName())));
+                SortedSet<String> names = new TreeSet<>();
+                for (Variable v : quantifiedVars) names.add(rename(v));
+                sb.append(containerName(formula)).append(names).append('(').append(content).append(')');
+            } else if (formula instanceof SingleFormulaContainer) {
+                sb.append(containerName(formula)).append('(');
+                serialize(((SingleFormulaContainer) formula).content, sb);
+                sb.append(')');
+            } else {
+                sb.append(containerName(formula));
+            }
+        }
+
+        private static String containerName(Formula formula) {
+            if (formula instanceof Conjunction) return "AND";
+            if (formula instanceof Disjunction) return "OR";
+            if (formula instanceof Negation) return "NOT";
+            if (formula instanceof Exist) return "EXISTS";
+            if (formula instanceof ForAll) return "FORALL";
+            if (formula instanceof True) return "TRUE";
+            if (formula instanceof False) return "FALSE";
+            return formula.getClass().getSimpleName();
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package ppmappingcompiler.fol;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of {@link CanonicalForm canonical forms}, meant for discarding formulas equal up to variable renaming.<br>
+ * Only the keys of the forms are kept (not their renamings), indexed by {@link CanonicalForm#getFingerprint() fingerprint}:
+ * when two forms have the same fingerprint their keys are compared, so that a fingerprint collision never makes
+ * two different formulas look equal. Keys colliding with a different one are kept aside.<br>
+ * Methods are NOT thread-safe.
+ */
+public final class CanonicalFormSet {
+
+    private final Map<Long, String> keys = new HashMap<>();
+    private Set<String> collidingKeys;    // created on the first collision
+
+    /**
+     * @return {@code true} if no form with the same key was in the set.
+     */
+    public boolean add(@Nonnull CanonicalForm form) {
+        return add(form.getFingerprint(), form.getKey());
+    }
+
+    boolean add(long fingerprint, String key) {
+        String previous = keys.putIfAbsent(fingerprint, key);
+        if (previous == null) return true;
+        if (previous.equals(key)) return false;
+        if (collidingKeys == null) collidingKeys = new HashSet<>();
+        return collidingKeys.add(key);
+    }
+
+    public int size() {
+        return keys.size() + (collidingKeys == null ? 0 : collidingKeys.size());
+    }
+
+}
@@ -0,0 +1,178 @@
+package ppmappingcompiler.fol;
+
+import org.semanticweb.owlapi.vocab.OWL2Datatype;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static ppmappingcompiler.util.BinaryContainer.readVarInt;
+import static ppmappingcompiler.util.BinaryContainer.writeVarInt;
+
+/**
+ * A compact, immutable encoding of an {@link OntologyPredicateAtom ontology predicate atom}, meant for storing
+ * large amounts of atoms (e.g., expanded policies).<br>
+ * The predicate and the terms are identifiers of a {@link SymbolTable symbol table}. Each term is encoded as a single
+ * {@code int}, whose lowest {@value #KIND_BITS} bits tell the kind of term:
+ * <ul>
+ *  <li> {@link #VARIABLE}: the symbol is the variable name;
+ *  <li> {@link #OBJECT_CONSTANT}: the symbol is the individual's IRI;
+ *  <li> {@link #DATA_CONSTANT}: the symbol is the datatype name followed by {@code ':'} and the value.
+ * </ul>
+ * The object model is rebuilt on demand through {@link #toAtom(SymbolTable)}. Variables are not bound to any query.
+ */
+public final class CompactAtom {
+
+    public static final int KIND_BITS = 2;
+    public static final int VARIABLE = 0;
+    public static final int OBJECT_CONSTANT = 1;
+    public static final int DATA_CONSTANT = 2;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    private static final char DATATYPE_SEPARATOR = ':';
+
+    private final int predicate;
+    private final OntologyPredicateAtom.Type type;
+    private final int[] terms;
+    private final int hash;
+
+    private CompactAtom(int predicate, OntologyPredicateAtom.Type type, int[] terms) {
+        this.predicate = predicate;
+        this.type = type;
+        this.terms = terms;
+        this.hash = 31 * (31 * predicate + type.ordinal()) + Arrays.hashCode(terms);
+    }
+
+    public static CompactAtom of(@Nonnull OntologyPredicateAtom atom, @Nonnull SymbolTable symbols) {
+        int[] terms = new int[atom.terms.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = encode(atom.terms.get(i), symbols);
+        }
+        return new CompactAtom(symbols.intern(atom.getPredicateIRI()), atom.getType(), terms);
+    }
+
+    /**
+     * This method writes the atom as varints: predicate, type, arity and term codes.
+     */
+    public void writeTo(@Nonnull OutputStream out) throws IOException {
+        writeVarInt(out, predicate);
+        writeVarInt(out, type.ordinal());
+        writeVarInt(out, terms.length);
+        for (int term : terms) writeVarInt(out, term);
+    }
+
+    /**
+     * This method reads an atom written by {@link #writeTo(OutputStream)}.
+     */
+    public static CompactAtom readFrom(@Nonnull ByteBuffer in) {
+        int predicate = readVarInt(in);
+        OntologyPredicateAtom.Type type = OntologyPredicateAtom.Type.values()[readVarInt(in)];
+        int[] terms = new int[readVarInt(in)];
+        for (int i = 0; i < terms.length; i++) terms[i] = readVarInt(in);
+        return new CompactAtom(predicate, type, terms);
+    }
+
+    /**
+     * @return The code of the given term in the given symbol table.
+     */
+    public static int encode(@Nonnull Term term, @Nonnull SymbolTable symbols) {
+        if (term instanceof Variable) {
+            return symbols.intern(((Variable) term).getName()) << KIND_BITS | VARIABLE;
+        }
+        if (term instanceof ObjectConstant) {
+            return symbols.intern(((ObjectConstant) term).getIRI()) << KIND_BITS | OBJECT_CONSTANT;
+        }
+        if (term instanceof DataConstant) {
+            DataConstant c = (DataConstant) term;
+            return symbols.intern(c.getDatatype().name() + DATATYPE_SEPARATOR + c.getValue()) << KIND_BITS | DATA_CONSTANT;
+        }
+        throw new IllegalArgumentException("Unsupported term: " + term);
+    }
+
+    /**
+     * @return The term having the given code in the given symbol table.
+     */
+    public static Term decode(int code, @Nonnull SymbolTable symbols) {
+        String symbol = symbols.symbol(symbolOf(code));
+        switch (kindOf(code)) {
+            case VARIABLE:
+                return new Variable(symbol);
+            case OBJECT_CONSTANT:
+                return new ObjectConstant(symbol);
+            case DATA_CONSTANT:
+                int separator = symbol.indexOf(DATATYPE_SEPARATOR);
+                return new DataConstant(symbol.substring(separator + 1), OWL2Datatype.valueOf(symbol.substring(0, separator)));
+            default:
+                throw new IllegalArgumentException("Invalid term code: " + code);
+        }
+    }
+
+    public static int kindOf(int code) {
+        return code & KIND_MASK;
+    }
+
+    public static int symbolOf(int code) {
+        return code >>> KIND_BITS;
+    }
+
+    public static boolean isVariable(int code) {
+        return kindOf(code) == VARIABLE;
+    }
+
+    public int getPredicate() {
+        return predicate;
+    }
+
+    public OntologyPredicateAtom.Type getType() {
+        return type;
+    }
+
+    public int getArity() {
+        return terms.length;
+    }
+
+    /**
+     * @return The code of the {@code index}-th term.
+     */
+    public int getTerm(int index) {
+        return terms[index];
+    }
+
+    /**
+     * This method rebuilds the atom in the object model.
+     *
+     * @param symbols The symbol table this atom has been encoded with.
+     */
+    public OntologyPredicateAtom toAtom(@Nonnull SymbolTable symbols) {
+        List<Term> termList = new ArrayList<>(terms.length);
+        for (int code : terms) termList.add(decode(code, symbols));
+        try {
+            return new OntologyPredicateAtom(symbols.symbol(predicate), termList, type);
+        } catch (Exception e) {
+            // the atom was valid when encoded
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof CompactAtom)) return false;
+        CompactAtom a = (CompactAtom) obj;
+        return hash == a.hash && predicate == a.predicate && type == a.type && Arrays.equals(terms, a.terms);
+    }
+
+    @Override
+    public String toString() {
+        return predicate + Arrays.toString(terms);
+    }
+
+}
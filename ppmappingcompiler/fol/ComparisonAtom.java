@@ -43,6 +43,13 @@ public abstract class ComparisonAtom extends Atom {
         return this.sqlOperator;
     }
 
+    /**
+     * @return {@code true} if the operands of this comparison can be swapped without changing its meaning.
+     */
+    public boolean isSymmetric() {
+        return this.symmetric;
+    }
+
     /**
      * This method returns the {@link Term terms} occurring in this atom.<br>
      * It is overridden for preserving the terms' order.
@@ -107,11 +114,11 @@ public abstract class ComparisonAtom extends Atom {
 
     @Override
     public int hashCode() {
-        List<Object> list = new ArrayList<>(Arrays.asList(left.hashCode(), right.hashCode()));
-        // for symmetric comparisons, sort terms for ensuring that "x!=y" and "y!=x" has same hashcode
-        if (this.symmetric) list.sort(Comparator.comparing(Object::toString));
-        list.add(this.getClass()); // "x>y" and "x<y" must have different hashcodes
-        return list.hashCode();
+        // for symmetric comparisons, combine terms commutatively for ensuring that "x!=y" and "y!=x" has same hashcode
+        int terms = this.symmetric
+                ? left.hashCode() + right.hashCode()
+                : 31 * left.hashCode() + right.hashCode();
+        return 31 * getClass().getName().hashCode() + terms; // "x>y" and "x<y" must have different hashcodes
     }
 
     @Override
@@ -143,26 +150,24 @@ public abstract class ComparisonAtom extends Atom {
     }
 
     @Override
-    protected void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames) {
+    protected void explicitVariablesAux(@Nonnull FreshNameSupply names) {
         if (left instanceof Variable) {
             Variable oldVar = ((Variable) left);
             if (oldVar.isUndistinguishedNonShared()) {
-                String newVarName = Formula.getFreshVariableName(alphabet, reservedNames);
+                String newVarName = names.next();
                 Variable newVar = oldVar.clone();
                 newVar.setName(newVarName);
                 left = newVar;
-                reservedNames.add(newVarName);
             }
         }
 
         if (right instanceof Variable) {
             Variable oldVar = ((Variable) right);
             if (oldVar.isUndistinguishedNonShared()) {
-                String newVarName = Formula.getFreshVariableName(alphabet, reservedNames);
+                String newVarName = names.next();
                 Variable newVar = oldVar.clone();
                 newVar.setName(newVarName);
                 right = newVar;
-                reservedNames.add(newVarName);
             }
         }
     }
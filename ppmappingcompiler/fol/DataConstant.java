@@ -10,6 +10,7 @@ import static org.semanticweb.owlapi.vocab.OWL2Datatype.XSD_STRING;
 public class DataConstant extends Constant {
     private final String value;
     private final OWL2Datatype datatype;
+    private final int hash;
 
     @SuppressWarnings("unused")
     //TODO: make public when also other data types will be accepted
@@ -21,6 +22,7 @@ public class DataConstant extends Constant {
     public DataConstant(String value, OWL2Datatype datatype) {
         this.value = value;
         this.datatype = datatype != null ? datatype : XSD_STRING;
+        this.hash = 31 * DataConstant.class.getName().hashCode() + value.hashCode();
     }
 
     public String getValue() {
@@ -44,14 +46,15 @@ public class DataConstant extends Constant {
     @Override
     public int hashCode() {
         // the class is important because a Variable, a DataConstant and a ObjectConstant must always have different hashcodes
-        return (getClass() + this.value).hashCode();
+        return this.hash;
     }
 
     @Override
     public boolean equals(Object obj) {
         if (getClass() != obj.getClass())
             return false;
-        return this.value.equals(((DataConstant) obj).value);
+        DataConstant c = (DataConstant) obj;
+        return this.hash == c.hash && this.value.equals(c.value);
     }
 
     @Override
@@ -94,7 +94,7 @@ public class False extends Atom {
     }
 
     @Override
-    protected void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames) {
+    protected void explicitVariablesAux(@Nonnull FreshNameSupply names) {
         // do nothing
     }
 
@@ -1,7 +1,6 @@
 package ppmappingcompiler.fol;
 
 import com.google.common.collect.ImmutableSet;
-import ppmappingcompiler.db.SQLUtils;
 import ppmappingcompiler.policy.ConjunctiveQuery;
 import ppmappingcompiler.util.Utils;
 
@@ -77,15 +76,30 @@ public abstract class Formula implements Cloneable {
 
     /**
      * Example input:  ∃x,y (R(x,y) v ∀y (S(x,y)))
-     * Example output: ∃x,y (R(x,y) v ∀z (S(x,z)))
+     * Example output: ∃x,y (R(x,y) v ∀z (S(x,z)))<br>
+     * Names are compared case-insensitively, and all the quantified variables of the formula get distinct names
+     * (including the ones of sibling quantifiers), whether or not the reserved names are updated.
      *
      * @param variablesAlphabet The variables' alphabet.
      * @param reservedNames     Variables names that should not be chosen.
      * @param update            Update the set of reserved variable names (default: {@code false}).
      */
-    public abstract void distinguishQuantifiedVariables(Set<String> variablesAlphabet,
-                                                        Set<String> reservedNames,
-                                                        boolean update);
+    public void distinguishQuantifiedVariables(Set<String> variablesAlphabet,
+                                               Set<String> reservedNames,
+                                               boolean update) {
+        FreshNameSupply names = new FreshNameSupply(variablesAlphabet, reservedNames);
+        distinguishQuantifiedVariables(names);
+        if (update) {
+            // the names of the quantified variables that have been kept are reserved as well
+            reservedNames.addAll(getVariablesNames());
+        }
+    }
+
+    /**
+     * This method renames the quantified variables clashing with the reserved names of the supply,
+     * or with the variables quantified by an enclosing quantifier.
+     */
+    protected abstract void distinguishQuantifiedVariables(FreshNameSupply names);
 
     public void distinguishQuantifiedVariables(Set<String> variablesAlphabet) {
         Set<String> reservedNames = getFreeVariables().stream()
@@ -207,17 +221,9 @@ public abstract class Formula implements Cloneable {
      * @return An unused variable name.
      */
     public static String getFreshVariableName(Set<String> alphabet, Set<String> reservedNames, boolean updateReservedNames) {
-        Set<String> upperCaseReservedNames = reservedNames.stream().map(String::toUpperCase).collect(Collectors.toSet());
-        Set<String> possibleVariables = new HashSet<>(alphabet);
-        while (true) {
-            for (String newVar : possibleVariables) {
-                if (!upperCaseReservedNames.contains(newVar.toUpperCase()) && !SQLUtils.isSQLReservedWord(newVar)) {
-                    if (updateReservedNames) reservedNames.add(newVar);
-                    return newVar;
-                }
-            }
-            possibleVariables = Utils.stringCartesianProduct(possibleVariables, alphabet);
-        }
+        String newVar = new FreshNameSupply(alphabet, reservedNames).next();
+        if (updateReservedNames) reservedNames.add(newVar);
+        return newVar;
     }
 
     public static String getFreshVariableName(Set<String> alphabet, Set<String> reservedNames) {
@@ -262,14 +268,15 @@ public abstract class Formula implements Cloneable {
             alphabet = getActiveVariablesAlphabet();
         }
 
-        if (reservedNames.isEmpty())
-            reservedNames = new HashSet<>(getVariablesNames());
-        else reservedNames.addAll(getVariablesNames());
+        if (!reservedNames.isEmpty()) reservedNames.addAll(getVariablesNames());
 
-        this.explicitVariablesAux(alphabet, reservedNames);
+        FreshNameSupply names = new FreshNameSupply(alphabet, getVariablesNames());
+        names.reserveAll(reservedNames);
+        this.explicitVariablesAux(names);
+        if (!reservedNames.isEmpty()) reservedNames.addAll(names.getIssuedNames());
     }
 
-    protected abstract void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames);
+    protected abstract void explicitVariablesAux(@Nonnull FreshNameSupply names);
 
     public abstract void bindVariablesToQuery(ConjunctiveQuery cq);
 
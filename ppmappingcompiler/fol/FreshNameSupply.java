@@ -0,0 +1,115 @@
+package ppmappingcompiler.fol;
+
+import ppmappingcompiler.db.SQLUtils;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * A stateful generator of fresh variable names, meant to be shared by all the renamings of a formula
+ * (or of a whole compilation unit).<br>
+ * Names are enumerated by length and then in lexicographic order over the (sorted) alphabet, e.g.
+ * {@code a, b, ..., z, aa, ab, ...}: each candidate is generated from a counter, hence it is checked only once,
+ * and producing a fresh name takes constant amortized time.<br>
+ * Alternatively, a supply can produce {@link #numbered(String, Collection) numbered names}
+ * ({@code x1, x2, ...}).<br>
+ * Comparisons between names are case-insensitive. SQL reserved words are never returned.<br>
+ * A supply is not thread-safe: it is meant to be confined to the thread renaming a formula.
+ */
+public class FreshNameSupply {
+
+    private final String[] alphabet;
+    private final String prefix;    // only for numbered names
+    private final Set<String> reservedNames = new HashSet<>();    // upper case
+    private final List<String> issuedNames = new ArrayList<>();
+    private long counter = 0;
+
+    /**
+     * @param alphabet      The allowed variable names, which are concatenated when exhausted.
+     * @param reservedNames The names that should not be chosen.
+     */
+    public FreshNameSupply(@Nonnull Collection<String> alphabet, @Nonnull Collection<String> reservedNames) {
+        Set<String> sortedAlphabet = new TreeSet<>(alphabet);
+        sortedAlphabet.remove("");
+        if (sortedAlphabet.isEmpty()) throw new IllegalArgumentException("Empty variables' alphabet");
+        this.alphabet = sortedAlphabet.toArray(new String[0]);
+        this.prefix = null;
+        reserveAll(reservedNames);
+    }
+
+    private FreshNameSupply(@Nonnull String prefix, @Nonnull Collection<String> reservedNames) {
+        this.alphabet = null;
+        this.prefix = prefix;
+        reserveAll(reservedNames);
+    }
+
+    /**
+     * @param prefix        The prefix of all names.
+     * @param reservedNames The names that should not be chosen.
+     * @return A supply of the names {@code prefix1, prefix2, ...}.
+     */
+    public static FreshNameSupply numbered(@Nonnull String prefix, @Nonnull Collection<String> reservedNames) {
+        return new FreshNameSupply(prefix, reservedNames);
+    }
+
+    /**
+     * @return A name which is neither reserved nor a SQL reserved word. The name becomes reserved.
+     */
+    public String next() {
+        while (true) {
+            String name = nameOf(counter++);
+            if (!isReserved(name) && !SQLUtils.isSQLReservedWord(name)) {
+                reserve(name);
+                issuedNames.add(name);
+                return name;
+            }
+        }
+    }
+
+    /**
+     * @return A variable whose name is {@link #next() fresh}.
+     */
+    public Variable nextVariable() {
+        return new Variable(next());
+    }
+
+    public void reserve(@Nonnull String name) {
+        reservedNames.add(name.toUpperCase());
+    }
+
+    public void reserveAll(@Nonnull Collection<String> names) {
+        for (String name : names) reserve(name);
+    }
+
+    public boolean isReserved(@Nonnull String name) {
+        return reservedNames.contains(name.toUpperCase());
+    }
+
+    /**
+     * @return The names returned by {@link #next()} so far, in order.
+     */
+    public List<String> getIssuedNames() {
+        return Collections.unmodifiableList(issuedNames);
+    }
+
+    /*===================*
+     * AUXILIARY METHODS *
+     *===================*/
+
+    /**
+     * This method maps a counter to a name, in bijective base-{@code n} numeration
+     * ({@code n} being the size of the alphabet), or to a numbered name.
+     */
+    private String nameOf(long n) {
+        if (prefix != null) return prefix + (n + 1);
+        int base = alphabet.length;
+        Deque<String> symbols = new ArrayDeque<>();
+        long i = n;
+        do {
+            symbols.push(alphabet[(int) (i % base)]);
+            i = i / base - 1;
+        } while (i >= 0);
+        return String.join("", symbols);
+    }
+
+}
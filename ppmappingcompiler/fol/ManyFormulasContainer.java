@@ -17,7 +17,7 @@ import java.util.stream.Stream;
 public abstract class ManyFormulasContainer extends FormulaContainer implements Iterable<Formula> {
 
     protected List<Formula> formulas = new ArrayList<>();
-    private final List<Class<? extends ManyFormulasContainer>> DIRECT_SUBCLASSES = Arrays.asList(Conjunction.class, Disjunction.class);
+    private static final List<Class<? extends ManyFormulasContainer>> DIRECT_SUBCLASSES = Arrays.asList(Conjunction.class, Disjunction.class);
 
     public ManyFormulasContainer() {
     }
@@ -216,10 +216,8 @@ public abstract class ManyFormulasContainer extends FormulaContainer implements
     }
 
     @Override
-    public void distinguishQuantifiedVariables(Set<String> variablesAlphabet, Set<String> reservedNames, boolean update) {
-        this.formulas.forEach(
-                f -> f.distinguishQuantifiedVariables(variablesAlphabet, reservedNames, update)
-        );
+    protected void distinguishQuantifiedVariables(FreshNameSupply names) {
+        this.formulas.forEach(f -> f.distinguishQuantifiedVariables(names));
     }
 
     public int size() {
@@ -318,8 +316,13 @@ public abstract class ManyFormulasContainer extends FormulaContainer implements
     @Override
     public int hashCode() {
         for (Class<? extends ManyFormulasContainer> tClass : DIRECT_SUBCLASSES) {
-            if (tClass.isAssignableFrom(this.getClass()))
-                return (tClass.toString() + Objects.hash(formulas)).hashCode();
+            if (tClass.isAssignableFrom(this.getClass())) {
+                int h = tClass.getName().hashCode();
+                for (int i = 0; i < formulas.size(); i++) {
+                    h = 31 * h + formulas.get(i).hashCode();
+                }
+                return h;
+            }
         }
         throw new RuntimeException();
     }
@@ -334,8 +337,9 @@ public abstract class ManyFormulasContainer extends FormulaContainer implements
                     return this.formulas.equals(sof.formulas);
                 }
             }
-            return this.size() == 1 && this.iterator().next().equals(sof) ||
-                    sof.size() == 1 && sof.iterator().next().equals(this);
+            // do NOT use iterator() here, since it clones all the members
+            return this.size() == 1 && this.formulas.get(0).equals(sof) ||
+                    sof.size() == 1 && sof.formulas.get(0).equals(this);
         } else return false;
     }
 
@@ -345,8 +349,8 @@ public abstract class ManyFormulasContainer extends FormulaContainer implements
      *===================*/
 
     @Override
-    protected void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames) {
-        this.forEach(f -> f.explicitVariablesAux(alphabet, reservedNames));
+    protected void explicitVariablesAux(@Nonnull FreshNameSupply names) {
+        this.forEach(f -> f.explicitVariablesAux(names));
     }
 
     @Override
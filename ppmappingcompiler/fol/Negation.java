@@ -5,7 +5,6 @@ import ppmappingcompiler.policy.ConjunctiveQuery;
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 
 public class Negation extends SingleFormulaContainer {
@@ -67,8 +66,8 @@ public class Negation extends SingleFormulaContainer {
     }
 
     @Override
-    public void distinguishQuantifiedVariables(Set<String> variablesAlphabet, Set<String> reservedNames, boolean update) {
-        this.content.distinguishQuantifiedVariables(variablesAlphabet, reservedNames, update);
+    protected void distinguishQuantifiedVariables(FreshNameSupply names) {
+        this.content.distinguishQuantifiedVariables(names);
     }
 
     @Override
@@ -89,7 +88,7 @@ public class Negation extends SingleFormulaContainer {
     @Override
     public int hashCode() {
         // the class makes the hashcode be different from the content's one
-        return (getClass().toString() + Objects.hash(this.content)).hashCode();
+        return 31 * getClass().getName().hashCode() + this.content.hashCode();
     }
 
     @Override
@@ -116,8 +115,8 @@ public class Negation extends SingleFormulaContainer {
     }
 
     @Override
-    protected void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames) {
-        this.content.explicitVariablesAux(alphabet, reservedNames);
+    protected void explicitVariablesAux(@Nonnull FreshNameSupply names) {
+        this.content.explicitVariablesAux(names);
     }
 
     @Override
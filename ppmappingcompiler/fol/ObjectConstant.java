@@ -7,10 +7,12 @@ package ppmappingcompiler.fol;
 public class ObjectConstant extends Constant {
 
     private final String iri;
+    private final int hash;
 
     @SuppressWarnings("unused")
     public ObjectConstant(String iri) {
-        this.iri = iri;
+        this.iri = SymbolTable.canonical(iri);
+        this.hash = 31 * ObjectConstant.class.getName().hashCode() + iri.hashCode();
     }
 
     public String getIRI() {
@@ -30,14 +32,15 @@ public class ObjectConstant extends Constant {
     @Override
     public int hashCode() {
         // the class is important because a Variable, a DataConstant and a ObjectConstant must always have different hashcodes
-        return (getClass() + this.iri).hashCode();
+        return this.hash;
     }
 
     @Override
     public boolean equals(Object obj) {
         if (getClass() != obj.getClass())
             return false;
-        return this.iri.equals(((ObjectConstant) obj).iri);
+        ObjectConstant c = (ObjectConstant) obj;
+        return this.hash == c.hash && this.iri.equals(c.iri);
     }
 
     @Override
@@ -40,7 +40,7 @@ public class OntologyPredicateAtom extends PredicateAtom {
     public OntologyPredicateAtom(String predicateIRI, List<? extends Term> terms, Type type) throws URISyntaxException, PredicateArityException, TermTypeException {
         super(OntologyUtils.getPredicateNameFromIRI(predicateIRI), terms);
         this.type = type == Type.UNDEFINED ? guessType(this.terms) : type;
-        this.predicateIRI = predicateIRI;
+        this.predicateIRI = SymbolTable.canonical(predicateIRI);
 
         this.arityCheck();
         this.setVariablesType();
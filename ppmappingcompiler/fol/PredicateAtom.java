@@ -16,9 +16,10 @@ public class PredicateAtom extends Atom {
 
     protected final String predicateName;
     protected List<Term> terms;    // the order matters!
+    private int predicateHash;     // cached hashcode of class and predicate (0 = not computed yet)
 
     public PredicateAtom(String predicateName, List<? extends Term> terms) {
-        this.predicateName = predicateName;
+        this.predicateName = SymbolTable.canonical(predicateName);
         this.terms = terms.stream().map(t -> (Term) t).collect(Collectors.toList());
     }
 
@@ -154,6 +155,17 @@ public class PredicateAtom extends Atom {
      * it does side effect on the collection of reserved variable names.
      */
     public Formula explode(Set<String> variablesAlphabet, Set<String> reservedNames, boolean updateReservedNames) {
+        FreshNameSupply names = new FreshNameSupply(variablesAlphabet, reservedNames);
+        Formula result = explode(names);
+        if (updateReservedNames) reservedNames.addAll(names.getIssuedNames());
+        return result;
+    }
+
+    /**
+     * This method is the same as {@link #explode(Set, Set, boolean)}, but it takes the fresh variables from a supply,
+     * which can be shared by all the atoms of a formula.
+     */
+    public Formula explode(FreshNameSupply names) {
         PredicateAtom newPredicateAtom = this.clone();
         Set<Variable> newVariables = new HashSet<>();
         Set<Equality> equalities = new HashSet<>();
@@ -164,7 +176,7 @@ public class PredicateAtom extends Atom {
             if (term instanceof Variable && !foundVariables.contains(term)) {
                 foundVariables.add((Variable) term);
             } else {
-                Variable newVar = Formula.getFreshVariable(variablesAlphabet, reservedNames, updateReservedNames);
+                Variable newVar = names.nextVariable();
                 newVariables.add(newVar);
                 newPredicateAtom.terms.set(index, newVar);
                 equalities.add(new Equality(term, newVar));
@@ -203,9 +215,18 @@ public class PredicateAtom extends Atom {
         return clone;
     }
 
+    /**
+     * This method overrides the {@link Object#hashCode()} one.<br>
+     * Only the hashcode of the predicate is cached here: terms may be shared with other atoms and mutated
+     * from outside, therefore their (cached) hashcodes are combined at every call.
+     */
     @Override
     public int hashCode() {
-        return (getClass().toString() + getPredicateIdentifier() + Objects.hash(terms)).hashCode();
+        int h = predicateHash();
+        for (int i = 0; i < terms.size(); i++) {
+            h = 31 * h + terms.get(i).hashCode();
+        }
+        return h;
     }
 
     @Override
@@ -213,7 +234,22 @@ public class PredicateAtom extends Atom {
         if (getClass() != obj.getClass())
             return false;
         PredicateAtom atom = (PredicateAtom) obj;
-        return this.isSamePredicate(atom) && this.terms.equals(atom.terms);
+        if (this.predicateHash() != atom.predicateHash() || !this.isSamePredicate(atom))
+            return false;
+        for (int i = 0; i < terms.size(); i++) {
+            if (!this.terms.get(i).equals(atom.terms.get(i))) return false;
+        }
+        return true;
+    }
+
+    private int predicateHash() {
+        int h = this.predicateHash;
+        if (h == 0) {
+            // the identifier is computed by subclasses, hence it cannot be hashed in the constructor
+            h = 31 * getClass().getName().hashCode() + getPredicateIdentifier().hashCode();
+            this.predicateHash = h;
+        }
+        return h;
     }
 
     public String toSparql() {
@@ -265,17 +301,15 @@ public class PredicateAtom extends Atom {
     }
 
     @Override
-    protected void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames) {
+    protected void explicitVariablesAux(@Nonnull FreshNameSupply names) {
         for (int index = 0; index < this.terms.size(); index++) {
             Term term = this.terms.get(index);
             if (term instanceof Variable) {
                 Variable oldVar = ((Variable) term);
                 if (oldVar.isUndistinguishedNonShared()) {
-                    String newVarName = Formula.getFreshVariableName(alphabet, reservedNames);
                     Variable newVar = oldVar.clone();
-                    newVar.setName(newVarName);
+                    newVar.setName(names.next());
                     this.terms.set(index, newVar);
-                    reservedNames.add(newVarName);
                 }
             }
         }
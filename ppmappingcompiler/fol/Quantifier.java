@@ -107,23 +107,23 @@ public abstract class Quantifier extends SingleFormulaContainer {
     }
 
     @Override
-    public void distinguishQuantifiedVariables(Set<String> variablesAlphabet, Set<String> reservedNames, boolean update) {
+    protected void distinguishQuantifiedVariables(FreshNameSupply names) {
         for (Variable v : this.getQuantifiedVariables()) {
-            if (reservedNames.contains(v.getName())) {
-                Variable freshVariable = getFreshVariable(variablesAlphabet, reservedNames, update);
+            if (names.isReserved(v.getName())) {
+                Variable freshVariable = names.nextVariable();
                 this.replaceVariables(new HashMap<Variable, Variable>() {{
                     put(v, freshVariable);
                 }});
             } else {
-                if (update) reservedNames.add(v.getName());
+                names.reserve(v.getName());
             }
         }
-        this.content.distinguishQuantifiedVariables(variablesAlphabet, reservedNames, update);
+        this.content.distinguishQuantifiedVariables(names);
     }
 
     @Override
     public int hashCode() {
-        return (getClass().toString() + Objects.hash(quantifiedVars) + content.hashCode()).hashCode();
+        return 31 * (31 * getClass().getName().hashCode() + quantifiedVars.hashCode()) + content.hashCode();
     }
 
     @Override
@@ -172,8 +172,8 @@ public abstract class Quantifier extends SingleFormulaContainer {
     }
 
     @Override
-    protected void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames) {
-        this.content.explicitVariablesAux(alphabet, reservedNames);
+    protected void explicitVariablesAux(@Nonnull FreshNameSupply names) {
+        this.content.explicitVariablesAux(names);
     }
 
     @Override
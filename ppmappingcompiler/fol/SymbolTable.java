@@ -0,0 +1,73 @@
+package ppmappingcompiler.fol;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A symbol table maps strings (predicate IRIs, variable names, constants) to dense integer identifiers.<br>
+ * It is meant to be created once per run and shared by all the {@link CompactAtom compact atoms} built in that run,
+ * so that each distinct symbol is stored only once.<br>
+ * Identifiers are assigned in order of first occurrence, starting from 0. Methods are thread-safe.
+ */
+public class SymbolTable {
+
+    // JVM-wide pool of canonical instances, used by the object model (see canonical(String))
+    private static final Interner<String> CANONICAL_STRINGS = Interners.newWeakInterner();
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> symbols = new ArrayList<>();
+
+    /**
+     * @return The identifier of the given symbol, which is added to the table if not present yet.
+     */
+    public synchronized int intern(@Nonnull String symbol) {
+        Integer id = ids.get(symbol);
+        if (id == null) {
+            id = symbols.size();
+            symbol = canonical(symbol);
+            ids.put(symbol, id);
+            symbols.add(symbol);
+        }
+        return id;
+    }
+
+    /**
+     * @return The identifier of the given symbol, or -1 if the symbol is not in the table.
+     */
+    public synchronized int lookup(@Nonnull String symbol) {
+        return ids.getOrDefault(symbol, -1);
+    }
+
+    /**
+     * @return The symbol having the given identifier.
+     * @throws IndexOutOfBoundsException If no symbol has the given identifier.
+     */
+    public synchronized String symbol(int id) {
+        return symbols.get(id);
+    }
+
+    public synchronized int size() {
+        return symbols.size();
+    }
+
+    /**
+     * This method returns a canonical instance for the given string, so that equal strings stored by
+     * different objects (e.g., the IRI of the same predicate in millions of atoms) share the same instance.<br>
+     * Canonical instances are weakly referenced, hence they are garbage-collected when no longer used.
+     */
+    public static String canonical(String s) {
+        return s == null ? null : CANONICAL_STRINGS.intern(s);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return symbols.toString();
+    }
+
+}
@@ -95,7 +95,7 @@ public class True extends Atom {
     }
 
     @Override
-    protected void explicitVariablesAux(@Nonnull Set<String> alphabet, @Nonnull Set<String> reservedNames) {
+    protected void explicitVariablesAux(@Nonnull FreshNameSupply names) {
         // do nothing
     }
 
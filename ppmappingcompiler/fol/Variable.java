@@ -2,23 +2,24 @@ package ppmappingcompiler.fol;
 
 import ppmappingcompiler.Logger;
 import ppmappingcompiler.policy.ConjunctiveQuery;
-import ppmappingcompiler.policy.OntologyConjunctiveQuery;
 
 public class Variable extends Term {
 
     private String name;            // a variable is identified by its name
     private ConjunctiveQuery query;    // and eventually by a query it belongs to
     private Term.Type type = Type.UNDEFINED;
+    private int hash;                  // cached hashcode (0 = not computed yet)
     public static final String BLANK_VAR_SYMBOL = "_";
+    private static final int CLASS_HASH = Variable.class.getName().hashCode();
 
     @SuppressWarnings("unused")
     public Variable(String variableName) {
-        this.name = variableName;
+        this.name = SymbolTable.canonical(variableName);
     }
 
     @SuppressWarnings("unused")
     public Variable(String variableName, ConjunctiveQuery query) {
-        this.name = variableName;
+        this.name = SymbolTable.canonical(variableName);
         bindToQuery(query);
     }
 
@@ -27,7 +28,8 @@ public class Variable extends Term {
     }
 
     public void setName(String newName) {
-        this.name = newName;
+        this.name = SymbolTable.canonical(newName);
+        this.hash = 0;
     }
 
     @Override
@@ -46,21 +48,10 @@ public class Variable extends Term {
         if (query == null)
             throw new RuntimeException("You cannot bind a variable to a 'null' query.");
         this.query = query;
+        this.hash = 0;
 
         // deduce variable type from query
-        if (query instanceof OntologyConjunctiveQuery) {
-            for (OntologyPredicateAtom atom : ((OntologyConjunctiveQuery) query).getAllPredicateAtoms()) {
-                if (this.type == Type.UNDEFINED) {
-                    for (int index = 0; index < atom.getTerms().size(); index++) {
-                        Term t = atom.getTerm(index);
-                        if (t instanceof Variable && ((Variable) t).name.equals(this.name)) {
-                            this.type = atom.getType() == OntologyPredicateAtom.Type.ATTRIBUTE && index == 1 ?
-                                    Type.DATA : Type.OBJECT;
-                        }
-                    }
-                }
-            }
-        }
+        if (this.type == Type.UNDEFINED) this.type = query.inferVariableType(this.name);
     }
 
     public boolean isUndistinguishedNonShared() {
@@ -73,6 +64,7 @@ public class Variable extends Term {
 
     public void unbind() {
         this.query = null;
+        this.hash = 0;
     }
 
     public ConjunctiveQuery getQuery() {
@@ -91,7 +83,13 @@ public class Variable extends Term {
     @Override
     public int hashCode() {
         // the class is important because a Variable, a DataConstant and a ObjectConstant must always have different hashcodes
-        return (getClass() + this.name + (query == null ? 0 : query.hashCode())).hashCode();
+        // the query is compared by identity (see equals), hence its identity hashcode is enough
+        int h = this.hash;
+        if (h == 0) {
+            h = 31 * (31 * CLASS_HASH + this.name.hashCode()) + System.identityHashCode(this.query);
+            this.hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -99,6 +97,8 @@ public class Variable extends Term {
         if (getClass() != obj.getClass())
             return false;
         Variable v = (Variable) obj;
+        if (this.hash != 0 && v.hash != 0 && this.hash != v.hash)
+            return false;
 
         // Here do NOT use ConjunctiveQuery::equals for checking equality between CQs, because:
         // 1. the query must be the exact same object
@@ -55,8 +55,7 @@ public abstract class BCQParser {
 
     public static BCQParser guessParserFromSampleQuery(String query) {
         for (BCQParser parser : Arrays.asList(
-                new DatalogBCQParser(),
-                new SparqlBCQParser()
+                new DatalogBCQParser()
         )) {
             if (parser.canBeParsedAs(query, ConjunctiveQuery.class)) return parser;
         }
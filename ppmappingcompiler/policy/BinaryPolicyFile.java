@@ -0,0 +1,85 @@
+package ppmappingcompiler.policy;
+
+import ppmappingcompiler.fol.SymbolTable;
+import ppmappingcompiler.util.BinaryContainer;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads and writes a policy (i.e., a list of {@link OntologyConjunctiveQuery denials}) as a
+ * {@link BinaryContainer binary container}, as an alternative to a JSON array of Datalog rules.<br>
+ * Each record is a {@link CompactConjunctiveQuery compact query} and is indexed by the identifiers of the predicates
+ * it uses, so that the rules involving a predicate can be read without decoding the whole policy.<br>
+ * Since rules are stored already parsed, no parser (hence no ontology) is needed to read them back.
+ */
+public final class BinaryPolicyFile {
+
+    private static final int KIND = 1;
+
+    private BinaryPolicyFile() {
+    }
+
+    public static class Writer implements Closeable {
+        private final SymbolTable symbols = new SymbolTable();
+        private final BinaryContainer.Writer container;
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+        public Writer(@Nonnull OutputStream outputStream) throws IOException {
+            this.container = new BinaryContainer.Writer(outputStream, KIND, symbols);
+        }
+
+        public void add(@Nonnull OntologyConjunctiveQuery query) throws IOException {
+            CompactConjunctiveQuery q = CompactConjunctiveQuery.of(query, symbols);
+            record.reset();
+            q.writeTo(record);
+            int[] predicates = new int[q.getAtomCount()];
+            for (int i = 0; i < predicates.length; i++) predicates[i] = q.getAtom(i).getPredicate();
+            container.add(record.toByteArray(), predicates);
+        }
+
+        @Override
+        public void close() throws IOException {
+            container.close();
+        }
+    }
+
+    /**
+     * @return The rules of the policy, in the same order as in the file.
+     */
+    public static List<OntologyConjunctiveQuery> load(@Nonnull Path path) throws IOException {
+        BinaryContainer.Reader reader = open(path);
+        List<OntologyConjunctiveQuery> rules = new ArrayList<>(reader.size());
+        for (int i = 0; i < reader.size(); i++) {
+            rules.add(CompactConjunctiveQuery.readFrom(reader.getRecord(i)).toQuery(reader.getSymbols()));
+        }
+        return rules;
+    }
+
+    /**
+     * @return The rules of the policy using the given predicate, in the same order as in the file.
+     */
+    public static List<OntologyConjunctiveQuery> load(@Nonnull Path path, @Nonnull String predicateIRI) throws IOException {
+        BinaryContainer.Reader reader = open(path);
+        List<OntologyConjunctiveQuery> rules = new ArrayList<>();
+        int predicate = reader.getSymbols().lookup(predicateIRI);
+        if (predicate < 0) return rules;
+        for (int i : reader.getRecordsByKey(predicate)) {
+            rules.add(CompactConjunctiveQuery.readFrom(reader.getRecord(i)).toQuery(reader.getSymbols()));
+        }
+        return rules;
+    }
+
+    private static BinaryContainer.Reader open(Path path) throws IOException {
+        BinaryContainer.Reader reader = BinaryContainer.Reader.open(path);
+        if (reader.getKind() != KIND) throw new IOException("Not a binary policy file: " + path);
+        return reader;
+    }
+
+}
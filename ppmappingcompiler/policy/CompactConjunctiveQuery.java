@@ -0,0 +1,225 @@
+package ppmappingcompiler.policy;
+
+import ppmappingcompiler.fol.*;
+import ppmappingcompiler.fol.Term.TermTypeException;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static ppmappingcompiler.util.BinaryContainer.readVarInt;
+import static ppmappingcompiler.util.BinaryContainer.writeVarInt;
+
+/**
+ * A compact, immutable encoding of an {@link OntologyConjunctiveQuery ontology CQ}, made of
+ * {@link CompactAtom compact atoms} and of comparisons between term codes of the same {@link SymbolTable symbol table}.<br>
+ * It is meant for keeping large sets of queries (e.g., expanded policies) in memory: the object model is rebuilt
+ * on demand through {@link #toQuery(SymbolTable)}.
+ */
+public final class CompactConjunctiveQuery {
+
+    private static final int EQUALITY = 0;
+    private static final int STRICT_INEQUALITY = 1;
+
+    private final CompactAtom[] atoms;
+    private final int[] comparisons;    // triples (operator, left term code, right term code)
+    private final int hash;
+
+    private CompactConjunctiveQuery(CompactAtom[] atoms, int[] comparisons) {
+        this.atoms = atoms;
+        this.comparisons = comparisons;
+        this.hash = 31 * Arrays.hashCode(atoms) + Arrays.hashCode(comparisons);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the query contains atoms other than ontology atoms, equalities and strict inequalities.
+     */
+    public static CompactConjunctiveQuery of(@Nonnull OntologyConjunctiveQuery query, @Nonnull SymbolTable symbols) {
+        // every occurrence of "_" is a distinct variable, while in a symbol table they would share the same code
+        if (query.getVariables().stream().anyMatch(Variable::isUndistinguishedNonShared)) {
+            query = query.clone();
+            query.explicitNondistinguishedNonsharedVariables();
+        }
+        List<CompactAtom> atoms = new ArrayList<>();
+        List<Integer> comparisons = new ArrayList<>();
+        for (Atom atom : query.getAtoms()) {
+            if (atom instanceof OntologyPredicateAtom) {
+                atoms.add(CompactAtom.of((OntologyPredicateAtom) atom, symbols));
+            } else if (atom instanceof Equality || atom instanceof StrictInequality) {
+                ComparisonAtom comparison = (ComparisonAtom) atom;
+                comparisons.add(comparison instanceof Equality ? EQUALITY : STRICT_INEQUALITY);
+                comparisons.add(CompactAtom.encode(comparison.getLeftTerm(), symbols));
+                comparisons.add(CompactAtom.encode(comparison.getRightTerm(), symbols));
+            } else {
+                throw new IllegalArgumentException("Unsupported atom: " + atom);
+            }
+        }
+        return new CompactConjunctiveQuery(
+                atoms.toArray(new CompactAtom[0]),
+                comparisons.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    public int size() {
+        return atoms.length + comparisons.length / 3;
+    }
+
+    public CompactAtom getAtom(int index) {
+        return atoms[index];
+    }
+
+    public int getAtomCount() {
+        return atoms.length;
+    }
+
+    /**
+     * This method checks whether this query is contained in (i.e., it is more specific than) another one,
+     * by searching for a homomorphism from the other query to this one.<br>
+     * The homomorphism maps atoms to atoms with the same predicate, and it must map equalities (resp. inequalities)
+     * to pairs of terms that are equal (resp. explicitly different) in this query.
+     * The test is sound but, in the presence of comparisons, it may miss some containments.
+     *
+     * @param other A query encoded with the same symbol table.
+     * @return {@code true} if every database satisfying this query also satisfies {@code other}.
+     */
+    public boolean isContainedIn(@Nonnull CompactConjunctiveQuery other) {
+        // map the most constrained atoms first
+        Integer[] order = new Integer[other.atoms.length];
+        int[] candidates = new int[other.atoms.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            for (CompactAtom a : this.atoms) {
+                if (samePredicate(a, other.atoms[i])) candidates[i]++;
+            }
+            if (candidates[i] == 0) return false;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> candidates[i]));
+        return extendHomomorphism(other, order, 0, new HashMap<>());
+    }
+
+    private boolean extendHomomorphism(CompactConjunctiveQuery other, Integer[] order, int k, Map<Integer, Integer> h) {
+        if (k == order.length) return comparisonsHold(other, h);
+        CompactAtom source = other.atoms[order[k]];
+        List<Integer> bound = new ArrayList<>(source.getArity());
+        for (CompactAtom target : this.atoms) {
+            if (!samePredicate(source, target)) continue;
+            boolean matches = true;
+            for (int t = 0; t < source.getArity() && matches; t++) {
+                int s = source.getTerm(t), d = target.getTerm(t);
+                if (CompactAtom.isVariable(s)) {
+                    Integer image = h.get(s);
+                    if (image == null) {
+                        h.put(s, d);
+                        bound.add(s);
+                    } else matches = image == d;
+                } else matches = s == d;
+            }
+            if (matches && extendHomomorphism(other, order, k + 1, h)) return true;
+            bound.forEach(h::remove);
+            bound.clear();
+        }
+        return false;
+    }
+
+    private boolean comparisonsHold(CompactConjunctiveQuery other, Map<Integer, Integer> h) {
+        for (int i = 0; i < other.comparisons.length; i += 3) {
+            Integer left = image(other.comparisons[i + 1], h), right = image(other.comparisons[i + 2], h);
+            if (left == null || right == null) return false;
+            boolean holds = other.comparisons[i] == STRICT_INEQUALITY
+                    ? !CompactAtom.isVariable(left) && !CompactAtom.isVariable(right) && !left.equals(right)
+                    : left.equals(right);
+            if (!holds && !hasComparison(other.comparisons[i], left, right)) return false;
+        }
+        return true;
+    }
+
+    private static Integer image(int term, Map<Integer, Integer> h) {
+        return CompactAtom.isVariable(term) ? h.get(term) : Integer.valueOf(term);
+    }
+
+    private boolean hasComparison(int operator, int left, int right) {
+        for (int i = 0; i < comparisons.length; i += 3) {
+            if (comparisons[i] == operator && (comparisons[i + 1] == left && comparisons[i + 2] == right
+                    || comparisons[i + 1] == right && comparisons[i + 2] == left)) return true;
+        }
+        return false;
+    }
+
+    private static boolean samePredicate(CompactAtom a, CompactAtom b) {
+        return a.getPredicate() == b.getPredicate() && a.getType() == b.getType() && a.getArity() == b.getArity();
+    }
+
+    /**
+     * @return The distinct predicates (with their types) used by this query, as sorted keys.
+     */
+    public long[] getPredicateSignature() {
+        return Arrays.stream(atoms)
+                .mapToLong(a -> (long) a.getPredicate() << 8 | a.getType().ordinal())
+                .distinct()
+                .sorted()
+                .toArray();
+    }
+
+    /**
+     * This method writes the query as varints: the number of atoms, the {@link CompactAtom#writeTo(OutputStream) atoms},
+     * the number of comparisons and the comparisons' triples.
+     */
+    public void writeTo(@Nonnull OutputStream out) throws IOException {
+        writeVarInt(out, atoms.length);
+        for (CompactAtom atom : atoms) atom.writeTo(out);
+        writeVarInt(out, comparisons.length / 3);
+        for (int value : comparisons) writeVarInt(out, value);
+    }
+
+    /**
+     * This method reads a query written by {@link #writeTo(OutputStream)}.
+     */
+    public static CompactConjunctiveQuery readFrom(@Nonnull ByteBuffer in) {
+        CompactAtom[] atoms = new CompactAtom[readVarInt(in)];
+        for (int i = 0; i < atoms.length; i++) atoms[i] = CompactAtom.readFrom(in);
+        int[] comparisons = new int[3 * readVarInt(in)];
+        for (int i = 0; i < comparisons.length; i++) comparisons[i] = readVarInt(in);
+        for (int i = 0; i < comparisons.length; i += 3) {
+            if (comparisons[i] != EQUALITY && comparisons[i] != STRICT_INEQUALITY) {
+                throw new IllegalArgumentException("Unsupported comparison operator: " + comparisons[i]);
+            }
+        }
+        return new CompactConjunctiveQuery(atoms, comparisons);
+    }
+
+    /**
+     * This method rebuilds the query in the object model.
+     *
+     * @param symbols The symbol table this query has been encoded with.
+     */
+    public OntologyConjunctiveQuery toQuery(@Nonnull SymbolTable symbols) {
+        List<Atom> body = new ArrayList<>(size());
+        for (CompactAtom atom : atoms) body.add(atom.toAtom(symbols));
+        for (int i = 0; i < comparisons.length; i += 3) {
+            Term left = CompactAtom.decode(comparisons[i + 1], symbols);
+            Term right = CompactAtom.decode(comparisons[i + 2], symbols);
+            body.add(comparisons[i] == STRICT_INEQUALITY ? new StrictInequality(left, right) : new Equality(left, right));
+        }
+        try {
+            return new OntologyConjunctiveQuery(body);
+        } catch (TermTypeException e) {
+            // the query was valid when encoded
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof CompactConjunctiveQuery)) return false;
+        CompactConjunctiveQuery q = (CompactConjunctiveQuery) obj;
+        return hash == q.hash && Arrays.equals(atoms, q.atoms) && Arrays.equals(comparisons, q.comparisons);
+    }
+
+}
@@ -22,6 +22,7 @@ import java.util.stream.Collectors;
 public class ConjunctiveQuery implements Cloneable {
 
     protected final FlatConjunction body = new FlatConjunction();
+    private Index index;    // built lazily, it must be invalidated whenever the body changes
 
     public ConjunctiveQuery(Collection<? extends Atom> atoms) {
         this.body.addAll(atoms);
@@ -30,6 +31,8 @@ public class ConjunctiveQuery implements Cloneable {
 
     private void bindVariablesToQuery() {
         this.body.bindVariablesToQuery(this);
+        // the index may have been built while binding (see Variable::bindToQuery), hence with unbound variables
+        invalidateIndex();
     }
 
     /**
@@ -65,6 +68,7 @@ public class ConjunctiveQuery implements Cloneable {
                 .collect(Collectors.toSet());
 
         this.body.explicitVariables(alphabet, reservedNames);
+        invalidateIndex();
     }
 
     /**
@@ -83,8 +87,8 @@ public class ConjunctiveQuery implements Cloneable {
 
     @SuppressWarnings("unused")
     public Set<PredicateAtom> getPredicateAtomsByPredicate(String predicateIdentifier) {
-        return getPredicateAtoms().stream()
-                .filter(a -> a.getPredicateIdentifier().equals(predicateIdentifier))
+        return index().atomsByPredicate.getOrDefault(predicateIdentifier, Collections.emptyList())
+                .stream()
                 .map(PredicateAtom::clone)
                 .collect(Collectors.toSet());
     }
@@ -95,18 +99,16 @@ public class ConjunctiveQuery implements Cloneable {
      * @return {@code true} if at least one of the CQ atoms have the specified predicate, {@code false} otherwise.
      */
     public boolean hasPredicate(String predicateIdentifier) {
-        for (PredicateAtom a : getPredicateAtoms()) {
-            if (a.getPredicateIdentifier().equals(predicateIdentifier)) return true;
-        }
-        return false;
+        return index().atomsByPredicate.containsKey(predicateIdentifier);
     }
 
     public int size() {    //TODO: what's the best way of representing the size of a CQ?
-        return getAtoms().size();
+        return index().distinctAtoms;
     }
 
     public void replaceVariable(Variable oldVar, Variable newVar) {
         this.body.replaceVariables(Collections.singletonMap(oldVar, newVar));
+        invalidateIndex();
     }
 
     /**
@@ -115,11 +117,32 @@ public class ConjunctiveQuery implements Cloneable {
      * @return A Set of variables.
      */
     public Set<Variable> getVariables() {
-        Set<Variable> variables = new HashSet<>();
-        getAtoms().stream()
-                .map(Atom::getVariables)
-                .forEach(variables::addAll);
-        return variables;
+        return index().variables.values().stream()
+                .map(Variable::clone)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * This method infers the type of a variable from the positions it occurs in.
+     *
+     * @return The {@link Term.Type type} of the variable, or {@link Term.Type#UNDEFINED} if it cannot be inferred.
+     */
+    public Term.Type inferVariableType(String variableName) {
+        return Term.Type.UNDEFINED;
+    }
+
+    /**
+     * This method returns the {@link CanonicalForm canonical form} of the query's body, which is the same for all the
+     * queries that are equal up to the renaming of variables and the order of atoms.
+     */
+    public CanonicalForm getCanonicalForm() {
+        ConjunctiveQuery q = this;
+        // every occurrence of "_" is a distinct variable, while the canonical form identifies variables by name
+        if (index().variables.containsKey(Variable.BLANK_VAR_SYMBOL)) {
+            q = this.clone();
+            q.explicitNondistinguishedNonsharedVariables();
+        }
+        return CanonicalForm.of(q.body);
     }
 
     public boolean isInconsistent() {
@@ -166,4 +189,77 @@ public class ConjunctiveQuery implements Cloneable {
         return super.equals(obj);
     }
 
+
+    /*=========*
+     *  INDEX  *
+     *=========*/
+
+    /**
+     * An occurrence of a variable in a predicate atom of the body.
+     */
+    protected static final class Occurrence {
+        public final PredicateAtom atom;    // the atom of the body (not a copy): do NOT modify it
+        public final int position;
+
+        private Occurrence(PredicateAtom atom, int position) {
+            this.atom = atom;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Lookup structures over the body, keyed by predicate identifiers and variable names
+     * (so that they are not affected by the binding of variables).
+     */
+    protected static final class Index {
+        public final Map<String, List<PredicateAtom>> atomsByPredicate = new HashMap<>();
+        public final Map<String, List<Occurrence>> occurrences = new HashMap<>();
+        public final Map<String, Variable> variables = new HashMap<>();
+        public final Map<String, Variable> inequalityVariables = new HashMap<>();
+        public final List<PredicateAtom> predicateAtoms = new ArrayList<>();
+        public int distinctAtoms;
+    }
+
+    /**
+     * This method returns the index of the query, building it (in a single pass over the body) if needed.
+     */
+    protected Index index() {
+        Index index = this.index;
+        if (index == null) {
+            Index newIndex = new Index();
+            Set<Formula> distinctAtoms = new HashSet<>();
+            this.body.forEach(f -> {
+                distinctAtoms.add(f);
+                if (f instanceof PredicateAtom) {
+                    PredicateAtom atom = (PredicateAtom) f;
+                    newIndex.predicateAtoms.add(atom);
+                    newIndex.atomsByPredicate.computeIfAbsent(atom.getPredicateIdentifier(), k -> new ArrayList<>()).add(atom);
+                    for (int i = 0; i < atom.getArity(); i++) {
+                        Term t = atom.getTerm(i);
+                        if (t instanceof Variable) {
+                            Variable v = (Variable) t;
+                            newIndex.variables.putIfAbsent(v.getName(), v);
+                            newIndex.occurrences.computeIfAbsent(v.getName(), k -> new ArrayList<>()).add(new Occurrence(atom, i));
+                        }
+                    }
+                } else if (f instanceof Atom) {
+                    for (Variable v : ((Atom) f).getVariables()) {
+                        newIndex.variables.putIfAbsent(v.getName(), v);
+                        if (f instanceof StrictInequality) newIndex.inequalityVariables.putIfAbsent(v.getName(), v);
+                    }
+                }
+            });
+            newIndex.distinctAtoms = distinctAtoms.size();
+            this.index = index = newIndex;
+        }
+        return index;
+    }
+
+    /**
+     * This method must be called after every change to the body.
+     */
+    protected void invalidateIndex() {
+        this.index = null;
+    }
+
 }
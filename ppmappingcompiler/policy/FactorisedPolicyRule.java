@@ -0,0 +1,142 @@
+package ppmappingcompiler.policy;
+
+import ppmappingcompiler.fol.*;
+import ppmappingcompiler.fol.Term.TermTypeException;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A denial in factorised form, i.e. a conjunction of factors, each of which is a disjunction of alternative
+ * {@link OntologyConjunctiveQuery CQs}. Variables with the same name are shared among the factors.<br>
+ * A factorised rule is equivalent to the union of the CQs obtained by choosing one alternative for each factor,
+ * whose number is the product of the numbers of alternatives: such union is only built on demand, and lazily,
+ * by {@link #expand()}.<br>
+ * In JSON, a factorised rule is an array of factors, each of which is an array of Datalog rules.
+ */
+public class FactorisedPolicyRule {
+
+    private final List<List<OntologyConjunctiveQuery>> factors;
+
+    /**
+     * @param factors The factors of the rule, each of which is a non-empty list of alternatives.
+     */
+    public FactorisedPolicyRule(@Nonnull List<? extends List<OntologyConjunctiveQuery>> factors) {
+        List<List<OntologyConjunctiveQuery>> copy = new ArrayList<>();
+        for (List<OntologyConjunctiveQuery> factor : factors) {
+            if (factor.isEmpty()) throw new IllegalArgumentException("A factor must have at least one alternative");
+            copy.add(Collections.unmodifiableList(new ArrayList<>(factor)));
+        }
+        this.factors = Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * @return A factorised rule with a single factor having a single alternative.
+     */
+    public static FactorisedPolicyRule of(@Nonnull OntologyConjunctiveQuery query) {
+        return new FactorisedPolicyRule(Collections.singletonList(Collections.singletonList(query)));
+    }
+
+    public List<List<OntologyConjunctiveQuery>> getFactors() {
+        return factors;
+    }
+
+    /**
+     * @return {@code true} if the rule is a single CQ, i.e. each factor has a single alternative.
+     */
+    public boolean isConjunctive() {
+        return factors.stream().allMatch(f -> f.size() == 1);
+    }
+
+    /**
+     * @return The number of CQs the rule expands into (or {@link Long#MAX_VALUE}, if it is greater).
+     */
+    public long getExpansionSize() {
+        long size = 1;
+        for (List<OntologyConjunctiveQuery> factor : factors) {
+            if (size > Long.MAX_VALUE / factor.size()) return Long.MAX_VALUE;
+            size *= factor.size();
+        }
+        return size;
+    }
+
+    /**
+     * This method lazily multiplies out the factors: each CQ is only built when the stream reaches it.
+     *
+     * @return The CQs whose union is equivalent to this rule.
+     */
+    public Stream<OntologyConjunctiveQuery> expand() {
+        return combinations(0).map(atoms -> {
+            try {
+                return new OntologyConjunctiveQuery(atoms);
+            } catch (TermTypeException e) {
+                // each alternative was valid, hence variables have the same type everywhere
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private Stream<List<Atom>> combinations(int factorIndex) {
+        if (factorIndex == factors.size()) return Stream.of(new ArrayList<>());
+        return factors.get(factorIndex).stream().flatMap(alternative -> combinations(factorIndex + 1).map(rest -> {
+            List<Atom> atoms = new ArrayList<>(alternative.getAtoms());
+            atoms.addAll(rest);
+            return atoms;
+        }));
+    }
+
+    /**
+     * This method builds the (existentially closed) formula equivalent to this rule, without multiplying out
+     * the factors.<br>
+     * E.g., factors {@code [[A(x)], [R(x,y), S(x,z)]]} -> {@code A(x) AND ((∃y R(x,y)) OR (∃z S(x,z)))}.
+     */
+    public Formula toFormula() {
+        Map<String, Integer> factorsByVariable = new HashMap<>();    // number of factors each variable occurs in
+        for (List<OntologyConjunctiveQuery> factor : factors) {
+            Set<String> names = new HashSet<>();
+            for (OntologyConjunctiveQuery alternative : factor) names.addAll(variableNames(alternative));
+            names.forEach(name -> factorsByVariable.merge(name, 1, Integer::sum));
+        }
+
+        Conjunction formula = new Conjunction();
+        for (List<OntologyConjunctiveQuery> factor : factors) {
+            if (factor.size() == 1) {
+                formula.add(unboundBody(factor.get(0)));
+                continue;
+            }
+            Disjunction disjunction = new Disjunction();
+            for (OntologyConjunctiveQuery alternative : factor) {
+                // variables only occurring in this factor are local to each alternative
+                Set<Variable> localVariables = variableNames(alternative).stream()
+                        .filter(name -> factorsByVariable.get(name) == 1)
+                        .map(Variable::new)
+                        .collect(Collectors.toSet());
+                Conjunction body = unboundBody(alternative);
+                disjunction.add(localVariables.isEmpty() ? body : new Exist(body, localVariables));
+            }
+            formula.add(disjunction);
+        }
+        formula.flatten(false);
+        return formula;
+    }
+
+    private static Conjunction unboundBody(OntologyConjunctiveQuery query) {
+        Conjunction body = query.getBody();
+        body.unbindVariables();
+        return body;
+    }
+
+    private static Set<String> variableNames(OntologyConjunctiveQuery query) {
+        return query.getVariables().stream().map(Variable::getName).collect(Collectors.toSet());
+    }
+
+    @Override
+    public String toString() {
+        return factors.stream()
+                .map(f -> f.stream().map(Object::toString).collect(Collectors.joining(" | ", "[", "]")))
+                .collect(Collectors.joining(" AND "));
+    }
+
+}
@@ -26,7 +26,10 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
     }
 
     public Set<OntologyPredicateAtom> getAllPredicateAtoms() {
-        return Utils.filterByClass(getAtoms(), OntologyPredicateAtom.class, Collectors.toSet());
+        return index().predicateAtoms.stream()
+                .filter(a -> a instanceof OntologyPredicateAtom)
+                .map(a -> (OntologyPredicateAtom) a.clone())
+                .collect(Collectors.toSet());
     }
 
     public Set<OntologyPredicateAtom> getStandardPredicateAtoms() {
@@ -43,6 +46,7 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
     public void removeInequalitiesAndTheirJoiningAtoms() {
         this.body.removeAll(getInequalityJoiningPredicateAtom());
         this.body.removeAll(getInequalities());
+        invalidateIndex();
     }
 
     /**
@@ -52,11 +56,25 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
      * @return A {@link Set set} of {@link Variable variables}.
      */
     public Set<Variable> getInequalityVariables() {
-        Set<Variable> inequalityVariables = new HashSet<>();
-        getInequalities().stream()
-                .map(StrictInequality::getVariables)
-                .forEach(inequalityVariables::addAll);
-        return inequalityVariables;
+        return index().inequalityVariables.values().stream()
+                .map(Variable::clone)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * The type of a variable is deduced from any of its occurrences:
+     * it is a data variable if it occurs in the range of an attribute, an object variable otherwise.
+     */
+    @Override
+    public Term.Type inferVariableType(String variableName) {
+        List<Occurrence> occurrences = index().occurrences.get(variableName);
+        if (occurrences == null) return Term.Type.UNDEFINED;
+        for (Occurrence o : occurrences) {
+            if (o.atom instanceof OntologyPredicateAtom) {
+                return ((OntologyPredicateAtom) o.atom).getType() == ATTRIBUTE && o.position == 1 ? DATA : OBJECT;
+            }
+        }
+        return Term.Type.UNDEFINED;
     }
 
     /**
@@ -125,15 +143,19 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
      * @throws UnsafePolicyException if one of the above conditions is violated.
      */
     public void numberRestrictionsSafetyCheck() throws UnsafePolicyException {
+        numberRestrictionsSafetyCheck(new Snapshot());
+    }
+
+    private void numberRestrictionsSafetyCheck(Snapshot s) throws UnsafePolicyException {
         // Numerical restriction axioms must be of the form
         // A_1, ..., A_k, (>=n_1 R), ..., (>=n_h R) -> ⊥
 
-        Set<Variable> inequalityVariables = getInequalityVariables();
+        Set<Variable> inequalityVariables = s.inequalityVariables;
         if (!inequalityVariables.isEmpty()) {
             // Searching for the NR's main variable (i.e., the query's main variable)
             Variable mainVariable = null;
-            for (OntologyPredicateAtom atom : getInequalityJoiningPredicateAtom()) {
-                List<Variable> variables = atom.getVariables();
+            for (OntologyPredicateAtom atom : s.joiningAtoms) {
+                List<Variable> variables = s.variablesOf(atom);
 
                 if (variables.size() != 2) throw new UnsafePolicyException(this, String.format(
                         "Predicate atom %s seems to participate to a number restriction, " +
@@ -150,10 +172,10 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
 
             // every predicate atom in the query must assert something about the main variable
             // and every variable that is not the main one can appear in only one predicate atom
-            Set<Variable> variablesToBeConsumed = new HashSet<>(this.getVariables());    // non-main variables can be "consumed" only once
-            for (OntologyPredicateAtom atom : this.getAllPredicateAtoms()) {
+            Set<Variable> variablesToBeConsumed = new HashSet<>(s.variables);    // non-main variables can be "consumed" only once
+            for (OntologyPredicateAtom atom : s.atoms) {
                 boolean mainVariableFound = false;
-                for (Variable v : atom.getVariables()) {
+                for (Variable v : s.variablesOf(atom)) {
                     // main variable
                     if (v.equals(mainVariable)) {
                         if (!mainVariableFound) mainVariableFound = true;
@@ -180,9 +202,9 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
                 ));
 
             // variables of standard predicate atoms do not occur in any NR inequality
-            for (OntologyPredicateAtom atom : getStandardPredicateAtoms()) {
-                for (StrictInequality si : getInequalities()) {
-                    if (!Collections.disjoint(atom.getVariables(), si.getVariables())) {
+            for (OntologyPredicateAtom atom : s.standardAtoms) {
+                for (StrictInequality si : s.inequalities) {
+                    if (!Collections.disjoint(s.variablesOf(atom), si.getVariables())) {
                         throw new UnsafePolicyException(this, String.format(
                                 "Predicate atom %s doesn't seem to participate to a number restriction, " +
                                         "therefore its variables cannot be part of an inequality.", atom
@@ -192,12 +214,12 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
             }
 
             // NR predicate atoms have two variables, exactly one of which appearing in some inequality
-            for (OntologyPredicateAtom atom : getInequalityJoiningPredicateAtom()) {
+            for (OntologyPredicateAtom atom : s.joiningAtoms) {
                 if (atom.getType() != ROLE)
                     throw new UnsafePolicyException(this, String.format("Atom %s is not a role.", atom));
 
                 int count = 0;
-                for (Variable var : atom.getVariables()) {
+                for (Variable var : s.variablesOf(atom)) {
                     if (inequalityVariables.contains(var)) count++;
                 }
                 if (count == 0) {
@@ -219,14 +241,14 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
             Map<Variable, Variable> variableToMainVar = new HashMap<>();    // condition violated by T(x,y), T(w,z), y\=z
             for (Variable var : inequalityVariables) {
                 int count = 0;
-                for (OntologyPredicateAtom atom : getInequalityJoiningPredicateAtom()) {
+                for (OntologyPredicateAtom atom : s.joiningAtoms) {
                     for (int i = 0; i < 2; i++) {
-                        Variable lVar = atom.getVariables().get(i);
+                        Variable lVar = s.variablesOf(atom).get(i);
                         if (lVar.equals(var)) {
                             count++;
                             variableToPredicate.put(var, atom.getPredicateIdentifier());
                             variableToPosition.put(var, i);
-                            variableToMainVar.put(var, atom.getVariables().get((i + 1) % 2));
+                            variableToMainVar.put(var, s.variablesOf(atom).get((i + 1) % 2));
                         }
                     }
                 }
@@ -238,7 +260,7 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
                     ));
                 }
             }
-            for (StrictInequality si : getInequalities()) {
+            for (StrictInequality si : s.inequalities) {
                 Term t1 = si.getLeftTerm();
                 Term t2 = si.getRightTerm();
 
@@ -266,10 +288,10 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
                 }
             }
 
-            for (Set<Variable> set : getSameNRVariables()) {
+            for (Set<Variable> set : s.sameNRVariables()) {
                 for (Variable var1 : set) {
                     for (Variable var2 : set) {
-                        if (!getInequalities().contains(new StrictInequality(var1, var2))
+                        if (!s.inequalities.contains(new StrictInequality(var1, var2))
                                 && !var1.equals(var2)) {
                             throw new UnsafePolicyException(this, "The set of inequalities which share some variables must be closed.");
                         }
@@ -297,22 +319,75 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
      * @throws UnsafePolicyException if one of the above conditions is violated.
      */
     public void comparisonAtomsSafetyCheck() throws UnsafePolicyException {
+        comparisonAtomsSafetyCheck(new Snapshot());
+    }
+
+    private void comparisonAtomsSafetyCheck(Snapshot s) throws UnsafePolicyException {
         //TODO: extend to all kind of inequalities (!=, <, >, <=, >=)
-        Set<Variable> inequalityVariables = getInequalityVariables();
-        for (Variable v : inequalityVariables) {
-            boolean found = false;
-            for (OntologyPredicateAtom atom : getAllPredicateAtoms()) {
-                if (atom.hasVariable(v)) {
-                    found = true;
-                    if (atom.getType() != ATTRIBUTE || atom.getVariables().get(0).equals(v)) {
-                        throw new UnsafePolicyException(this, "Variable " + v +
-                                " belongs to an inequality but it doesn't appear in a safe attribute range position.");
-                    }
+        Index index = index();
+        for (Variable v : s.inequalityVariables) {
+            List<Occurrence> occurrences = index.occurrences.get(v.getName());
+            if (occurrences == null) throw new UnsafePolicyException(this, "Variable " + v +
+                    " belongs to an inequality but it cannot be found in any predicate atom.");
+
+            for (Occurrence o : occurrences) {
+                // the variable must be the range of the attribute, and its domain must be another variable
+                if (((OntologyPredicateAtom) o.atom).getType() != ATTRIBUTE
+                        || o.position == 0 || !(o.atom.getTerm(0) instanceof Variable)) {
+                    throw new UnsafePolicyException(this, "Variable " + v +
+                            " belongs to an inequality but it doesn't appear in a safe attribute range position.");
                 }
             }
+        }
+    }
 
-            if (!found) throw new UnsafePolicyException(this, "Variable " + v +
-                    " belongs to an inequality but it cannot be found in any predicate atom.");
+    /**
+     * This method runs the selected safety checks, computing the atoms, inequalities and variables
+     * of the query only once for all of them.
+     *
+     * @throws UnsafePolicyException if one of the checked conditions is violated.
+     * @see #numberRestrictionsSafetyCheck()
+     * @see #comparisonAtomsSafetyCheck()
+     */
+    public void safetyCheck(boolean numberRestrictions, boolean comparisonAtoms) throws UnsafePolicyException {
+        if (!numberRestrictions && !comparisonAtoms) return;
+        Snapshot s = new Snapshot();
+        if (numberRestrictions) numberRestrictionsSafetyCheck(s);
+        if (comparisonAtoms) comparisonAtomsSafetyCheck(s);
+    }
+
+    /**
+     * A copy of the query's atoms, inequalities and variables, taken once and shared by the safety checks
+     * (instead of re-cloning the body at each lookup).
+     */
+    private class Snapshot {
+        final Set<OntologyPredicateAtom> atoms = getAllPredicateAtoms();
+        final Set<StrictInequality> inequalities = getInequalities();
+        final Set<Variable> variables = getVariables();
+        final Set<Variable> inequalityVariables = new HashSet<>();
+        final Set<OntologyPredicateAtom> joiningAtoms = new HashSet<>();
+        final Set<OntologyPredicateAtom> standardAtoms = new HashSet<>();
+        private final Map<OntologyPredicateAtom, List<Variable>> atomVariables = new HashMap<>();
+
+        Snapshot() {
+            inequalities.forEach(i -> inequalityVariables.addAll(i.getVariables()));
+            for (OntologyPredicateAtom atom : atoms) {
+                List<Variable> variables = atom.getVariables();
+                atomVariables.put(atom, variables);
+                if (Collections.disjoint(variables, inequalityVariables)) standardAtoms.add(atom);
+                else joiningAtoms.add(atom);
+            }
+        }
+
+        List<Variable> variablesOf(OntologyPredicateAtom atom) {
+            return atomVariables.get(atom);
+        }
+
+        Set<Set<Variable>> sameNRVariables() {
+            Set<Set<Variable>> unequalVariables = inequalities.stream()
+                    .map(i -> new HashSet<>(i.getVariables()))
+                    .collect(Collectors.toSet());
+            return Utils.mergeIntersectingSets(unequalVariables);
         }
     }
 
@@ -341,6 +416,14 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
 		return headBlock + " WHERE { " + String.join(". ", atomsList) + ". }";
 		*/
 
+        return "ASK WHERE " + toSparqlGroupPattern();
+    }
+
+    /**
+     * @return The body of the query as a SPARQL group graph pattern, e.g. {@code { ?x :R ?y. FILTER (?x != ?y) }}.
+     * Patterns of distinct queries can be combined, e.g. as the branches of a {@code UNION}.
+     */
+    public String toSparqlGroupPattern() {
         String triples = getAllPredicateAtoms().stream()
                 .map(atom -> atom.toSparql() + ". ")
                 .collect(Collectors.joining(" "));
@@ -350,7 +433,7 @@ public class OntologyConjunctiveQuery extends ConjunctiveQuery {
                                 .map(StrictInequality::toSparql)
                                 .collect(Collectors.joining(" && ")));
 
-        return "ASK WHERE { "
+        return "{ "
                 + triples
                 + filter
                 + "}";
@@ -0,0 +1,272 @@
+package ppmappingcompiler.policy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import org.semanticweb.owlapi.model.OWLOntology;
+import ppmappingcompiler.Logger;
+import ppmappingcompiler.parser.BCQParser;
+import ppmappingcompiler.parser.DatalogBCQParser;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static ppmappingcompiler.util.BinaryContainer.isBinaryFile;
+import static ppmappingcompiler.util.IOUtils.loadJsonArray;
+
+/**
+ * This class loads a policy, i.e. a list of {@link OntologyConjunctiveQuery denials} written in Datalog syntax.<br>
+ * Rules are parsed and validated in parallel. Instead of stopping at the first invalid rule, all of them are
+ * checked and the errors are reported together (see {@link InvalidPolicyException}).<br>
+ * Besides Datalog rules, a policy file may contain {@link FactorisedPolicyRule factorised rules}. Only
+ * {@link #loadFactorised(String)} keeps them factorised: {@link #load(String)} multiplies them out.<br>
+ * A file with extension {@code .bin} is read as a {@link BinaryPolicyFile binary policy file}, whose rules are
+ * already parsed.
+ */
+public class PolicyLoader {
+
+    private final ThreadLocal<BCQParser> parsers;    // parsers are stateless, but one per thread avoids any contention
+    private final boolean numberRestrictionsCheck;
+    private final boolean comparisonAtomsCheck;
+
+    public PolicyLoader(OWLOntology ontology) {
+        this(ontology, false, false);
+    }
+
+    /**
+     * @param ontology                The ontology the policy is expressed over.
+     * @param numberRestrictionsCheck Whether {@link OntologyConjunctiveQuery#numberRestrictionsSafetyCheck()} must be run on each rule.
+     * @param comparisonAtomsCheck    Whether {@link OntologyConjunctiveQuery#comparisonAtomsSafetyCheck()} must be run on each rule.
+     */
+    public PolicyLoader(OWLOntology ontology, boolean numberRestrictionsCheck, boolean comparisonAtomsCheck) {
+        this.parsers = ThreadLocal.withInitial(() -> new DatalogBCQParser(ontology));
+        this.numberRestrictionsCheck = numberRestrictionsCheck;
+        this.comparisonAtomsCheck = comparisonAtomsCheck;
+    }
+
+    /**
+     * This method reads the policy from a JSON array of strings (or from a binary policy file).<br>
+     * Factorised rules are expanded into CQs, and rules that are equal to previous ones up to variable renaming
+     * and atom order are discarded.<br>
+     * Hence, the CQs of a factorised policy are all kept in memory, as for a policy which is not factorised: the
+     * refinement and the rewriting of the compiler work on CQs, and cannot take advantage of the factorised form.<br>
+     * The safety checks are run while parsing (in parallel), and errors refer to the positions of the entries of the
+     * file: a factorised rule is reported (once) if any of the CQs it expands into is not safe.
+     *
+     * @return The rules of the policy, in the same order as in the file.
+     */
+    public List<OntologyConjunctiveQuery> load(String policyFilePath) throws IOException, InvalidPolicyException {
+        List<OntologyConjunctiveQuery> rules = new ArrayList<>();
+        int factorisedRules = 0;
+        int factorisedRulesExpansion = 0;
+        for (FactorisedPolicyRule rule : loadFactorised(policyFilePath, numberRestrictionsCheck, comparisonAtomsCheck)) {
+            if (rule.getFactors().size() == 1 && rule.isConjunctive()) {
+                rules.add(rule.getFactors().get(0).get(0));
+                continue;
+            }
+            int size = rules.size();
+            rule.expand().forEachOrdered(rules::add);
+            factorisedRules++;
+            factorisedRulesExpansion += rules.size() - size;
+        }
+        if (factorisedRules > 0) {
+            Logger.warn(String.format("%d factorised policy rules have been multiplied out into %d CQs",
+                    factorisedRules, factorisedRulesExpansion));
+        }
+        List<OntologyConjunctiveQuery> distinctRules = PolicyMinimizer.removeDuplicates(rules);
+        Logger.info(String.format("Loaded %d policy rules (%d duplicates removed)",
+                distinctRules.size(), rules.size() - distinctRules.size()));
+        return distinctRules;
+    }
+
+    /**
+     * This method reads the policy from a JSON array whose elements are either Datalog rules or
+     * {@link FactorisedPolicyRule factorised rules} (i.e., arrays of arrays of Datalog rules). The latter are not
+     * expanded, and safety checks are left to the caller, since single alternatives are not denials on their own.
+     *
+     * @return The rules of the policy, in the same order as in the file. Datalog rules become factorised rules
+     * with a single factor.
+     * @throws InvalidPolicyException if one or more rules cannot be parsed.
+     */
+    public List<FactorisedPolicyRule> loadFactorised(String policyFilePath) throws IOException, InvalidPolicyException {
+        return loadFactorised(policyFilePath, false, false);
+    }
+
+    private List<FactorisedPolicyRule> loadFactorised(String policyFilePath, boolean numberRestrictionsCheck,
+                                                      boolean comparisonAtomsCheck) throws IOException, InvalidPolicyException {
+        if (isBinaryFile(policyFilePath)) {
+            List<OntologyConjunctiveQuery> queries = BinaryPolicyFile.load(Paths.get(policyFilePath));
+            List<InvalidRule> invalidRules = checkAll(queries.size(), i -> {
+                try {
+                    queries.get(i).safetyCheck(numberRestrictionsCheck, comparisonAtomsCheck);
+                    return null;
+                } catch (Exception e) {
+                    return new InvalidRule(i, queries.get(i).toString(), e);
+                }
+            });
+            if (!invalidRules.isEmpty()) throw new InvalidPolicyException(invalidRules, queries.size());
+            return queries.stream().map(FactorisedPolicyRule::of).collect(Collectors.toList());
+        }
+        JsonArray entries = loadJsonArray(policyFilePath);
+
+        // all the Datalog rules (of both kinds of entries) are parsed together, and plain rules are checked meanwhile
+        List<String> strings = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();    // the position of the entry of each string
+        BitSet plainStrings = new BitSet();
+        for (int e = 0; e < entries.size(); e++) {
+            JsonElement entry = entries.get(e);
+            if (!entry.isJsonArray()) {
+                plainStrings.set(strings.size());
+                strings.add(entry.getAsString());
+                positions.add(e);
+                continue;
+            }
+            for (JsonElement factor : entry.getAsJsonArray()) {
+                for (JsonElement alternative : factor.getAsJsonArray()) {
+                    strings.add(alternative.getAsString());
+                    positions.add(e);
+                }
+            }
+        }
+        List<InvalidRule> invalidRules = new ArrayList<>();
+        List<OntologyConjunctiveQuery> queries = parse(strings, positions, plainStrings,
+                numberRestrictionsCheck, comparisonAtomsCheck, invalidRules);
+        if (queries.contains(null)) throw new InvalidPolicyException(invalidRules, entries.size());
+
+        Iterator<OntologyConjunctiveQuery> iterator = queries.iterator();
+        List<FactorisedPolicyRule> rules = new ArrayList<>();
+        for (JsonElement entry : entries) {
+            if (!entry.isJsonArray()) {
+                rules.add(FactorisedPolicyRule.of(iterator.next()));
+                continue;
+            }
+            List<List<OntologyConjunctiveQuery>> factors = new ArrayList<>();
+            for (JsonElement factor : entry.getAsJsonArray()) {
+                List<OntologyConjunctiveQuery> alternatives = new ArrayList<>();
+                for (int i = 0; i < factor.getAsJsonArray().size(); i++) alternatives.add(iterator.next());
+                factors.add(alternatives);
+            }
+            rules.add(new FactorisedPolicyRule(factors));
+        }
+
+        // single alternatives are not denials on their own: factorised rules are checked once built
+        invalidRules.addAll(checkAll(rules.size(), i -> entries.get(i).isJsonArray()
+                ? safetyCheck(i, rules.get(i), numberRestrictionsCheck, comparisonAtomsCheck)
+                : null));
+        if (!invalidRules.isEmpty()) {
+            invalidRules.sort(Comparator.comparingInt(r -> r.position));
+            throw new InvalidPolicyException(invalidRules, rules.size());
+        }
+        return rules;
+    }
+
+    // a factorised rule is safe iff all the CQs it expands into are: the first unsafe one is reported
+    private static InvalidRule safetyCheck(int position, FactorisedPolicyRule rule, boolean numberRestrictionsCheck,
+                                           boolean comparisonAtomsCheck) {
+        if (!numberRestrictionsCheck && !comparisonAtomsCheck) return null;
+        Iterator<OntologyConjunctiveQuery> queries = rule.expand().iterator();
+        while (queries.hasNext()) {
+            OntologyConjunctiveQuery query = queries.next();
+            try {
+                query.safetyCheck(numberRestrictionsCheck, comparisonAtomsCheck);
+            } catch (Exception e) {
+                return new InvalidRule(position, query.toString(), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The parsed rules, in the same order as the input strings.
+     * @throws InvalidPolicyException if one or more rules cannot be parsed or do not pass the safety checks.
+     */
+    public List<OntologyConjunctiveQuery> parse(List<String> rules) throws InvalidPolicyException {
+        BitSet checked = new BitSet();
+        checked.set(0, rules.size());
+        List<InvalidRule> invalidRules = new ArrayList<>();
+        List<OntologyConjunctiveQuery> queries = parse(rules, IntStream.range(0, rules.size()).boxed().collect(Collectors.toList()),
+                checked, numberRestrictionsCheck, comparisonAtomsCheck, invalidRules);
+        if (!invalidRules.isEmpty()) throw new InvalidPolicyException(invalidRules, rules.size());
+        return queries;
+    }
+
+    /**
+     * @param positions    The position in the policy of the rule each string belongs to.
+     * @param checkedRules The strings the safety checks must be run on.
+     * @param invalidRules The list the errors are added to.
+     * @return The parsed rules, in the same order as the input strings ({@code null} if a string cannot be parsed).
+     */
+    private List<OntologyConjunctiveQuery> parse(List<String> rules, List<Integer> positions, BitSet checkedRules,
+                                                 boolean numberRestrictionsCheck, boolean comparisonAtomsCheck,
+                                                 List<InvalidRule> invalidRules) {
+        OntologyConjunctiveQuery[] queries = new OntologyConjunctiveQuery[rules.size()];
+        List<InvalidRule> errors = checkAll(rules.size(), i -> {
+            String rule = rules.get(i);
+            try {
+                queries[i] = parsers.get().OntologyConjunctiveQuery(DatalogBCQParser.toBCQ(rule));
+                if (checkedRules.get(i)) queries[i].safetyCheck(numberRestrictionsCheck, comparisonAtomsCheck);
+                return null;
+            } catch (Exception e) {
+                return new InvalidRule(positions.get(i), rule, e);
+            }
+        });
+        // a factorised rule is reported once, for its first invalid alternative
+        Set<Integer> reportedPositions = new HashSet<>();
+        errors.removeIf(r -> !reportedPositions.add(r.position));
+        invalidRules.addAll(errors);
+        return new ArrayList<>(Arrays.asList(queries));
+    }
+
+    // the checks are run in parallel, and their errors are reported in the same order as the rules
+    private static List<InvalidRule> checkAll(int rulesCount, IntFunction<InvalidRule> check) {
+        InvalidRule[] errors = new InvalidRule[rulesCount];
+        IntStream.range(0, rulesCount).parallel().forEach(i -> errors[i] = check.apply(i));
+        return Arrays.stream(errors).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * A rule which cannot be loaded, together with its (0-based) position in the policy and the reason.
+     */
+    public static class InvalidRule {
+        public final int position;
+        public final String rule;
+        public final Exception cause;
+
+        InvalidRule(int position, String rule, Exception cause) {
+            this.position = position;
+            this.rule = rule;
+            this.cause = cause;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d: %s\n\t%s", position, rule, cause.getMessage());
+        }
+    }
+
+    public static class InvalidPolicyException extends Exception {
+        private final List<InvalidRule> invalidRules;
+
+        InvalidPolicyException(List<InvalidRule> invalidRules, int rulesCount) {
+            super(String.format("%d of %d policy rules are not valid:\n%s", invalidRules.size(), rulesCount,
+                    invalidRules.stream().map(InvalidRule::toString).collect(Collectors.joining("\n"))));
+            this.invalidRules = invalidRules;
+        }
+
+        public List<InvalidRule> getInvalidRules() {
+            return invalidRules;
+        }
+    }
+
+}
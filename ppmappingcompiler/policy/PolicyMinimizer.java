@@ -0,0 +1,103 @@
+package ppmappingcompiler.policy;
+
+import ppmappingcompiler.fol.CanonicalForm;
+import ppmappingcompiler.fol.CanonicalFormSet;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * This class removes from a policy (i.e., a union of denials) the queries that are contained in other ones:
+ * if {@code q1} is contained in {@code q2}, every database violating {@code q1} also violates {@code q2}, therefore
+ * {@code q1} is redundant.<br>
+ * A query can only be contained in queries whose predicates are a subset of its own ones: queries are bucketed by their
+ * {@link CompactConjunctiveQuery#getPredicateSignature() predicate signature}, so that containment
+ * (a homomorphism check) is only tested on candidate pairs. Queries are checked in parallel.<br>
+ * Among equivalent queries, the first one is kept. The order of the remaining queries is preserved.
+ */
+public final class PolicyMinimizer {
+
+    private PolicyMinimizer() {
+    }
+
+    /**
+     * This method removes the queries that are equal to a previous one up to the renaming of variables and the order
+     * of atoms, by comparing their {@link ConjunctiveQuery#getCanonicalForm() canonical forms}.<br>
+     * Canonical forms are computed in parallel, duplicates are then removed in a single linear pass
+     * (see {@link CanonicalFormSet}).
+     *
+     * @return The first occurrence of each distinct query, in the original order.
+     */
+    public static <Q extends ConjunctiveQuery> List<Q> removeDuplicates(@Nonnull List<Q> queries) {
+        CanonicalForm[] forms = queries.parallelStream()
+                .map(ConjunctiveQuery::getCanonicalForm)
+                .toArray(CanonicalForm[]::new);
+        CanonicalFormSet seen = new CanonicalFormSet();
+        List<Q> result = new ArrayList<>();
+        for (int i = 0; i < forms.length; i++) {
+            if (seen.add(forms[i])) result.add(queries.get(i));
+        }
+        return result;
+    }
+
+    public static List<CompactConjunctiveQuery> minimize(@Nonnull List<CompactConjunctiveQuery> queries) {
+        Map<Signature, List<Integer>> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            buckets.computeIfAbsent(new Signature(queries.get(i).getPredicateSignature()), k -> new ArrayList<>()).add(i);
+        }
+
+        boolean[] redundant = new boolean[queries.size()];
+        IntStream.range(0, queries.size()).parallel().forEach(i -> {
+            CompactConjunctiveQuery q = queries.get(i);
+            Signature signature = new Signature(q.getPredicateSignature());
+            for (Map.Entry<Signature, List<Integer>> bucket : buckets.entrySet()) {
+                if (!bucket.getKey().isSubsetOf(signature)) continue;
+                for (int j : bucket.getValue()) {
+                    if (i == j) continue;
+                    CompactConjunctiveQuery other = queries.get(j);
+                    // if the two queries are equivalent, only the first one is kept
+                    if (q.isContainedIn(other) && (j < i || !other.isContainedIn(q))) {
+                        redundant[i] = true;
+                        return;
+                    }
+                }
+            }
+        });
+
+        return IntStream.range(0, queries.size())
+                .filter(i -> !redundant[i])
+                .mapToObj(queries::get)
+                .collect(Collectors.toList());
+    }
+
+    private static final class Signature {
+        private final long[] predicates;    // sorted
+
+        Signature(long[] predicates) {
+            this.predicates = predicates;
+        }
+
+        boolean isSubsetOf(Signature other) {
+            int j = 0;
+            for (long p : predicates) {
+                while (j < other.predicates.length && other.predicates[j] < p) j++;
+                if (j == other.predicates.length || other.predicates[j] != p) return false;
+                j++;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && Arrays.equals(predicates, ((Signature) o).predicates);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(predicates);
+        }
+    }
+
+}
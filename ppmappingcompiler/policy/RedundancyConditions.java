@@ -0,0 +1,94 @@
+package ppmappingcompiler.policy;
+
+import ppmappingcompiler.fol.FlatConjunction;
+import ppmappingcompiler.fol.PredicateAtom;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Utilities for the redundancy conditions attached to the denials of a refined policy.<br>
+ * The redundancy conditions of a denial are used as a disjunction: a condition implying another one of the same
+ * disjunction adds nothing to it, and it can be removed.
+ */
+public final class RedundancyConditions {
+
+    private RedundancyConditions() {
+    }
+
+    /**
+     * This method {@link #prune(Set) prunes} the redundancy conditions of each denial. Denials are processed in parallel.
+     *
+     * @return A new map, with the same keys of the input one.
+     */
+    public static <K> Map<K, Set<FlatConjunction>> prune(@Nonnull Map<K, Set<FlatConjunction>> conditionsByDenial) {
+        return conditionsByDenial.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> prune(e.getValue()), (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * This method removes from a disjunction of conditions the ones implying another condition.<br>
+     * A condition can only imply conditions whose predicates are a subset of its own ones, hence only those pairs
+     * are checked: the candidates of a condition are found through an index from each predicate to the conditions
+     * using it, as the conditions all of whose predicates are hit. Among equivalent conditions, only one is kept.
+     *
+     * @return A new set of conditions, equivalent (as a disjunction) to the input one.
+     */
+    public static Set<FlatConjunction> prune(@Nonnull Set<FlatConjunction> conditions) {
+        if (conditions.size() < 2) return new HashSet<>(conditions);
+
+        // a fixed order makes the choice among equivalent conditions deterministic
+        List<FlatConjunction> list = new ArrayList<>(conditions);
+        list.sort(Comparator.comparing(FlatConjunction::toString));
+        List<Set<String>> signatures = list.stream()
+                .map(c -> c.getPredicateAtoms().stream()
+                        .map(PredicateAtom::getPredicateIdentifier)
+                        .collect(Collectors.toSet()))
+                .collect(Collectors.toList());
+
+        // conditions without predicates are candidates of every condition
+        Map<String, List<Integer>> conditionsByPredicate = new HashMap<>();
+        List<Integer> withoutPredicates = new ArrayList<>();
+        for (int j = 0; j < list.size(); j++) {
+            if (signatures.get(j).isEmpty()) withoutPredicates.add(j);
+            for (String predicate : signatures.get(j)) {
+                conditionsByPredicate.computeIfAbsent(predicate, k -> new ArrayList<>()).add(j);
+            }
+        }
+
+        Set<FlatConjunction> result = new HashSet<>();
+        for (int i = 0; i < list.size(); i++) {
+            boolean redundant = false;
+            for (int j : candidates(signatures, i, conditionsByPredicate, withoutPredicates)) {
+                redundant = list.get(i).implies(list.get(j)) && (j < i || !list.get(j).implies(list.get(i)));
+                if (redundant) break;
+            }
+            if (!redundant) result.add(list.get(i));
+        }
+        return result;
+    }
+
+    // The conditions (other than the i-th one) whose predicates are a subset of the ones of the i-th condition
+    private static List<Integer> candidates(List<Set<String>> signatures, int i,
+                                            Map<String, List<Integer>> conditionsByPredicate, List<Integer> withoutPredicates) {
+        Map<Integer, Integer> hits = new HashMap<>();
+        for (String predicate : signatures.get(i)) {
+            for (int j : conditionsByPredicate.get(predicate)) hits.merge(j, 1, Integer::sum);
+        }
+        List<Integer> candidates = new ArrayList<>(withoutPredicates);
+        hits.forEach((j, count) -> {
+            if (count == signatures.get(j).size()) candidates.add(j);
+        });
+        candidates.remove((Integer) i);
+        return candidates;
+    }
+
+    /**
+     * @return The total number of conditions in the map.
+     */
+    public static int count(@Nonnull Map<?, Set<FlatConjunction>> conditionsByDenial) {
+        return conditionsByDenial.values().stream().mapToInt(Set::size).sum();
+    }
+
+}
@@ -0,0 +1,269 @@
+package ppmappingcompiler.util;
+
+import ppmappingcompiler.fol.SymbolTable;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compact binary container for handing large collections of records (e.g., expanded policies or compiled views)
+ * from one stage to the next, as an alternative to JSON files. Its layout is:
+ * <ul>
+ *  <li> header: magic number, version, kind of records;
+ *  <li> records, whose encoding is up to the caller (typically {@link #writeVarInt(OutputStream, int) varints}
+ *       referring to the symbol table);
+ *  <li> the {@link SymbolTable symbol table} (e.g., predicate IRIs, constants and variable names);
+ *  <li> the lengths of the records, as varints;
+ *  <li> an index from keys (e.g., predicate identifiers) to the records, as delta-encoded varints;
+ *  <li> trailer: the positions of the three sections above, the number of records and the magic number.
+ * </ul>
+ * Records are written as soon as they are added, while the symbol table and the index are written at the end.
+ * The {@link Reader reader} maps the file in memory and accesses records randomly, without copying them.
+ */
+public final class BinaryContainer {
+
+    public static final String EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x50504243;    // "PPBC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int TRAILER_SIZE = 3 * Long.BYTES + 2 * Integer.BYTES;
+
+    private BinaryContainer() {
+    }
+
+    /**
+     * @return {@code true} if the file should be read and written as a binary container (based on its extension,
+     * possibly followed by a {@link IOUtils#isCompressedFile(String) compression extension}).
+     */
+    public static boolean isBinaryFile(@Nonnull String filePath) {
+        return IOUtils.removeCompressionExtension(filePath).toLowerCase().endsWith(EXTENSION);
+    }
+
+    /*=========*
+     * WRITING *
+     *=========*/
+
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final SymbolTable symbols;
+        private final ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+        private final Map<Integer, List<Integer>> index = new TreeMap<>();
+        private long position = HEADER_SIZE;
+        private int size = 0;
+
+        /**
+         * @param kind    An identifier of the kind of records, checked by the readers.
+         * @param symbols The symbol table the records refer to. It is written when the writer is closed,
+         *                hence it can grow while records are added.
+         */
+        public Writer(@Nonnull OutputStream outputStream, int kind, @Nonnull SymbolTable symbols) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+            this.symbols = symbols;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(kind);
+        }
+
+        /**
+         * @param record The encoded record.
+         * @param keys   The keys the record can be looked up by.
+         */
+        public void add(@Nonnull byte[] record, int... keys) throws IOException {
+            out.write(record);
+            position += record.length;
+            writeVarInt(lengths, record.length);
+            for (int key : keys) {
+                List<Integer> records = index.computeIfAbsent(key, k -> new ArrayList<>());
+                if (records.isEmpty() || records.get(records.size() - 1) != size) records.add(size);
+            }
+            size++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long symbolsStart = position;
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            int symbolCount = symbols.size();
+            writeVarInt(section, symbolCount);
+            for (int id = 0; id < symbolCount; id++) {
+                byte[] bytes = symbols.symbol(id).getBytes(StandardCharsets.UTF_8);
+                writeVarInt(section, bytes.length);
+                section.write(bytes);
+            }
+            section.writeTo(out);
+
+            long lengthsStart = symbolsStart + section.size();
+            lengths.writeTo(out);
+
+            long indexStart = lengthsStart + lengths.size();
+            section.reset();
+            writeVarInt(section, index.size());
+            for (Map.Entry<Integer, List<Integer>> e : index.entrySet()) {
+                writeVarInt(section, e.getKey());
+                writeVarInt(section, e.getValue().size());
+                int previous = 0;
+                for (int record : e.getValue()) {
+                    writeVarInt(section, record - previous);
+                    previous = record;
+                }
+            }
+            section.writeTo(out);
+
+            out.writeLong(symbolsStart);
+            out.writeLong(lengthsStart);
+            out.writeLong(indexStart);
+            out.writeInt(size);
+            out.writeInt(MAGIC);
+            out.close();
+        }
+    }
+
+    /*=========*
+     * READING *
+     *=========*/
+
+    public static class Reader {
+        private final ByteBuffer buffer;
+        private final int kind;
+        private final SymbolTable symbols = new SymbolTable();
+        private final long[] offsets;    // offsets[i] is the start of the i-th record, offsets[size] its end
+        private final Map<Integer, int[]> index = new HashMap<>();
+
+        private Reader(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            int limit = buffer.limit();
+            if (limit < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(limit - Integer.BYTES) != MAGIC) {
+                throw new IOException("Not a binary container");
+            }
+            int version = buffer.getInt(Integer.BYTES);
+            if (version != VERSION) throw new IOException("Unsupported binary container version: " + version);
+            this.kind = buffer.getInt(2 * Integer.BYTES);
+
+            int trailer = limit - TRAILER_SIZE;
+            int symbolsStart = (int) buffer.getLong(trailer);
+            int lengthsStart = (int) buffer.getLong(trailer + Long.BYTES);
+            int indexStart = (int) buffer.getLong(trailer + 2 * Long.BYTES);
+            int size = buffer.getInt(trailer + 3 * Long.BYTES);
+
+            ByteBuffer section = buffer.duplicate();
+            section.position(symbolsStart);
+            int symbolCount = readVarInt(section);
+            for (int id = 0; id < symbolCount; id++) {
+                byte[] bytes = new byte[readVarInt(section)];
+                section.get(bytes);
+                symbols.intern(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            section.position(lengthsStart);
+            this.offsets = new long[size + 1];
+            offsets[0] = HEADER_SIZE;
+            for (int i = 0; i < size; i++) offsets[i + 1] = offsets[i] + readVarInt(section);
+
+            section.position(indexStart);
+            int keyCount = readVarInt(section);
+            for (int k = 0; k < keyCount; k++) {
+                int key = readVarInt(section);
+                int[] records = new int[readVarInt(section)];
+                int previous = 0;
+                for (int i = 0; i < records.length; i++) {
+                    previous += readVarInt(section);
+                    records[i] = previous;
+                }
+                index.put(key, records);
+            }
+        }
+
+        /**
+         * This method maps a file in memory (files up to 2 GB are supported).
+         * Compressed files cannot be mapped: they are {@link #read(InputStream) read} into the heap instead.
+         */
+        public static Reader open(@Nonnull Path path) throws IOException {
+            if (IOUtils.isCompressedFile(path.toString())) {
+                try (InputStream in = IOUtils.newInputStream(path.toString())) {
+                    return read(in);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) throw new IOException("Binary container too large: " + path);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new Reader(buffer);
+            }
+        }
+
+        /**
+         * This method reads a container from a stream (e.g., a decompressing one) into the heap.
+         */
+        public static Reader read(@Nonnull InputStream inputStream) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            inputStream.transferTo(bytes);
+            return new Reader(ByteBuffer.wrap(bytes.toByteArray()));
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        /**
+         * @return The symbol table the records refer to.
+         */
+        public SymbolTable getSymbols() {
+            return symbols;
+        }
+
+        public int size() {
+            return offsets.length - 1;
+        }
+
+        /**
+         * @return A read-only view of the {@code i}-th record, positioned at its beginning.
+         */
+        public ByteBuffer getRecord(int i) {
+            ByteBuffer record = buffer.duplicate();
+            record.limit((int) offsets[i + 1]);
+            record.position((int) offsets[i]);
+            return record.slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * @return The positions of the records having the given key, in increasing order.
+         */
+        public int[] getRecordsByKey(int key) {
+            int[] records = index.get(key);
+            return records == null ? new int[0] : records.clone();
+        }
+    }
+
+    /*==========*
+     * VARINTS  *
+     *==========*/
+
+    /**
+     * This method writes a non-negative integer using 7 bits per byte (the highest bit tells whether more bytes follow).
+     */
+    public static void writeVarInt(@Nonnull OutputStream out, int value) throws IOException {
+        if (value < 0) throw new IllegalArgumentException("Negative varint: " + value);
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static int readVarInt(@Nonnull ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+}
@@ -1,15 +1,28 @@
 package ppmappingcompiler.util;
 
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
 import com.google.gson.*;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @SuppressWarnings("unused")
 public class IOUtils {
 
+    // files whose name ends with one of these extensions are (de)compressed on the fly
+    public static final String GZIP_EXTENSION = ".gz";
+    public static final String ZSTD_EXTENSION = ".zst";
+    public static final String COMPRESSION_OPTION = "-z:";
+    private static final int BUFFER_SIZE = 1 << 16;
+
     // reads internal text resource
     public static String readTextResource(String filePath) throws IOException {
         InputStream is = Utils.class.getClassLoader().getResourceAsStream(filePath);
@@ -41,8 +54,9 @@ public class IOUtils {
 
     // reads external file
     public static String readFile(String filePath) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(filePath));
-        return readLines(br);
+        try (BufferedReader br = newReader(filePath)) {
+            return readLines(br);
+        }
     }
 
     private static String readLines(BufferedReader br) throws IOException {
@@ -54,23 +68,121 @@ public class IOUtils {
     }
 
     public static void writeFile(String filePath, String outputString) throws IOException {
-        FileWriter fw = new FileWriter(filePath);
+        Writer fw = newWriter(filePath);
         fw.write(outputString);
         fw.close();
     }
 
+    // appending to a compressed file adds a new member (gzip) or frame (zstd), which decompressors concatenate
     public static void writeLine(String filePath, String outputString) throws IOException {
-        FileWriter fw = new FileWriter(filePath, true);
+        Writer fw = newWriter(filePath, true);
         fw.append("\n").append(outputString);
         fw.close();
     }
 
+    /*=============*
+     * COMPRESSION *
+     *=============*/
+
+    public static boolean isCompressedFile(String filePath) {
+        String lowerCasePath = filePath.toLowerCase();
+        return lowerCasePath.endsWith(GZIP_EXTENSION) || lowerCasePath.endsWith(ZSTD_EXTENSION);
+    }
+
+    // e.g. "policy.json.gz" -> "policy.json"
+    public static String removeCompressionExtension(String filePath) {
+        return isCompressedFile(filePath) ? FilenameUtils.removeExtension(filePath) : filePath;
+    }
+
+    // e.g. ("mappings.obda", "zst") -> "mappings.obda.zst"; an empty compression leaves the path unchanged
+    public static String addCompressionExtension(String filePath, String compression) {
+        switch (compression.toLowerCase()) {
+            case "":
+            case "none":
+                return filePath;
+            case "gz":
+            case "gzip":
+                return filePath + GZIP_EXTENSION;
+            case "zst":
+            case "zstd":
+                return filePath + ZSTD_EXTENSION;
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
+        }
+    }
+
+    // reads the compression of the output files from a command-line option (e.g. "-z:gz"), if any
+    public static String getCompressionOption(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith(COMPRESSION_OPTION)) return arg.substring(COMPRESSION_OPTION.length());
+        }
+        return "";
+    }
+
+    // buffered stream, decompressed according to the file extension
+    public static InputStream newInputStream(String filePath) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filePath), BUFFER_SIZE);
+        String lowerCasePath = filePath.toLowerCase();
+        try {
+            if (lowerCasePath.endsWith(GZIP_EXTENSION)) return new GZIPInputStream(in, BUFFER_SIZE);
+            if (lowerCasePath.endsWith(ZSTD_EXTENSION)) return new BufferedInputStream(new ZstdInputStream(in), BUFFER_SIZE);
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public static OutputStream newOutputStream(String filePath) throws IOException {
+        return newOutputStream(filePath, false);
+    }
+
+    // buffered stream, compressed according to the file extension
+    public static OutputStream newOutputStream(String filePath, boolean append) throws IOException {
+        OutputStream out = new FileOutputStream(filePath, append);
+        String lowerCasePath = filePath.toLowerCase();
+        try {
+            if (lowerCasePath.endsWith(GZIP_EXTENSION)) out = new GZIPOutputStream(out, BUFFER_SIZE);
+            else if (lowerCasePath.endsWith(ZSTD_EXTENSION)) out = new ZstdOutputStream(out);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    public static BufferedReader newReader(String filePath) throws IOException {
+        return new BufferedReader(new InputStreamReader(newInputStream(filePath), StandardCharsets.UTF_8));
+    }
+
+    public static BufferedWriter newWriter(String filePath) throws IOException {
+        return newWriter(filePath, false);
+    }
+
+    public static BufferedWriter newWriter(String filePath, boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(newOutputStream(filePath, append), StandardCharsets.UTF_8));
+    }
+
+    // e.g. for feeding (possibly compressed) files to Ontop
+    public static CharSource asCharSource(String filePath) {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return newInputStream(filePath);
+            }
+        }.asCharSource(StandardCharsets.UTF_8);
+    }
+
     public static void prettySerializeJson(String jsonString, String filePath) throws IOException {
         Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
         String prettyJsonString = gson.toJson(JsonParser.parseString(jsonString));
         writeFile(filePath, prettyJsonString);
     }
 
+    public static JsonArray loadJsonArray(String filePath) throws IOException {
+        return (JsonArray) JsonParser.parseString(IOUtils.readFile(filePath));
+    }
+
     public static List<String> loadJsonArrayAsStringList(String filePath) throws IOException {
         String jsonString = IOUtils.readFile(filePath);
         JsonArray jsonArray = (JsonArray) JsonParser.parseString(jsonString);
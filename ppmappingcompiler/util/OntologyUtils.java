@@ -6,7 +6,8 @@ import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import ppmappingcompiler.Logger;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.regex.Pattern;
@@ -15,9 +16,10 @@ import java.util.stream.Collectors;
 @SuppressWarnings("unused")
 public class OntologyUtils {
 
-    public static OWLOntology loadOntology(String ontologyFilePath) throws OWLOntologyCreationException {
-        return OWLManager.createOWLOntologyManager()
-                .loadOntologyFromOntologyDocument(new File(ontologyFilePath));
+    public static OWLOntology loadOntology(String ontologyFilePath) throws OWLOntologyCreationException, IOException {
+        try (InputStream in = IOUtils.newInputStream(ontologyFilePath)) {
+            return OWLManager.createOWLOntologyManager().loadOntologyFromOntologyDocument(in);
+        }
     }
 
     public static Set<String> getOntologyPredicates(OWLOntology ontology) {
@@ -0,0 +1,110 @@
+package ppmappingcompiler;
+
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.CONCEPT;
+
+public class BoundedRewriterTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private static OntologyPredicateAtom concept(String name) throws Exception {
+        return new OntologyPredicateAtom(PREFIX + name, Collections.singletonList(new Variable("x")), CONCEPT);
+    }
+
+    @Test
+    public void skipsPredicatesNotInThePolicy() throws Exception {
+        OntologyPredicateAtom atom = concept("B");
+        try (BoundedRewriter rewriter = new BoundedRewriter(() -> (a, k) -> {
+            throw new AssertionError("the rewriter must not run");
+        }, Collections.singletonList(concept("A")), 0, 0)) {
+            assertEquals(atom, rewriter.rewrite(atom, 1));
+        }
+    }
+
+    @Test
+    public void fallsBackOnTooManyDisjuncts() throws Exception {
+        OntologyPredicateAtom atom = concept("A");
+        Formula rewriting = new Disjunction(concept("A"), concept("B"), concept("C"));
+        try (BoundedRewriter rewriter = new BoundedRewriter(() -> (a, k) -> rewriting.clone(),
+                Collections.singletonList(atom), 2, 0)) {
+            assertEquals(False.getInstance(), rewriter.rewrite(atom, 1));
+            assertEquals(Collections.singletonList(atom), rewriter.getFallbacks());
+        }
+    }
+
+    @Test
+    public void replacesTheRewriterAbandonedAfterATimeout() throws Exception {
+        OntologyPredicateAtom atom = concept("A");
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> instances = new ArrayList<>();
+        try (BoundedRewriter rewriter = new BoundedRewriter(() -> {
+            int instance = instances.size();
+            instances.add(instance);
+            return (a, k) -> {
+                if (instance == 0) {
+                    // the first rewriter ignores interruptions and outlives the timeout
+                    while (true) {
+                        try {
+                            release.await();
+                            break;
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+                return a;
+            };
+        }, Collections.singletonList(atom), 0, 100)) {
+            assertEquals(False.getInstance(), rewriter.rewrite(atom, 1));
+            assertEquals(Arrays.asList(0, 1), instances);
+            assertEquals(atom, rewriter.rewrite(atom, 1));
+            assertEquals(Collections.singletonList(atom), rewriter.getFallbacks());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void boundsTheAbandonedRewritings() throws Exception {
+        List<OntologyPredicateAtom> atoms = Arrays.asList(concept("A"), concept("B"), concept("C"));
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger(), finished = new AtomicInteger();
+        // every rewriting ignores interruptions until released
+        try (BoundedRewriter rewriter = new BoundedRewriter(() -> (a, k) -> {
+            started.incrementAndGet();
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException ignored) {
+                }
+            }
+            finished.incrementAndGet();
+            return a;
+        }, atoms, 0, 50)) {
+            for (OntologyPredicateAtom atom : atoms) {
+                assertEquals(False.getInstance(), rewriter.rewrite(atom, 1));
+            }
+            // the third atom does not start a rewriting, since two abandoned ones are still running
+            assertEquals(BoundedRewriter.MAX_ABANDONED_REWRITINGS, started.get());
+            assertEquals(atoms, rewriter.getFallbacks());
+
+            // once the abandoned rewritings end, atoms are rewritten again
+            release.countDown();
+            while (finished.get() < started.get()) Thread.sleep(10);
+            assertEquals(atoms.get(2), rewriter.rewrite(atoms.get(2), 1));
+        } finally {
+            release.countDown();
+        }
+    }
+
+}
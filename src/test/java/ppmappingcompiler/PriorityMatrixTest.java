@@ -0,0 +1,97 @@
+package ppmappingcompiler;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PriorityMatrixTest {
+
+    private static PriorityMatrix roundTrip(PriorityMatrix matrix) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        matrix.writeTo(out);
+        return PriorityMatrix.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static byte[] header(int size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0x50505249);
+        data.writeInt(1);
+        data.writeInt(size);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void closesTransitively() {
+        PriorityMatrix matrix = new PriorityMatrix(130);    // rows spanning three words
+        matrix.setPreferred(0, 70);
+        matrix.setPreferred(70, 129);
+        matrix.setPreferred(129, 5);
+        assertFalse(matrix.isPreferred(0, 5));
+
+        matrix.closeTransitively();
+        assertTrue(matrix.isPreferred(0, 129));
+        assertTrue(matrix.isPreferred(0, 5));
+        assertTrue(matrix.isPreferred(70, 5));
+        assertFalse(matrix.isPreferred(5, 0));
+        assertFalse(matrix.hasCycle());
+        assertEquals(6, matrix.count());
+    }
+
+    @Test
+    public void detectsCycles() {
+        PriorityMatrix matrix = new PriorityMatrix(3);
+        matrix.setPreferred(0, 1);
+        matrix.setPreferred(1, 2);
+        matrix.setPreferred(2, 0);
+        matrix.closeTransitively();
+        assertTrue(matrix.hasCycle());
+    }
+
+    @Test
+    public void survivesSerialisation() throws IOException {
+        for (int size : new int[]{0, 1, 64, 100}) {
+            PriorityMatrix matrix = new PriorityMatrix(size);
+            for (int i = 0; i + 1 < size; i += 3) matrix.setPreferred(i, size - 1 - i);
+            PriorityMatrix read = roundTrip(matrix);
+            assertEquals(matrix, read);
+            assertEquals(matrix.count(), read.count());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new PriorityMatrix(-1));
+        // 400000 rows of 6250 words overflow an int
+        assertThrows(IllegalArgumentException.class, () -> new PriorityMatrix(400_000));
+    }
+
+    @Test
+    public void rejectsCorruptedInput() throws IOException {
+        assertThrows(IOException.class, () -> PriorityMatrix.readFrom(new ByteArrayInputStream(header(-1))));
+        assertThrows(IOException.class, () -> PriorityMatrix.readFrom(new ByteArrayInputStream(header(400_000))));
+        // a plausible size with missing data fails on EOF instead of allocating the whole matrix
+        assertThrows(IOException.class, () -> PriorityMatrix.readFrom(new ByteArrayInputStream(header(100_000))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header(2));
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeLong(1L << 2);    // column 2 is beyond the matrix
+        data.writeLong(0);
+        data.flush();
+        assertThrows(IOException.class, () -> PriorityMatrix.readFrom(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void checksIndexes() {
+        PriorityMatrix matrix = new PriorityMatrix(2);
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.setPreferred(0, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.isPreferred(-1, 0));
+    }
+
+}
@@ -0,0 +1,65 @@
+package ppmappingcompiler;
+
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.CONCEPT;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.ROLE;
+
+public class SparqlCompilerTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private static OntologyPredicateAtom role(String name, Variable x, Variable y) throws Exception {
+        return new OntologyPredicateAtom(PREFIX + name, Arrays.asList(x, y), ROLE);
+    }
+
+    private static OntologyPredicateAtom concept(String name, Variable x) throws Exception {
+        return new OntologyPredicateAtom(PREFIX + name, Arrays.asList(x), CONCEPT);
+    }
+
+    @Test
+    public void inlinesSingleTripleExistentialsInsteadOfMergingThem() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        Formula formula = new Conjunction(new Exist(role("R", x, y), y), new Exist(role("S", x, z), z));
+
+        String sparql = SparqlCompiler.convertToSPARQL(formula);
+        assertTrue(sparql, sparql.contains("?x <" + PREFIX + "R> [] ."));
+        assertTrue(sparql, sparql.contains("?x <" + PREFIX + "S> [] ."));
+        assertFalse(sparql, sparql.contains("{ SELECT"));
+    }
+
+    @Test
+    public void mergesExistentialsThatCannotBeInlined() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        Formula formula = new Conjunction(
+                new Exist(new Conjunction(role("R", x, y), concept("T", y)), y),
+                new Exist(new Conjunction(role("S", x, z), concept("T", z)), z));
+
+        String sparql = SparqlCompiler.convertToSPARQL(formula);
+        assertEquals(sparql, 1, sparql.split("\\{ SELECT", -1).length - 1);
+        assertTrue(sparql, sparql.contains("?x <" + PREFIX + "R> ?y ."));
+        assertTrue(sparql, sparql.contains("?x <" + PREFIX + "S> ?z ."));
+    }
+
+    @Test
+    public void keepsDistinctOnBooleanSubqueries() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y");
+        Formula formula = new Conjunction(concept("T", x), new Exist(concept("U", y), y));
+
+        String sparql = SparqlCompiler.convertToSPARQL(formula);
+        assertTrue(sparql, sparql.contains("{ SELECT DISTINCT (1 AS ?dummy) { ?y a <" + PREFIX + "U> . }}"));
+    }
+
+    @Test
+    public void renamesVariablesOutsideIrisAndLiterals() {
+        String query = "SELECT DISTINCT ?x {\n?x <http://example.org/p?x=1> \"?x\" .\n?x <http://example.org/q> 'it\\'s ?x' .\n}";
+        assertEquals("SELECT DISTINCT ?y {\n?y <http://example.org/p?x=1> \"?x\" .\n?y <http://example.org/q> 'it\\'s ?x' .\n}",
+                SparqlCompiler.renameVariables(query, Collections.singletonMap("x", "y")));
+    }
+
+}
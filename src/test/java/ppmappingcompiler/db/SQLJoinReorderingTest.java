@@ -0,0 +1,68 @@
+package ppmappingcompiler.db;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class SQLJoinReorderingTest {
+
+    private SQLJoinReordering reordering;
+
+    @Before
+    public void loadStatistics() throws IOException {
+        Path metadata = Files.createTempFile("metadata", ".json");
+        Files.write(metadata, ("{\"relations\": ["
+                + "{\"name\": [\"\\\"Big\\\"\"], \"statistics\": {\"rowCount\": 1000}},"
+                + "{\"name\": [\"\\\"Small\\\"\"], \"statistics\": {\"rowCount\": 10}}"
+                + "]}").getBytes(StandardCharsets.UTF_8));
+        try {
+            reordering = new SQLJoinReordering(DBStatistics.loadFromJson(metadata.toString()));
+        } finally {
+            Files.delete(metadata);
+        }
+    }
+
+    @Test
+    public void sortsFromClauseBySize() {
+        assertEquals("SELECT v1.a FROM \"Small\" v2, \"Big\" v1 WHERE v1.a = v2.a",
+                reordering.reorder("SELECT v1.a FROM \"Big\" v1, \"Small\" v2 WHERE v1.a = v2.a"));
+    }
+
+    @Test
+    public void putsPlainConditionsBeforeSubqueries() {
+        assertEquals("SELECT v1.a FROM \"Big\" v1 WHERE v1.a = 'x' AND NOT EXISTS (SELECT 1 FROM \"Small\" v2)",
+                reordering.reorder("SELECT v1.a FROM \"Big\" v1 WHERE NOT EXISTS (SELECT 1 FROM \"Small\" v2) AND v1.a = 'x'"));
+    }
+
+    @Test
+    public void sortsSubqueriesBySize() {
+        assertEquals("SELECT 1 FROM \"Big\" v1 WHERE EXISTS (SELECT 1 FROM \"Small\" v3) AND EXISTS (SELECT 1 FROM \"Big\" v2)",
+                reordering.reorder("SELECT 1 FROM \"Big\" v1 WHERE EXISTS (SELECT 1 FROM \"Big\" v2) AND EXISTS (SELECT 1 FROM \"Small\" v3)"));
+    }
+
+    @Test
+    public void doesNotSplitCaseExpressions() {
+        String condition = "CASE WHEN v1.a = 'x' AND EXISTS (SELECT 1 FROM \"Small\" v2) AND v1.b = 'y' THEN 1 ELSE 0 END = 1";
+        assertEquals("SELECT 1 FROM \"Big\" v1 WHERE " + condition + " AND EXISTS (SELECT 1 FROM \"Big\" v3)",
+                reordering.reorder("SELECT 1 FROM \"Big\" v1 WHERE EXISTS (SELECT 1 FROM \"Big\" v3) AND " + condition));
+    }
+
+    @Test
+    public void leavesTopLevelDisjunctionsUntouched() {
+        String sql = "SELECT 1 FROM \"Big\" v1 WHERE EXISTS (SELECT 1 FROM \"Small\" v2) AND v1.a = 'x' OR v1.b = 'y'";
+        assertEquals(sql, reordering.reorder(sql));
+    }
+
+    @Test
+    public void leavesQueriesUntouchedWithoutStatistics() {
+        String sql = "SELECT v1.a FROM \"Big\" v1, \"Small\" v2";
+        assertEquals(sql, new SQLJoinReordering(DBStatistics.empty()).reorder(sql));
+    }
+
+}
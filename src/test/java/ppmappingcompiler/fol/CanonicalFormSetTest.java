@@ -0,0 +1,37 @@
+package ppmappingcompiler.fol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CanonicalFormSetTest {
+
+    private static CanonicalForm form(String x, String y) {
+        return CanonicalForm.of(new Conjunction(
+                new PredicateAtom("P", Arrays.asList(new Variable(x), new Variable(y))),
+                new PredicateAtom("Q", Arrays.asList(new Variable(y)))));
+    }
+
+    @Test
+    public void discardsFormulasEqualUpToRenaming() {
+        CanonicalFormSet set = new CanonicalFormSet();
+        assertTrue(set.add(form("x", "y")));
+        assertFalse(set.add(form("a", "b")));
+        assertTrue(set.add(form("x", "x")));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void keepsDifferentKeysWithTheSameFingerprint() {
+        CanonicalFormSet set = new CanonicalFormSet();
+        assertTrue(set.add(42, "P(v0)"));
+        assertTrue(set.add(42, "Q(v0)"));
+        assertFalse(set.add(42, "P(v0)"));
+        assertFalse(set.add(42, "Q(v0)"));
+        assertTrue(set.add(42, "R(v0)"));
+        assertEquals(3, set.size());
+    }
+
+}
@@ -0,0 +1,129 @@
+package ppmappingcompiler.fol;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class FreshNameSupplyTest {
+
+    private static final Set<String> LATIN_ALPHABET = IntStream.rangeClosed('a', 'z')
+            .mapToObj(c -> String.valueOf((char) c))
+            .collect(Collectors.toSet());
+
+    private static List<String> take(FreshNameSupply names, int n) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < n; i++) result.add(names.next());
+        return result;
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private static PredicateAtom atom(String predicate, Term... terms) {
+        return new PredicateAtom(predicate, Arrays.asList(terms));
+    }
+
+    @Test
+    public void enumeratesNamesByLengthAndThenLexicographically() {
+        FreshNameSupply names = new FreshNameSupply(Arrays.asList("y", "x"), Collections.emptySet());
+        assertEquals(Arrays.asList("x", "y", "xx", "xy", "yx", "yy", "xxx"), take(names, 7));
+    }
+
+    @Test
+    public void concatenatesTheAlphabetOnceExhausted() {
+        FreshNameSupply names = new FreshNameSupply(LATIN_ALPHABET, Collections.emptySet());
+        List<String> issued = take(names, 22);
+        // a, c, g, k and m are SQL reserved words
+        assertEquals("z", issued.get(20));
+        assertEquals("aa", issued.get(21));
+        assertFalse(issued.contains("a"));
+    }
+
+    @Test
+    public void skipsSqlReservedWords() {
+        FreshNameSupply names = new FreshNameSupply(Arrays.asList("a", "b", "s"), Collections.emptySet());
+        assertEquals(Arrays.asList("b", "s", "aa", "ab", "ba"), take(names, 5));
+    }
+
+    @Test
+    public void comparesReservedNamesCaseInsensitively() {
+        FreshNameSupply names = new FreshNameSupply(Arrays.asList("x", "y"), Collections.singleton("X"));
+        names.reserve("XX");
+        assertTrue(names.isReserved("x"));
+        assertEquals(Arrays.asList("y", "xy"), take(names, 2));
+        assertTrue(names.isReserved("Y"));
+    }
+
+    @Test
+    public void numbersNamesInNumberedMode() {
+        FreshNameSupply names = FreshNameSupply.numbered("v", Collections.singleton("V2"));
+        assertEquals(Arrays.asList("v1", "v3", "v4"), take(names, 3));
+        assertEquals(Arrays.asList("v1", "v3", "v4"), names.getIssuedNames());
+    }
+
+    @Test
+    public void rejectsEmptyAlphabets() {
+        assertThrows(IllegalArgumentException.class, () -> new FreshNameSupply(Collections.singleton(""), Collections.emptySet()));
+    }
+
+    @Test
+    public void distinguishesNestedQuantifiedVariables() {
+        // ∃x,y (R(x,y) v ∀y (S(x,y))) -> ∃x,y (R(x,y) v ∀z (S(x,z)))
+        Variable x = new Variable("x"), y = new Variable("y");
+        ForAll inner = new ForAll(atom("S", x, y), new Variable("y"));
+        Exist formula = new Exist(new Disjunction(atom("R", x, y), inner), x, y);
+        formula.distinguishQuantifiedVariables(set("x", "y", "z"));
+
+        assertEquals(set("x", "y"), names(formula.getQuantifiedVariables()));
+        assertEquals(set("z"), names(inner.getQuantifiedVariables()));
+        assertEquals("S(x, z)", inner.getContent().toString());
+    }
+
+    @Test
+    public void renamesQuantifiedVariablesClashingWithFreeOnes() {
+        // P(y) AND ∃y R(y) -> P(y) AND ∃x R(x)
+        Exist exist = new Exist(atom("R", new Variable("y")), new Variable("y"));
+        Conjunction formula = new Conjunction(atom("P", new Variable("y")), exist);
+        formula.distinguishQuantifiedVariables(set("x", "y"));
+
+        assertEquals(set("x"), names(exist.getQuantifiedVariables()));
+        assertEquals(set("x", "y"), formula.getVariablesNames());
+    }
+
+    @Test
+    public void keepsTheReservedNamesWithoutUpdate() {
+        // sibling quantifiers get distinct names even if the reserved names are not updated
+        Exist first = new Exist(atom("A", new Variable("y")), new Variable("y"));
+        Exist second = new Exist(atom("B", new Variable("y")), new Variable("y"));
+        Disjunction formula = new Disjunction(first, second);
+        Set<String> reservedNames = set("w");
+        formula.distinguishQuantifiedVariables(set("w", "x", "y"), reservedNames, false);
+
+        assertEquals(set("w"), reservedNames);
+        assertEquals(set("x", "y"), formula.getVariablesNames());
+    }
+
+    @Test
+    public void makesBlankVariablesExplicit() {
+        // A(x,_) AND B(_,y) -> A(x,z) AND B(w,y), in some order
+        Conjunction formula = new Conjunction(
+                atom("A", new Variable("x"), Variable.getUndistinguishedNonSharedVariable()),
+                atom("B", Variable.getUndistinguishedNonSharedVariable(), new Variable("y")));
+        Set<String> reservedNames = set("v");
+        formula.explicitVariables(set("v", "w", "x", "y", "z"), reservedNames);
+
+        assertEquals(set("w", "x", "y", "z"), formula.getVariablesNames());
+        // the issued names are reserved, besides the ones occurring in the formula
+        assertTrue(reservedNames.containsAll(set("v", "w", "x", "y", "z")));
+    }
+
+    private static Set<String> names(Collection<Variable> variables) {
+        return variables.stream().map(Variable::getName).collect(Collectors.toSet());
+    }
+
+}
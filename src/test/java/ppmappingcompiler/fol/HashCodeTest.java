@@ -0,0 +1,132 @@
+package ppmappingcompiler.fol;
+
+import org.junit.Test;
+import ppmappingcompiler.policy.ConjunctiveQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+import static org.junit.Assert.*;
+import static org.semanticweb.owlapi.vocab.OWL2Datatype.XSD_STRING;
+
+public class HashCodeTest {
+
+    @Test
+    public void equalTermsHaveEqualHashCodes() {
+        assertEquals(new Variable("x").hashCode(), new Variable("x").hashCode());
+        assertEquals(new ObjectConstant("http://example.org/a").hashCode(), new ObjectConstant("http://example.org/a").hashCode());
+        assertEquals(new DataConstant("a", XSD_STRING).hashCode(), new DataConstant("a", XSD_STRING).hashCode());
+    }
+
+    @Test
+    public void termsOfDifferentKindsDoNotCollide() {
+        assertNotEquals(new Variable("a").hashCode(), new ObjectConstant("a").hashCode());
+        assertNotEquals(new Variable("a").hashCode(), new DataConstant("a", XSD_STRING).hashCode());
+        assertNotEquals(new ObjectConstant("a").hashCode(), new DataConstant("a", XSD_STRING).hashCode());
+    }
+
+    @Test
+    public void variableHashCodeFollowsRenamingAndBinding() {
+        Variable x = new Variable("x");
+        int unbound = x.hashCode();
+
+        x.setName("y");
+        assertEquals(new Variable("y").hashCode(), x.hashCode());
+        x.setName("x");
+        assertEquals(unbound, x.hashCode());
+
+        ConjunctiveQuery query = new ConjunctiveQuery(Collections.emptyList());
+        x.bindToQuery(query);
+        assertEquals(new Variable("x", query).hashCode(), x.hashCode());
+        assertEquals(new Variable("x", query), x);
+        x.unbind();
+        assertEquals(unbound, x.hashCode());
+    }
+
+    @Test
+    public void atomHashCodeFollowsSharedTerms() {
+        Variable x = new Variable("x");
+        PredicateAtom atom = new PredicateAtom("P", Arrays.asList(x, new Variable("y")));
+        PredicateAtom renamed = new PredicateAtom("P", Arrays.asList(new Variable("z"), new Variable("y")));
+
+        assertNotEquals(renamed, atom);
+        x.setName("z");     // the term is shared with the atom
+        assertEquals(renamed, atom);
+        assertEquals(renamed.hashCode(), atom.hashCode());
+    }
+
+    @Test
+    public void symmetricComparisonsIgnoreTermOrder() {
+        Variable x = new Variable("x"), y = new Variable("y");
+        assertEquals(new Equality(x, y).hashCode(), new Equality(y, x).hashCode());
+        assertEquals(new StrictInequality(x, y).hashCode(), new StrictInequality(y, x).hashCode());
+        assertNotEquals(new Equality(x, y).hashCode(), new StrictInequality(x, y).hashCode());
+    }
+
+    @Test
+    public void containersCombineTheirMembers() {
+        PredicateAtom p = new PredicateAtom("P", Collections.singletonList(new Variable("x")));
+        PredicateAtom q = new PredicateAtom("Q", Collections.singletonList(new Variable("x")));
+
+        assertEquals(new Conjunction(p, q).hashCode(), new Conjunction(p.clone(), q.clone()).hashCode());
+        assertNotEquals(new Conjunction(p, q).hashCode(), new Disjunction(p, q).hashCode());
+        assertNotEquals(p.hashCode(), new Negation(p).hashCode());
+        assertEquals(new Exist(p, new Variable("x")).hashCode(), new Exist(p.clone(), new Variable("x")).hashCode());
+    }
+
+    /**
+     * The hash codes used to be computed by concatenating class names and nested hashes into strings:
+     * this is a simple timed comparison of that scheme with the arithmetic one, on the same large formula.
+     */
+    @Test(timeout = 60_000)
+    public void hashingLargeFormulasIsFasterThanConcatenatingStrings() {
+        List<Formula> atoms = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            atoms.add(new PredicateAtom("P" + i % 10, Arrays.asList(new Variable("x" + i), new ObjectConstant("c" + i))));
+        }
+        Conjunction conjunction = new Conjunction(atoms);
+        int h = conjunction.hashCode();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(h, conjunction.hashCode());
+        }
+
+        long arithmetic = bestOf(conjunction, Formula::hashCode);
+        long concatenated = bestOf(conjunction, HashCodeTest::concatenatedHashCode);
+        System.out.printf("Hashing 1000 atoms: %d us (arithmetic), %d us (string concatenation)%n",
+                arithmetic / 1000, concatenated / 1000);
+        assertTrue(arithmetic < concatenated);
+    }
+
+    // the best time (in ns) of hashing the formula 100 times, over several runs (the first ones warm up the JIT)
+    private static long bestOf(Formula formula, ToIntFunction<Formula> hash) {
+        long best = Long.MAX_VALUE;
+        int sink = 0;
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) sink += hash.applyAsInt(formula);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        assertNotEquals(Integer.MIN_VALUE, sink);   // keeps the hashes alive
+        return best;
+    }
+
+    // the former hash codes of conjunctions, predicate atoms, variables and constants
+    private static int concatenatedHashCode(Object o) {
+        if (o instanceof Conjunction) {
+            Object[] members = ((Conjunction) o).getFormulas().stream().map(HashCodeTest::concatenatedHashCode).toArray();
+            return (Conjunction.class.toString() + Objects.hash(members)).hashCode();
+        }
+        if (o instanceof PredicateAtom) {
+            PredicateAtom atom = (PredicateAtom) o;
+            Object[] terms = atom.getTerms().stream().map(HashCodeTest::concatenatedHashCode).toArray();
+            return (atom.getClass().toString() + atom.getPredicateIdentifier() + Objects.hash(terms)).hashCode();
+        }
+        if (o instanceof Variable) return (Variable.class + ((Variable) o).getName() + 0).hashCode();
+        return (ObjectConstant.class + ((ObjectConstant) o).getIRI()).hashCode();
+    }
+
+}
@@ -0,0 +1,92 @@
+package ppmappingcompiler.policy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.CONCEPT;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.ROLE;
+
+public class BinaryPolicyFileTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("policy", ".bin");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.delete(file);
+    }
+
+    private static List<OntologyConjunctiveQuery> policy() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y");
+        return Arrays.asList(
+                new OntologyConjunctiveQuery(Arrays.asList(
+                        new OntologyPredicateAtom(PREFIX + "R", Arrays.asList(x, y), ROLE),
+                        new OntologyPredicateAtom(PREFIX + "A", Arrays.asList(y), CONCEPT),
+                        new StrictInequality(x, y))),
+                new OntologyConjunctiveQuery(Arrays.asList(
+                        new OntologyPredicateAtom(PREFIX + "B", Arrays.asList(x), CONCEPT),
+                        new Equality(x, new ObjectConstant(PREFIX + "b")))),
+                new OntologyConjunctiveQuery(Arrays.asList(
+                        new OntologyPredicateAtom(PREFIX + "A", Arrays.asList(x), CONCEPT),
+                        new OntologyPredicateAtom(PREFIX + "B", Arrays.asList(x), CONCEPT))));
+    }
+
+    private void write(List<OntologyConjunctiveQuery> policy) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file);
+             BinaryPolicyFile.Writer writer = new BinaryPolicyFile.Writer(out)) {
+            for (OntologyConjunctiveQuery query : policy) writer.add(query);
+        }
+    }
+
+    // the atoms of a query are not ordered
+    private static List<List<String>> atoms(List<OntologyConjunctiveQuery> policy) {
+        return policy.stream()
+                .map(q -> q.getAtoms().stream().map(Object::toString).sorted().collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void survivesSerialisation() throws Exception {
+        write(policy());
+        assertEquals(atoms(policy()), atoms(BinaryPolicyFile.load(file)));
+    }
+
+    @Test
+    public void loadsRulesByPredicate() throws Exception {
+        List<OntologyConjunctiveQuery> policy = policy();
+        write(policy);
+        assertEquals(atoms(Arrays.asList(policy.get(0), policy.get(2))), atoms(BinaryPolicyFile.load(file, PREFIX + "A")));
+        assertEquals(atoms(policy.subList(1, 3)), atoms(BinaryPolicyFile.load(file, PREFIX + "B")));
+        assertTrue(BinaryPolicyFile.load(file, PREFIX + "C").isEmpty());
+    }
+
+    @Test
+    public void survivesEmptyPolicy() throws Exception {
+        write(Arrays.asList());
+        assertTrue(BinaryPolicyFile.load(file).isEmpty());
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        Files.write(file, "[\"!R(x, y)\"]".getBytes());
+        assertThrows(IOException.class, () -> BinaryPolicyFile.load(file));
+    }
+
+}
@@ -0,0 +1,89 @@
+package ppmappingcompiler.policy;
+
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.CONCEPT;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.ROLE;
+import static ppmappingcompiler.util.BinaryContainer.writeVarInt;
+
+public class CompactConjunctiveQueryTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private static OntologyConjunctiveQuery query() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        return new OntologyConjunctiveQuery(Arrays.asList(
+                new OntologyPredicateAtom(PREFIX + "R", Arrays.asList(x, y), ROLE),
+                new OntologyPredicateAtom(PREFIX + "R", Arrays.asList(y, z), ROLE),
+                new OntologyPredicateAtom(PREFIX + "A", Arrays.asList(new ObjectConstant(PREFIX + "a")), CONCEPT),
+                new Equality(x, new ObjectConstant(PREFIX + "b")),
+                new StrictInequality(y, z)));
+    }
+
+    private static CompactConjunctiveQuery roundTrip(CompactConjunctiveQuery query) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        query.writeTo(out);
+        return CompactConjunctiveQuery.readFrom(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    // the atoms of a query are not ordered
+    private static List<String> atoms(OntologyConjunctiveQuery query) {
+        return query.getAtoms().stream().map(Object::toString).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void survivesSerialisation() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        CompactConjunctiveQuery compact = CompactConjunctiveQuery.of(query(), symbols);
+        CompactConjunctiveQuery read = roundTrip(compact);
+
+        assertEquals(compact, read);
+        assertEquals(compact.hashCode(), read.hashCode());
+        assertEquals(atoms(query()), atoms(read.toQuery(symbols)));
+    }
+
+    @Test
+    public void keepsComparisonOperators() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        OntologyConjunctiveQuery query = roundTrip(CompactConjunctiveQuery.of(query(), symbols)).toQuery(symbols);
+        long equalities = query.getAtoms().stream().filter(a -> a instanceof Equality).count();
+        long inequalities = query.getAtoms().stream().filter(a -> a instanceof StrictInequality).count();
+        assertEquals(1, equalities);
+        assertEquals(1, inequalities);
+    }
+
+    @Test
+    public void rejectsUnknownComparisonOperators() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int value : new int[]{0, 1, 2, 0, 0}) {     // no atoms, one comparison with operator 2
+            try {
+                writeVarInt(out, value);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> CompactConjunctiveQuery.readFrom(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test
+    public void detectsContainment() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        Variable x = new Variable("x"), y = new Variable("y");
+        CompactConjunctiveQuery general = CompactConjunctiveQuery.of(new OntologyConjunctiveQuery(Arrays.asList(
+                new OntologyPredicateAtom(PREFIX + "R", Arrays.asList(x, y), ROLE))), symbols);
+        CompactConjunctiveQuery specific = CompactConjunctiveQuery.of(query(), symbols);
+
+        assertTrue(specific.isContainedIn(general));
+        assertFalse(general.isContainedIn(specific));
+    }
+
+}
@@ -0,0 +1,114 @@
+package ppmappingcompiler.policy;
+
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.CONCEPT;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.ROLE;
+
+public class FactorisedPolicyRuleTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private static final Variable X = new Variable("x"), Y = new Variable("y"), Z = new Variable("z");
+
+    private static OntologyConjunctiveQuery query(Atom... atoms) throws Exception {
+        return new OntologyConjunctiveQuery(Arrays.asList(atoms));
+    }
+
+    private static Atom concept(String name, Term term) throws Exception {
+        return new OntologyPredicateAtom(PREFIX + name, Collections.singletonList(term), CONCEPT);
+    }
+
+    private static Atom role(String name, Term t1, Term t2) throws Exception {
+        return new OntologyPredicateAtom(PREFIX + name, Arrays.asList(t1, t2), ROLE);
+    }
+
+    // A(x) AND (R(x,y) | S(x,z)) AND (B(x) | C(x) | D(x))
+    private static FactorisedPolicyRule rule() throws Exception {
+        return new FactorisedPolicyRule(Arrays.asList(
+                Collections.singletonList(query(concept("A", X))),
+                Arrays.asList(query(role("R", X, Y)), query(role("S", X, Z))),
+                Arrays.asList(query(concept("B", X)), query(concept("C", X)), query(concept("D", X)))));
+    }
+
+    // the atoms of a query are not ordered
+    private static Set<List<String>> atoms(Collection<OntologyConjunctiveQuery> queries) {
+        return queries.stream()
+                .map(q -> q.getAtoms().stream().map(Object::toString).sorted().collect(Collectors.toList()))
+                .collect(Collectors.toSet());
+    }
+
+    private static Set<String> names(Set<Variable> variables) {
+        return variables.stream().map(Variable::getName).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void expandsIntoTheProductOfTheFactors() throws Exception {
+        FactorisedPolicyRule rule = rule();
+        List<OntologyConjunctiveQuery> expansion = rule.expand().collect(Collectors.toList());
+
+        assertEquals(6, rule.getExpansionSize());
+        assertEquals(6, expansion.size());
+        Set<OntologyConjunctiveQuery> expected = new HashSet<>();
+        for (Atom a2 : Arrays.asList(role("R", X, Y), role("S", X, Z))) {
+            for (String name : Arrays.asList("B", "C", "D")) {
+                expected.add(query(concept("A", X), a2, concept(name, X)));
+            }
+        }
+        assertEquals(atoms(expected), atoms(expansion));
+    }
+
+    @Test
+    public void saturatesTheExpansionSize() throws Exception {
+        List<OntologyConjunctiveQuery> factor = Collections.nCopies(1 << 16, query(concept("A", X)));
+        FactorisedPolicyRule rule = new FactorisedPolicyRule(Collections.nCopies(5, factor));
+        assertEquals(Long.MAX_VALUE, rule.getExpansionSize());
+    }
+
+    @Test
+    public void detectsConjunctiveRules() throws Exception {
+        assertTrue(FactorisedPolicyRule.of(query(concept("A", X), role("R", X, Y))).isConjunctive());
+        assertFalse(rule().isConjunctive());
+    }
+
+    @Test
+    public void rejectsEmptyFactors() throws Exception {
+        List<List<OntologyConjunctiveQuery>> factors = Arrays.asList(
+                Collections.singletonList(query(concept("A", X))), Collections.emptyList());
+        assertThrows(IllegalArgumentException.class, () -> new FactorisedPolicyRule(factors));
+    }
+
+    @Test
+    public void quantifiesLocalVariablesInTheFormula() throws Exception {
+        Formula formula = rule().toFormula();
+        assertTrue(formula instanceof Conjunction);
+        Conjunction conjunction = (Conjunction) formula;
+
+        // A(x), (∃y R(x,y)) OR (∃z S(x,z)), B(x) OR C(x) OR D(x)
+        assertEquals(3, conjunction.size());
+        assertEquals(Collections.singleton("x"), names(conjunction.getFreeVariables()));
+        List<Disjunction> disjunctions = conjunction.getFormulas().stream()
+                .filter(f -> f instanceof Disjunction)
+                .map(f -> (Disjunction) f)
+                .sorted(Comparator.comparingInt(Disjunction::size))
+                .collect(Collectors.toList());
+        assertEquals(2, disjunctions.size());
+        assertTrue(disjunctions.get(0).getFormulas().stream().allMatch(f -> f instanceof Exist));
+        assertTrue(disjunctions.get(1).getFormulas().stream().noneMatch(f -> f instanceof Exist));
+    }
+
+    @Test
+    public void keepsSharedVariablesFreeInTheFormula() throws Exception {
+        // R(x,y) AND (S(y,z) | T(y,z)): y is shared with the first factor, z is local to each alternative
+        FactorisedPolicyRule rule = new FactorisedPolicyRule(Arrays.asList(
+                Collections.singletonList(query(role("R", X, Y))),
+                Arrays.asList(query(role("S", Y, Z)), query(role("T", Y, Z)))));
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), names(rule.toFormula().getFreeVariables()));
+    }
+
+}
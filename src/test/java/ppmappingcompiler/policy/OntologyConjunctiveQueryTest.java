@@ -0,0 +1,85 @@
+package ppmappingcompiler.policy;
+
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+import ppmappingcompiler.policy.OntologyConjunctiveQuery.UnsafePolicyException;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.*;
+
+public class OntologyConjunctiveQueryTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private static OntologyPredicateAtom atom(String name, OntologyPredicateAtom.Type type, Term... terms) throws Exception {
+        return new OntologyPredicateAtom(PREFIX + name, Arrays.asList(terms), type);
+    }
+
+    @Test
+    public void acceptsInequalitiesOnAttributeRanges() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        new OntologyConjunctiveQuery(Arrays.asList(
+                atom("A", CONCEPT, x),
+                atom("age", ATTRIBUTE, x, y),
+                atom("age", ATTRIBUTE, x, z),
+                new StrictInequality(y, z))).comparisonAtomsSafetyCheck();
+    }
+
+    @Test
+    public void rejectsInequalitiesOnRoles() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        OntologyConjunctiveQuery query = new OntologyConjunctiveQuery(Arrays.asList(
+                atom("R", ROLE, x, y),
+                atom("R", ROLE, x, z),
+                new StrictInequality(y, z)));
+        assertThrows(UnsafePolicyException.class, query::comparisonAtomsSafetyCheck);
+    }
+
+    @Test
+    public void rejectsInequalitiesOnAttributeDomains() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        OntologyConjunctiveQuery query = new OntologyConjunctiveQuery(Arrays.asList(
+                atom("age", ATTRIBUTE, x, z),
+                atom("age", ATTRIBUTE, y, z),
+                new StrictInequality(x, y)));
+        assertThrows(UnsafePolicyException.class, query::comparisonAtomsSafetyCheck);
+    }
+
+    @Test
+    public void rejectsInequalitiesOnAttributesWithConstantDomain() throws Exception {
+        Variable y = new Variable("y"), z = new Variable("z");
+        OntologyConjunctiveQuery query = new OntologyConjunctiveQuery(Arrays.asList(
+                atom("age", ATTRIBUTE, new ObjectConstant(PREFIX + "a"), y),
+                atom("age", ATTRIBUTE, new ObjectConstant(PREFIX + "a"), z),
+                new StrictInequality(y, z)));
+        assertThrows(UnsafePolicyException.class, query::comparisonAtomsSafetyCheck);
+    }
+
+    @Test
+    public void rejectsInequalitiesOnUnboundVariables() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        OntologyConjunctiveQuery query = new OntologyConjunctiveQuery(Arrays.asList(
+                atom("age", ATTRIBUTE, x, y),
+                new StrictInequality(y, z)));
+        assertThrows(UnsafePolicyException.class, query::comparisonAtomsSafetyCheck);
+    }
+
+    @Test
+    public void buildsCombinableGroupPatterns() throws Exception {
+        Variable x = new Variable("x"), y = new Variable("y");
+        OntologyConjunctiveQuery query = new OntologyConjunctiveQuery(Arrays.asList(
+                atom("R", ROLE, x, y),
+                atom("A", CONCEPT, y),
+                new StrictInequality(x, y)));
+        String pattern = query.toSparqlGroupPattern();
+
+        assertEquals("ASK WHERE " + pattern, query.toSparql());
+        assertTrue(pattern.startsWith("{ ") && pattern.endsWith("}"));
+        assertTrue(pattern.contains("?x <" + PREFIX + "R> ?y."));
+        assertTrue(pattern.contains("?y a <" + PREFIX + "A>."));
+        assertTrue(pattern.contains("FILTER (?x != ?y)"));
+    }
+
+}
@@ -0,0 +1,81 @@
+package ppmappingcompiler.policy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class PolicyLoaderTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private OWLOntology ontology;
+    private Path file;
+
+    @Before
+    public void createOntologyAndFile() throws Exception {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLDataFactory factory = manager.getOWLDataFactory();
+        ontology = manager.createOntology(IRI.create(PREFIX));
+        manager.addAxiom(ontology, factory.getOWLDeclarationAxiom(factory.getOWLClass(IRI.create(PREFIX + "A"))));
+        manager.addAxiom(ontology, factory.getOWLDeclarationAxiom(factory.getOWLObjectProperty(IRI.create(PREFIX + "R"))));
+        manager.addAxiom(ontology, factory.getOWLDeclarationAxiom(factory.getOWLDataProperty(IRI.create(PREFIX + "att"))));
+        file = Files.createTempFile("policy", ".json");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.delete(file);
+    }
+
+    private static String rule(String body) {
+        return "\"Q() :- " + body.replaceAll("\\b(A|R|att)\\(", PREFIX + "$1(") + ".\"";
+    }
+
+    private void write(String... entries) throws IOException {
+        Files.write(file, Arrays.asList("[", String.join(",\n", entries), "]"));
+    }
+
+    private List<Integer> invalidPositions(PolicyLoader loader) {
+        PolicyLoader.InvalidPolicyException e = assertThrows(PolicyLoader.InvalidPolicyException.class,
+                () -> loader.load(file.toString()));
+        return e.getInvalidRules().stream().map(r -> r.position).collect(Collectors.toList());
+    }
+
+    @Test
+    public void loadsPlainAndFactorisedRules() throws Exception {
+        write(rule("A(x)"),
+                String.format("[[%s], [%s, %s]]", rule("att(x, v)"), rule("A(x)"), rule("R(x, y)")));
+        assertEquals(3, new PolicyLoader(ontology, true, true).load(file.toString()).size());
+        assertEquals(2, new PolicyLoader(ontology).loadFactorised(file.toString()).size());
+    }
+
+    @Test
+    public void reportsUnsafeRulesByTheirPositionInTheFile() throws Exception {
+        write(rule("A(x)"),
+                // each alternative is safe, but A(w) does not assert anything about x in the number restriction
+                String.format("[[%s], [%s, %s]]", rule("R(x, y), R(x, z), y != z"), rule("A(x)"), rule("A(w)")),
+                rule("A(x), A(w), R(x, y), R(x, z), y != z"));
+        assertEquals(Arrays.asList(1, 2), invalidPositions(new PolicyLoader(ontology, true, false)));
+        assertEquals(4, new PolicyLoader(ontology).load(file.toString()).size());
+        assertEquals(3, new PolicyLoader(ontology, true, false).loadFactorised(file.toString()).size());
+    }
+
+    @Test
+    public void reportsAFactorisedRuleOnceIfSeveralAlternativesCannotBeParsed() throws Exception {
+        write(rule("A(x)"),
+                String.format("[[%s], [%s, %s]]", rule("A(x)"), rule("Unknown(x)"), rule("Unknown(x, y)")),
+                rule("A(x"));
+        assertEquals(Arrays.asList(1, 2), invalidPositions(new PolicyLoader(ontology)));
+    }
+}
@@ -0,0 +1,52 @@
+package ppmappingcompiler.policy;
+
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.CONCEPT;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.ROLE;
+
+public class PolicyMinimizerTest {
+
+    private static final String PREFIX = "http://example.org/";
+
+    private static OntologyConjunctiveQuery query(String... roles) throws Exception {
+        Variable x = new Variable("x");
+        OntologyPredicateAtom[] atoms = new OntologyPredicateAtom[roles.length + 1];
+        atoms[0] = new OntologyPredicateAtom(PREFIX + "A", Collections.singletonList(x), CONCEPT);
+        for (int i = 0; i < roles.length; i++) {
+            atoms[i + 1] = new OntologyPredicateAtom(PREFIX + roles[i], Arrays.asList(x, new Variable("y" + i)), ROLE);
+        }
+        return new OntologyConjunctiveQuery(Arrays.asList(atoms));
+    }
+
+    @Test
+    public void removesQueriesEqualUpToRenaming() throws Exception {
+        OntologyConjunctiveQuery first = query("R", "S");
+        OntologyConjunctiveQuery other = query("S");
+        List<OntologyConjunctiveQuery> distinct = PolicyMinimizer.removeDuplicates(Arrays.asList(
+                first, query("S", "R"), other, query("R", "S")));
+
+        assertEquals(2, distinct.size());
+        assertSame(first, distinct.get(0));
+        assertSame(other, distinct.get(1));
+    }
+
+    @Test
+    public void removesSubsumedQueries() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        CompactConjunctiveQuery general = CompactConjunctiveQuery.of(query("R"), symbols);
+        CompactConjunctiveQuery specific = CompactConjunctiveQuery.of(query("R", "S"), symbols);
+        CompactConjunctiveQuery unrelated = CompactConjunctiveQuery.of(query("S", "T"), symbols);
+
+        assertEquals(Arrays.asList(general, unrelated),
+                PolicyMinimizer.minimize(Arrays.asList(specific, general, unrelated)));
+    }
+
+}
@@ -0,0 +1,74 @@
+package ppmappingcompiler.policy;
+
+import org.junit.Test;
+import ppmappingcompiler.fol.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RedundancyConditionsTest {
+
+    private static final Variable X = new Variable("x"), Y = new Variable("y");
+
+    private static PredicateAtom atom(String predicate, Term... terms) {
+        return new PredicateAtom(predicate, Arrays.asList(terms));
+    }
+
+    private static FlatConjunction condition(Atom... atoms) {
+        return new FlatConjunction(Arrays.asList(atoms));
+    }
+
+    private static Set<FlatConjunction> set(FlatConjunction... conditions) {
+        return new HashSet<>(Arrays.asList(conditions));
+    }
+
+    @Test
+    public void removesConditionsImplyingAnother() {
+        FlatConjunction p = condition(atom("P", X));
+        FlatConjunction pq = condition(atom("P", X), atom("Q", X));
+        FlatConjunction r = condition(atom("R", X, Y));
+        assertEquals(set(p, r), RedundancyConditions.prune(set(p, pq, r)));
+    }
+
+    @Test
+    public void checksConditionsWithoutPredicates() {
+        FlatConjunction inequality = condition(new StrictInequality(X, Y));
+        FlatConjunction pInequality = condition(atom("P", X), new StrictInequality(X, Y));
+        assertEquals(set(inequality), RedundancyConditions.prune(set(inequality, pInequality)));
+    }
+
+    @Test
+    public void keepsConditionsOverOtherPredicates() {
+        FlatConjunction pq = condition(atom("P", X), atom("Q", X));
+        FlatConjunction pr = condition(atom("P", X), atom("R", X, Y));
+        FlatConjunction q = condition(atom("Q", Y));
+        assertEquals(set(pq, pr, q), RedundancyConditions.prune(set(pq, pr, q)));
+    }
+
+    @Test
+    public void keepsOneOfEquivalentConditions() {
+        FlatConjunction px = condition(atom("P", X), new Equality(X, Y));
+        FlatConjunction py = condition(atom("P", Y), new Equality(X, Y));
+        assertNotEquals(px, py);
+        Set<FlatConjunction> pruned = RedundancyConditions.prune(set(px, py));
+        assertEquals(1, pruned.size());
+        assertEquals(pruned, RedundancyConditions.prune(set(py, px)));
+    }
+
+    @Test
+    public void prunesEachDenial() {
+        FlatConjunction p = condition(atom("P", X));
+        FlatConjunction pq = condition(atom("P", X), atom("Q", X));
+        Map<String, Set<FlatConjunction>> conditions = new LinkedHashMap<>();
+        conditions.put("d1", set(p, pq));
+        conditions.put("d2", set(pq));
+
+        Map<String, Set<FlatConjunction>> pruned = RedundancyConditions.prune(conditions);
+        assertEquals(Arrays.asList("d1", "d2"), new ArrayList<>(pruned.keySet()));
+        assertEquals(set(p), pruned.get("d1"));
+        assertEquals(set(pq), pruned.get("d2"));
+        assertEquals(2, RedundancyConditions.count(pruned));
+    }
+
+}
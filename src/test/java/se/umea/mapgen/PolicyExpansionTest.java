@@ -0,0 +1,227 @@
+package se.umea.mapgen;
+
+import com.google.common.collect.ImmutableSet;
+import it.unibz.inf.ontop.injection.IntermediateQueryFactory;
+import com.google.common.collect.ImmutableList;
+import it.unibz.inf.ontop.injection.OntopModelConfiguration;
+import it.unibz.inf.ontop.iq.IQTree;
+import it.unibz.inf.ontop.iq.node.ConstructionNode;
+import it.unibz.inf.ontop.model.term.ImmutableTerm;
+import it.unibz.inf.ontop.model.term.ImmutableExpression;
+import it.unibz.inf.ontop.model.term.TermFactory;
+import it.unibz.inf.ontop.model.term.Variable;
+import it.unibz.inf.ontop.substitution.SubstitutionFactory;
+import org.junit.Test;
+import ppmappingcompiler.fol.Atom;
+import ppmappingcompiler.fol.FreshNameSupply;
+import ppmappingcompiler.fol.OntologyPredicateAtom;
+import ppmappingcompiler.policy.OntologyConjunctiveQuery;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static ppmappingcompiler.fol.OntologyPredicateAtom.Type.CONCEPT;
+
+public class PolicyExpansionTest {
+
+    // Each rule is given by the names of its variables, and is expanded into as many fresh names as it has variables
+    // (plus one): the expander stands for Ontop, whose reformulation takes an unpredictable time.
+    private static final PolicyExpansion.Expander<List<String>, String> FRESH_NAMES_EXPANDER = rule -> {
+        Thread.sleep(rule.size() % 3);
+        FreshNameSupply names = PolicyExpansion.freshNames(rule);
+        return IntStream.rangeClosed(0, rule.size()).mapToObj(i -> names.next());
+    };
+
+    private static List<List<String>> rules(int n) {
+        return IntStream.range(0, n)
+                .mapToObj(i -> IntStream.range(0, i % 5).mapToObj(j -> "x" + (j * 2 + i % 2)).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void expansionDoesNotDependOnTheNumberOfThreads() throws Exception {
+        List<List<String>> rules = rules(200);
+        List<List<String>> sequential = PolicyExpansion.expandAll(rules, 1, FRESH_NAMES_EXPANDER);
+        assertEquals(rules.size(), sequential.size());
+        for (int threads : new int[]{2, 4, 16}) {
+            assertEquals(sequential, PolicyExpansion.expandAll(rules, threads, FRESH_NAMES_EXPANDER));
+        }
+    }
+
+    @Test
+    public void freshNamesAreScopedToEachRule() throws Exception {
+        List<List<String>> rules = rules(50);
+        List<List<String>> expansions = PolicyExpansion.expandAll(rules, 8, FRESH_NAMES_EXPANDER);
+        for (int i = 0; i < rules.size(); i++) {
+            List<String> expansion = expansions.get(i);
+            // the names only avoid the variables of the rule itself, whatever the rules expanded before or meanwhile
+            assertEquals(PolicyExpansion.expandAll(Collections.singletonList(rules.get(i)), 1, FRESH_NAMES_EXPANDER).get(0), expansion);
+            assertEquals(expansion.size(), new HashSet<>(expansion).size());
+            assertTrue(Collections.disjoint(rules.get(i), expansion));
+        }
+        assertEquals(Arrays.asList("x1"), expansions.get(0));
+        assertEquals(Arrays.asList("x2", "x3"), expansions.get(1)); // avoids x1
+    }
+
+    @Test
+    public void reportsTheErrorOfTheFirstFailingRule() {
+        List<Integer> rules = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        PolicyExpansion.Expander<Integer, Integer> expander = rule -> {
+            if (rule % 30 == 29) {
+                Thread.sleep(rule == 29 ? 50 : 0); // the first failing rule fails last
+                throw new IllegalStateException("rule " + rule);
+            }
+            return Stream.of(rule);
+        };
+        for (int threads : new int[]{1, 4}) {
+            Exception e = assertThrows(IllegalStateException.class, () -> PolicyExpansion.expandAll(rules, threads, expander));
+            assertEquals("rule 29", e.getMessage());
+        }
+    }
+
+    private static final OntopModelConfiguration ONTOP = OntopModelConfiguration.defaultBuilder().build();
+    private static final TermFactory TERMS = ONTOP.getTermFactory();
+    private static final IntermediateQueryFactory IQS = ONTOP.getIQFactory();
+    private static final SubstitutionFactory SUBSTITUTIONS = ONTOP.getInjector().getInstance(SubstitutionFactory.class);
+    private static final Variable A = TERMS.getVariable("a"), B = TERMS.getVariable("b"), C = TERMS.getVariable("c");
+
+    private static List<String> bodies(ImmutableExpression condition) {
+        return PolicyExpansion.filterConditionBodies(Optional.of(condition)).stream()
+                .map(body -> body.stream().map(Atom::toString).collect(Collectors.joining(", ")))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void convertsAFilterConditionIntoComparisons() {
+        assertEquals(Collections.singletonList(Collections.emptyList()), PolicyExpansion.filterConditionBodies(Optional.empty()));
+        assertEquals(Collections.singletonList("a = b, a = c"), bodies(TERMS.getStrictEquality(A, B, C)));
+        assertEquals(Collections.singletonList("a != b"), bodies(TERMS.getDBNot(TERMS.getStrictEquality(A, B))));
+        assertEquals(Collections.singletonList("a = b"), bodies(TERMS.getConjunction(
+                TERMS.getStrictEquality(A, B), TERMS.getDBIsNull(C), TERMS.getDBNot(TERMS.getDBIsNull(A)))));
+    }
+
+    @Test
+    public void splitsANegatedEqualityBetweenMoreThanTwoTermsIntoDistinctBodies() {
+        // NOT(a = b = c) holds iff a != b or a != c, whereas a != b and a != c would not match a = c != b
+        assertEquals(Arrays.asList("a != b", "a != c"), bodies(TERMS.getDBNot(TERMS.getStrictEquality(A, B, C))));
+        assertEquals(Arrays.asList("a != b, b != c, a = c", "a != c, b != c, a = c"), bodies(TERMS.getConjunction(
+                TERMS.getDBNot(TERMS.getStrictEquality(A, B, C)),
+                TERMS.getDBNot(TERMS.getStrictEquality(B, C)),
+                TERMS.getStrictEquality(A, C))));
+    }
+
+    @Test
+    public void rejectsUnsupportedFilterConditions() {
+        assertThrows(IllegalArgumentException.class, () -> PolicyExpansion.filterConditionBodies(Optional.of(
+                TERMS.getDisjunction(TERMS.getStrictEquality(A, B), TERMS.getStrictEquality(A, C)))));
+    }
+
+    private static ConstructionNode construction(Variable v1, ImmutableTerm t1, Variable v2, ImmutableTerm t2) {
+        return IQS.createConstructionNode(ImmutableSet.of(v1, v2), SUBSTITUTIONS.getSubstitution(v1, t1, v2, t2));
+    }
+
+    @Test
+    public void convertsTheBindingsOfAConstructionNodeIntoEqualities() {
+        List<String> equalities = PolicyExpansion.substitutionAtoms(construction(A, B, C, TERMS.getDBStringConstant("k")))
+                .stream().map(Atom::toString).sorted().collect(Collectors.toList());
+        assertEquals(Arrays.asList("a = b", "c = k"), equalities);
+    }
+
+    @Test
+    public void dropsTheBindingsOfBranchTags() {
+        Variable branch = TERMS.getVariable(PolicyExpansion.BRANCH_VARIABLE);
+        List<String> equalities = PolicyExpansion.substitutionAtoms(construction(A, B, branch,
+                TERMS.getDBStringConstant(PolicyExpansion.BRANCH_TAG_PREFIX + 3)))
+                .stream().map(Atom::toString).collect(Collectors.toList());
+        assertEquals(Collections.singletonList("a = b"), equalities);
+    }
+
+    @Test
+    public void rejectsBindingsToFunctions() {
+        ConstructionNode node = construction(A, TERMS.getIRIFunctionalTerm(B), C, B);
+        assertThrows(IllegalArgumentException.class, () -> PolicyExpansion.substitutionAtoms(node));
+    }
+
+    // Each rule is given by the names of the concepts it is made of, all applied to the same variable.
+    private static List<OntologyConjunctiveQuery> conceptRules(String... rules) throws Exception {
+        List<OntologyConjunctiveQuery> queries = new ArrayList<>();
+        for (String rule : rules) {
+            List<OntologyPredicateAtom> atoms = new ArrayList<>();
+            for (String concept : rule.split(" ")) {
+                atoms.add(new OntologyPredicateAtom("http://example.org/" + concept,
+                        Collections.singletonList(new ppmappingcompiler.fol.Variable("x")), CONCEPT));
+            }
+            queries.add(new OntologyConjunctiveQuery(atoms));
+        }
+        return queries;
+    }
+
+    @Test
+    public void clustersTheRulesSharingTheMostPredicates() throws Exception {
+        List<OntologyConjunctiveQuery> rules = conceptRules("A R", "B", "B C", "A", "R C", "D");
+        assertEquals(Arrays.asList(Arrays.asList(0, 3, 4), Arrays.asList(1, 2), Collections.singletonList(5)),
+                PolicyExpansion.clusterBySignature(rules, 3));
+    }
+
+    @Test
+    public void closesTheClustersOfGroupSizeRules() throws Exception {
+        List<OntologyConjunctiveQuery> rules = conceptRules("A", "A B", "B", "A B", "C");
+        // the first cluster is full after the second rule, hence the third one starts a new cluster despite sharing B
+        assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 3), Collections.singletonList(4)),
+                PolicyExpansion.clusterBySignature(rules, 2));
+        assertEquals(Arrays.asList(Collections.singletonList(0), Collections.singletonList(1),
+                        Collections.singletonList(2), Collections.singletonList(3), Collections.singletonList(4)),
+                PolicyExpansion.clusterBySignature(rules, 1));
+    }
+
+    private static ImmutableTerm branchTag(String suffix) {
+        return TERMS.getDBStringConstant(PolicyExpansion.BRANCH_TAG_PREFIX + suffix);
+    }
+
+    @Test
+    public void extractsTheTagOfABranch() {
+        Variable branch = TERMS.getVariable(PolicyExpansion.BRANCH_VARIABLE);
+        assertEquals(Integer.valueOf(3), PolicyExpansion.branchTag(branchTag("3")));
+        assertEquals(Integer.valueOf(12), PolicyExpansion.branchTag(TERMS.getIRIFunctionalTerm(branchTag("12"))));
+        assertNull(PolicyExpansion.branchTag(TERMS.getDBStringConstant("3")));
+        assertNull(PolicyExpansion.branchTag(branchTag("x")));
+        assertNull(PolicyExpansion.branchTag(A));
+        assertEquals(Integer.valueOf(7), PolicyExpansion.branchTag(construction(A, B, branch, branchTag("7"))));
+        assertNull(PolicyExpansion.branchTag(construction(A, B, C, TERMS.getDBStringConstant("k"))));
+    }
+
+    private static IQTree tagged(@Nullable String tag, IQTree child) {
+        Variable branch = TERMS.getVariable(PolicyExpansion.BRANCH_VARIABLE);
+        return IQS.createUnaryIQTree(IQS.createConstructionNode(ImmutableSet.of(branch),
+                SUBSTITUTIONS.getSubstitution(branch, tag == null ? TERMS.getDBStringConstant("k") : branchTag(tag))),
+                child);
+    }
+
+    private static IQTree union(IQTree... children) {
+        return IQS.createNaryIQTree(IQS.createUnionNode(children[0].getVariables()), ImmutableList.copyOf(children));
+    }
+
+    @Test
+    public void splitsAUnionByTheTagsOfItsBranches() {
+        IQTree leaf = IQS.createTrueNode();
+        Map<Integer, List<IQTree>> branches = new HashMap<>();
+        // a tag binds all the branches below it
+        assertTrue(PolicyExpansion.splitBranches(union(tagged("0", leaf), tagged("1", union(leaf, leaf)),
+                tagged("0", leaf)), null, branches));
+        Map<Integer, List<IQTree>> expected = new HashMap<>();
+        expected.put(0, Arrays.asList(leaf, leaf));
+        expected.put(1, Arrays.asList(leaf, leaf));
+        assertEquals(expected, branches);
+    }
+
+    @Test
+    public void doesNotSplitAUnionWithUntaggedBranches() {
+        IQTree leaf = IQS.createTrueNode();
+        assertFalse(PolicyExpansion.splitBranches(union(tagged("0", leaf), tagged(null, leaf)), null, new HashMap<>()));
+        assertFalse(PolicyExpansion.splitBranches(union(tagged("0", leaf), leaf), null, new HashMap<>()));
+    }
+}
@@ -0,0 +1,80 @@
+package se.umea.mapgen.reformulation;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeadlineExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    // Like Ontop, queries starting with "slow" ignore the interruption: they only complete once released
+    private final DeadlineExecutor<String> executor = new DeadlineExecutor<>(query -> {
+        runs.incrementAndGet();
+        if (query.startsWith("slow")) {
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException ignored) {
+                    // keep running
+                }
+            }
+        } else if (query.startsWith("fail")) {
+            throw new IllegalArgumentException(query);
+        }
+        return query.toUpperCase();
+    }, 1, 3);
+
+    @After
+    public void releaseSlowQueries() {
+        release.countDown();
+    }
+
+    @Test
+    public void returnsTheResultWithinTheDeadline() throws Exception {
+        assertEquals("FAST", executor.reformulate("fast", 10_000));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> executor.reformulate("fail", 10_000));
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void resumesAnAbandonedReformulation() throws Exception {
+        assertThrows(ReformulationTimeoutException.class, () -> executor.reformulate("slow", 50));
+        release.countDown();
+        assertEquals("SLOW", executor.reformulate("slow", 10_000));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void reformulationsDoNotWaitForTheAbandonedOnes() throws Exception {
+        // the first slow query is evicted (and interrupted) by the second one, but it keeps running
+        assertThrows(ReformulationTimeoutException.class, () -> executor.reformulate("slow 1", 50));
+        assertThrows(ReformulationTimeoutException.class, () -> executor.reformulate("slow 2", 50));
+        assertEquals(2, executor.getRunningCount());
+        assertEquals("FAST", executor.reformulate("fast", 10_000));
+    }
+
+    @Test
+    public void rejectsReformulationsOnceTooManyAreStillRunning() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            String query = "slow " + i;
+            assertThrows(ReformulationTimeoutException.class, () -> executor.reformulate(query, 50));
+        }
+        RejectedExecutionException e = assertThrows(RejectedExecutionException.class, () -> executor.reformulate("fast", 10_000));
+        assertTrue(e.getMessage().contains("3 reformulations are still running"));
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (executor.getRunningCount() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals("FAST", executor.reformulate("fast", 10_000));
+    }
+}
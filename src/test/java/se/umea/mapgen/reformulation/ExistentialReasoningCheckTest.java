@@ -0,0 +1,89 @@
+package se.umea.mapgen.reformulation;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ExistentialReasoningCheckTest {
+
+    private static final String PREFIX = "http://example.org/";
+    private static final OWLDataFactory FACTORY = OWLManager.getOWLDataFactory();
+    private static final OWLClass A = cls("A"), B = cls("B"), C = cls("C"), D = cls("D");
+    private static final OWLObjectProperty R = FACTORY.getOWLObjectProperty(IRI.create(PREFIX + "R"));
+    private static final OWLObjectProperty S = FACTORY.getOWLObjectProperty(IRI.create(PREFIX + "S"));
+    private static final OWLObjectProperty T = FACTORY.getOWLObjectProperty(IRI.create(PREFIX + "T"));
+
+    private static OWLClass cls(String name) {
+        return FACTORY.getOWLClass(IRI.create(PREFIX + name));
+    }
+
+    private static ExistentialReasoningCheck check(OWLAxiom... axioms) throws OWLOntologyCreationException {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLOntology ontology = manager.createOntology(IRI.create(PREFIX));
+        manager.addAxioms(ontology, Arrays.asList(axioms));
+        return ExistentialReasoningCheck.of(ontology);
+    }
+
+    // A SubClassOf R some Thing
+    private static final OWLAxiom A_HAS_R = FACTORY.getOWLSubClassOfAxiom(A, FACTORY.getOWLObjectSomeValuesFrom(R, FACTORY.getOWLThing()));
+
+    private static String ask(String pattern) {
+        return String.format("PREFIX : <%s> ASK { %s }", PREFIX, pattern);
+    }
+
+    @Test
+    public void isNotNeededWithoutExistentialAxioms() throws Exception {
+        ExistentialReasoningCheck check = check(FACTORY.getOWLSubClassOfAxiom(A, B), FACTORY.getOWLObjectPropertyRangeAxiom(R, B));
+        assertTrue(check.getExistentialPredicates().isEmpty());
+        assertFalse(check.isNeeded(ask("?x :R ?y . ?y a :B")));
+    }
+
+    @Test
+    public void isNeededForTheFillersOfExistentialRestrictions() throws Exception {
+        ExistentialReasoningCheck check = check(A_HAS_R, FACTORY.getOWLSubClassOfAxiom(C, D));
+        assertTrue(check.isNeeded(ask("?x :R ?y")));
+        assertFalse(check.isNeeded("PREFIX : <" + PREFIX + "> SELECT ?x ?y WHERE { ?x :R ?y }"));
+        assertFalse(check.isNeeded(ask("?y a :D")));
+    }
+
+    @Test
+    public void followsTheRangeOfSensitiveProperties() throws Exception {
+        ExistentialReasoningCheck check = check(A_HAS_R, FACTORY.getOWLObjectPropertyRangeAxiom(R, B));
+        assertTrue(check.getExistentialPredicates().contains(B.getIRI().toString()));
+        assertTrue(check.isNeeded(ask("?y a :B")));
+    }
+
+    @Test
+    public void followsTheDomainOfSensitiveProperties() throws Exception {
+        ExistentialReasoningCheck check = check(
+                FACTORY.getOWLSubClassOfAxiom(A, FACTORY.getOWLObjectSomeValuesFrom(FACTORY.getOWLObjectInverseOf(R), FACTORY.getOWLThing())),
+                FACTORY.getOWLObjectPropertyDomainAxiom(R, C));
+        assertTrue(check.isNeeded(ask("?y a :C")));
+    }
+
+    @Test
+    public void followsAxiomsWithAnAnonymousSubClass() throws Exception {
+        // R some Thing SubClassOf D, and inverse(R) some Thing SubClassOf B
+        OWLAxiom domain = FACTORY.getOWLSubClassOfAxiom(FACTORY.getOWLObjectSomeValuesFrom(R, FACTORY.getOWLThing()), D);
+        OWLAxiom range = FACTORY.getOWLSubClassOfAxiom(
+                FACTORY.getOWLObjectSomeValuesFrom(FACTORY.getOWLObjectInverseOf(R), FACTORY.getOWLThing()), B);
+        ExistentialReasoningCheck check = check(A_HAS_R, domain, range);
+        assertTrue(check.isNeeded(ask("?y a :D")));
+        assertTrue(check.isNeeded(ask("?y a :B")));
+        assertTrue(check(A_HAS_R, FACTORY.getOWLEquivalentClassesAxiom(C, FACTORY.getOWLObjectSomeValuesFrom(R, B)))
+                .isNeeded(ask("?y a :C")));
+    }
+
+    @Test
+    public void treatsAxiomsNotModelledAsSensitive() throws Exception {
+        ExistentialReasoningCheck check = check(A_HAS_R,
+                FACTORY.getOWLSubPropertyChainOfAxiom(Arrays.asList(R, S), T),
+                FACTORY.getOWLDisjointClassesAxiom(A, C));
+        assertTrue(check.isNeeded(ask("?x :T ?y")));
+        assertFalse(check.isNeeded(ask("?y a :C")));
+    }
+}
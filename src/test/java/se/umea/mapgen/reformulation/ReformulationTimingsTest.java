@@ -0,0 +1,35 @@
+package se.umea.mapgen.reformulation;
+
+import org.junit.Test;
+
+import java.util.OptionalLong;
+
+import static org.junit.Assert.*;
+
+public class ReformulationTimingsTest {
+
+    @Test
+    public void acceptsNegativeInstants() {
+        // System.nanoTime() has an arbitrary origin, hence its values may well be negative
+        ReformulationTimings timings = new ReformulationTimings(-100, OptionalLong.of(-60), OptionalLong.of(-1),
+                OptionalLong.of(5), 10, 1, 2, 3, false);
+        assertEquals(OptionalLong.of(40), timings.getParseNanos());
+        assertEquals(OptionalLong.of(59), timings.getRewritingNanos());
+        assertEquals(OptionalLong.of(6), timings.getNativeQueryGenerationNanos());
+        assertEquals(110, timings.getTotalNanos());
+    }
+
+    @Test
+    public void hasNoDurationForThePhasesNotObserved() {
+        ReformulationTimings timings = new ReformulationTimings(0, OptionalLong.of(10), OptionalLong.empty(),
+                OptionalLong.empty(), 30, 1, -1, -1, true);
+        assertEquals(OptionalLong.of(10), timings.getParseNanos());
+        assertFalse(timings.getRewritingNanos().isPresent());
+        assertFalse(timings.getNativeQueryGenerationNanos().isPresent());
+        assertTrue(timings.toString().contains("rewriting n/a"));
+
+        ReformulationStatistics statistics = new ReformulationStatistics();
+        statistics.add(timings);
+        assertTrue(statistics.toString().contains("rewriting:               n/a"));
+    }
+}